@@ -0,0 +1,305 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package com.codename1.ui;
+
+import com.codename1.ui.geom.GeneralPath;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import org.apache.fontbox.ttf.HeaderTable;
+import org.apache.fontbox.ttf.TrueTypeFont;
+
+/**
+ * A glyph collection that draws each character with the first font of an
+ * ordered chain that has a glyph for it, so that text mixing scripts can be
+ * drawn with one font.  Characters that no font in the chain has are drawn
+ * with the missing glyph of the first font.
+ *
+ * Glyphs of the other fonts are moved to the baseline of the first font.  The
+ * font that draws a character is looked up once and then kept in a table of
+ * 256 character pages, which is shared by the sizes of a chain.  Fallback
+ * fonts are normally created with {@link FontBoxFontProvider#registerFallbackFont(java.lang.String, java.lang.String[]) }.
+ * @author shannah
+ */
+public class FallbackFontCollection implements TTFFont.PrerasterizingCollection {
+
+    /**
+     * Page entry for characters that no font in the chain has.  Other entries
+     * are the index of the font plus one, and 0 for characters that haven't
+     * been looked up yet.
+     */
+    private static final byte MISSING = (byte)0xff;
+
+    /**
+     * The maximum number of fonts in a chain, so that indices fit the pages.
+     */
+    public static final int MAX_FONTS = 254;
+
+    private final float size;
+    private final String[] names;
+    private final TrueTypeFont[] fonts;
+    private final TTFFont[] sizedFonts;
+
+    /**
+     * The offsets from the baseline of each font to the baseline of the first
+     * font, in pixels.
+     */
+    private final int[] shifts;
+
+    /**
+     * The index plus one of the font of each character, in pages of 256
+     * characters that are created on first use.  Pages and entries are
+     * published without locking, so racing threads may look a character up
+     * twice, which gives the same result.
+     */
+    private final byte[][] pages;
+
+    /**
+     * The moved glyphs of characters of the other fonts at this size, in pages
+     * of 256 characters that are created on first use and published without
+     * locking like the character table.
+     */
+    private final ShiftedGlyph[][] shiftedPages = new ShiftedGlyph[256][];
+
+    /**
+     * Creates a collection for a chain of fonts at a size.
+     * @param names The names of the fonts.
+     * @param fonts The fonts, in the order they are tried.
+     * @param size The size in pixels.
+     */
+    public FallbackFontCollection(String[] names, TrueTypeFont[] fonts, float size) {
+        this(names, fonts, size, new byte[256][]);
+    }
+
+    /**
+     * Creates a collection for another size of the same chain, sharing its
+     * character table.
+     * @param size The size in pixels.
+     * @return The collection.
+     */
+    public FallbackFontCollection deriveCollection(float size) {
+        return new FallbackFontCollection(names, fonts, size, pages);
+    }
+
+    private FallbackFontCollection(String[] names, TrueTypeFont[] fonts, float size, byte[][] pages) {
+        if (fonts.length == 0 || fonts.length > MAX_FONTS) {
+            throw new IllegalArgumentException("A fallback chain needs 1 to "+MAX_FONTS+" fonts");
+        }
+        this.names = names;
+        this.fonts = fonts;
+        this.size = size;
+        this.pages = pages;
+        sizedFonts = new TTFFont[fonts.length];
+        shifts = new int[fonts.length];
+        int baseline = getAscent(fonts[0]);
+        for (int i = 0; i < fonts.length; i++) {
+            sizedFonts[i] = fonts[i].getFont(names[i], size);
+            shifts[i] = baseline - getAscent(fonts[i]);
+        }
+    }
+
+    /**
+     * Gets the ascender of a font at this size, rounded as its glyphs do.
+     */
+    private int getAscent(TrueTypeFont font) {
+        return Math.round(font.getHorizontalHeader().getAscender() * size / font.getHeader().getUnitsPerEm());
+    }
+
+    /**
+     * Gets the fonts of the chain, in the order they are tried.
+     * @return The fonts.  The array must not be modified.
+     */
+    public TrueTypeFont[] getFonts() {
+        return fonts;
+    }
+
+    /**
+     * Gets the pixel size of the collection.
+     * @return The size in pixels.
+     */
+    public float getSize() {
+        return size;
+    }
+
+    /**
+     * Gets the index of the font that draws a character.
+     * @param c The character.
+     * @return The index of the font in the chain, or -1 if no font has the
+     * character.
+     */
+    public int getFontIndex(char c) {
+        byte[] page = pages[c >> 8];
+        if (page == null) {
+            page = new byte[256];
+            pages[c >> 8] = page;
+        }
+        byte entry = page[c & 0xff];
+        if (entry == 0) {
+            entry = MISSING;
+            for (int i = 0; i < fonts.length; i++) {
+                if (fonts[i].hasGlyph(c)) {
+                    entry = (byte)(i + 1);
+                    break;
+                }
+            }
+            page[c & 0xff] = entry;
+        }
+        return entry == MISSING ? -1 : entry - 1;
+    }
+
+    public TTFFont.Kind getKind() {
+        return TTFFont.Kind.Draw;
+    }
+
+    public TTFFont.Glyph getGlyph(char id) {
+        int index = getFontIndex(id);
+        if (index <= 0) {
+            return sizedFonts[0].getGlyph(id);
+        }
+        if (shifts[index] == 0) {
+            return sizedFonts[index].getGlyph(id);
+        }
+        ShiftedGlyph[] page = shiftedPages[id >> 8];
+        if (page == null) {
+            page = new ShiftedGlyph[256];
+            shiftedPages[id >> 8] = page;
+        }
+        ShiftedGlyph shifted = page[id & 0xff];
+        if (shifted != null) {
+            // keep the font from looking unused to the memory budget
+            fonts[index].touch();
+            return shifted;
+        }
+        TTFFont.Glyph glyph = sizedFonts[index].getGlyph(id);
+        if (glyph == null) {
+            return null;
+        }
+        shifted = new ShiftedGlyph(glyph, shifts[index]);
+        page[id & 0xff] = shifted;
+        return shifted;
+    }
+
+    public int getMaxWidth() {
+        int max = 0;
+        for (int i = 0; i < fonts.length; i++) {
+            HeaderTable h = fonts[i].getHeader();
+            max = Math.max(max, (int)(size * (h.getXMax() - h.getXMin()) / h.getUnitsPerEm()));
+        }
+        return max;
+    }
+
+    public int getMaxHeight() {
+        int max = 0;
+        for (int i = 0; i < fonts.length; i++) {
+            max = Math.max(max, sizedFonts[i].getLineHeight());
+        }
+        return max;
+    }
+
+    /**
+     * Rasterizes the characters in the background with the fonts that draw
+     * them.
+     * @param chars The characters.
+     */
+    public void prerasterize(String chars) {
+        StringBuilder[] byFont = new StringBuilder[fonts.length];
+        for (int i = 0; i < chars.length(); i++) {
+            char c = chars.charAt(i);
+            int index = Math.max(0, getFontIndex(c));
+            if (byFont[index] == null) {
+                byFont[index] = new StringBuilder();
+            }
+            byFont[index].append(c);
+        }
+        for (int i = 0; i < fonts.length; i++) {
+            if (byFont[i] != null) {
+                sizedFonts[i].prerasterize(byFont[i].toString());
+            }
+        }
+    }
+
+    public void read(InputStream in) throws IOException {
+        throw new RuntimeException("Not implemented");
+    }
+
+    public Iterator<TTFFont.Glyph> iterator() {
+        throw new RuntimeException("Not implemented yet");
+    }
+
+    /**
+     * A glyph of a fallback font, moved to the baseline of the first font.
+     */
+    private static class ShiftedGlyph implements TTFFont.SubpixelGlyph, TTFFont.StrokeOutlineGlyph, TTFFont.DistanceFieldGlyph {
+        private final TTFFont.Glyph glyph;
+        private final int shift;
+
+        ShiftedGlyph(TTFFont.Glyph glyph, int shift) {
+            this.glyph = glyph;
+            this.shift = shift;
+        }
+
+        public char getId() {
+            return glyph.getId();
+        }
+
+        public int getWidth() {
+            return glyph.getWidth();
+        }
+
+        public int getHeight() {
+            return glyph.getHeight();
+        }
+
+        public int getFixedAdvance() {
+            return TTFFont.getFixedAdvance(glyph);
+        }
+
+        public TTFFont.Glyph blit(Graphics g, int x, int y, float op) {
+            glyph.blit(g, x, y + shift, op);
+            return this;
+        }
+
+        public TTFFont.Glyph blitFixed(Graphics g, int fixedX, int y, float op) {
+            if (glyph instanceof TTFFont.SubpixelGlyph) {
+                ((TTFFont.SubpixelGlyph)glyph).blitFixed(g, fixedX, y + shift, op);
+            } else {
+                glyph.blit(g, (fixedX + 32) >> 6, y + shift, op);
+            }
+            return this;
+        }
+
+        public TTFFont.Glyph draw(Graphics g, int x, int y, float op) {
+            glyph.draw(g, x, y + shift, op);
+            return this;
+        }
+
+        public TTFFont.Glyph stroke(Graphics g, int x, int y, float op, Stroke stroke) {
+            glyph.stroke(g, x, y + shift, op, stroke);
+            return this;
+        }
+
+        public TTFFont.Glyph fill(Graphics g, int x, int y, float op) {
+            glyph.fill(g, x, y + shift, op);
+            return this;
+        }
+
+        public TTFFont.Glyph draw(GeneralPath sink, int x, int y, float op) {
+            glyph.draw(sink, x, y + shift, op);
+            return this;
+        }
+
+        public TTFFont.Glyph drawStrokeOutline(GeneralPath sink, int x, int y, Stroke stroke) {
+            ((TTFFont.StrokeOutlineGlyph)glyph).drawStrokeOutline(sink, x, y + shift, stroke);
+            return this;
+        }
+
+        public TTFFont.Glyph drawDistanceField(Graphics g, int x, int y, float hscale, float vscale, float deviceScale, int color) {
+            ((TTFFont.DistanceFieldGlyph)glyph).drawDistanceField(g, x, y + Math.round(shift * vscale), hscale, vscale, deviceScale, color);
+            return this;
+        }
+    }
+}
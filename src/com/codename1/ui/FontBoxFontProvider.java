@@ -11,11 +11,21 @@ import com.codename1.io.FileSystemStorage;
 import com.codename1.io.Log;
 import com.codename1.io.NetworkManager;
 import com.codename1.io.Storage;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import org.apache.fontbox.ttf.MemoryReport;
+import org.apache.fontbox.ttf.MemoryTTFDataStream;
 import org.apache.fontbox.ttf.TTFParser;
+import org.apache.fontbox.ttf.TTFSnapshot;
 import org.apache.fontbox.ttf.TrueTypeFont;
 
 
@@ -31,15 +41,67 @@ import org.apache.fontbox.ttf.TrueTypeFont;
  */
 public class FontBoxFontProvider implements TTFFont.FontProvider{
 
-    Map<String, TrueTypeFont> ttfMap = new HashMap<String, TrueTypeFont>();
-    private static FontBoxFontProvider defaultProvider = null;
+    /**
+     * The loaded fonts, by name.  The map is replaced rather than modified, 
+     * while holding the provider's lock, so fonts can be looked up from any 
+     * thread without locking.
+     */
+    volatile Map<String, TrueTypeFont> ttfMap = new HashMap<String, TrueTypeFont>();
+    
+    /**
+     * Loads that are in progress, by font name.  Concurrent loads of the same
+     * font wait for the first one instead of loading the font again.
+     */
+    private final Map<String, Load> loads = new HashMap<String, Load>();
+    
+    /**
+     * The prefix of the storage keys of font snapshots.
+     */
+    private static final String SNAPSHOT_PREFIX = "fontbox-snapshot-";
+    private volatile boolean snapshotCaching = true;
+    
+    /**
+     * Where fonts were loaded from, by font name, so that fonts that are 
+     * unloaded to stay within the memory budget can be loaded again.
+     */
+    private final Map<String, Source> sources = new HashMap<String, Source>();
+    
+    /**
+     * Fallback fonts, by name.  Replaced rather than modified, like 
+     * {@link #ttfMap}.
+     */
+    private volatile Map<String, Fallback> fallbacks = new HashMap<String, Fallback>();
+    
+    /**
+     * The memory budget in bytes, or 0 for no budget.
+     */
+    private volatile long memoryBudget;
+    private volatile long lastBudgetCheck;
+    
+    /**
+     * The state of the loaded fonts at the last budget check, by font name.
+     * Only used on the EDT.
+     */
+    private Map<String, BudgetState> budgetStates = new HashMap<String, BudgetState>();
+    
+    /**
+     * The minimum time between budget checks in {@link #getFont(java.lang.String, float) }.
+     */
+    private static final long BUDGET_CHECK_INTERVAL = 1000;
+    private static volatile FontBoxFontProvider defaultProvider = null;
     public static FontBoxFontProvider getDefaultProvider(){
-        if ( defaultProvider == null ){
-            
-            defaultProvider = new FontBoxFontProvider();
-            TTFFont.addProvider(defaultProvider);
+        FontBoxFontProvider provider = defaultProvider;
+        if ( provider == null ){
+            synchronized ( FontBoxFontProvider.class ){
+                provider = defaultProvider;
+                if ( provider == null ){
+                    provider = new FontBoxFontProvider();
+                    TTFFont.addProvider(provider);
+                    defaultProvider = provider;
+                }
+            }
         }
-        return defaultProvider;
+        return provider;
     }
     
     /**
@@ -51,15 +113,31 @@ public class FontBoxFontProvider implements TTFFont.FontProvider{
      * @return The specified font or null if it hasn't been loaded.
      */
     public TTFFont getFont(String name, float size) {
-        if ( ttfMap.containsKey(name)){
-            return ttfMap.get(name).getFont(name, size);
+        Fallback fallback = fallbacks.get(name);
+        if ( fallback != null ){
+            return getFallbackFont(name, fallback, size);
+        }
+        TrueTypeFont ttf = getTrueTypeFont(name);
+        if ( ttf != null ){
+            TTFFont font = ttf.getFont(name, size);
+            checkMemoryBudget();
+            return font;
+        } else if ( isLoading(name) ){
+            // don't block on a font that is loading in the background
+            return null;
         } else {
             try {
-                InputStream fontStream = Display.getInstance().getResourceAsStream(null, "/"+name+".ttf");
+                // reload fonts that were unloaded to stay within the budget
+                Source source = getSource(name);
+                if (source == null) {
+                    source = resourceSource("/"+name+".ttf");
+                }
+                InputStream fontStream = source.open();
                 if (fontStream != null) {
-                    loadTTF(name, fontStream);
-                    if ( ttfMap.containsKey(name)){
-                        return ttfMap.get(name).getFont(name, size);
+                    loadTTF(name, fontStream, source);
+                    ttf = getTrueTypeFont(name);
+                    if ( ttf != null ){
+                        return ttf.getFont(name, size);
                     }
                 }
             } catch (Exception ex){}
@@ -67,21 +145,723 @@ public class FontBoxFontProvider implements TTFFont.FontProvider{
         }
     }
     
+    /**
+     * Registers a font that draws each character with the first font of a 
+     * chain that has a glyph for it, so that text mixing scripts, for example
+     * Latin, Cyrillic and CJK, can be drawn with a single font:
+     * 
+     * <code><pre>
+     * provider.registerFallbackFont("UI", new String[]{"Roboto", "NotoSansCJK"});
+     * TTFFont font = TTFFont.getFont("UI", 16);
+     * </pre></code>
+     * 
+     * The fonts of the chain are looked up, and loaded if necessary, like
+     * fonts passed to {@link #getFont(java.lang.String, float) }, and fonts of
+     * the chain that aren't loaded yet are skipped until they are.  The text
+     * is aligned to the baseline of the first font, and takes its ascent and
+     * descent.  A fallback font takes precedence over a loaded font of the 
+     * same name, and fallback fonts in the chain are skipped.
+     * @param name The name of the fallback font.
+     * @param fontNames The names of the fonts, in the order they are tried.
+     * @see FallbackFontCollection
+     */
+    public synchronized void registerFallbackFont(String name, String[] fontNames) {
+        if (fontNames.length == 0 || fontNames.length > FallbackFontCollection.MAX_FONTS) {
+            throw new IllegalArgumentException("A fallback chain needs 1 to "+FallbackFontCollection.MAX_FONTS+" fonts");
+        }
+        Map<String, Fallback> m = new HashMap<String, Fallback>(fallbacks);
+        m.put(name, new Fallback((String[])fontNames.clone()));
+        fallbacks = m;
+    }
+    
+    /**
+     * Removes a fallback font.
+     * @param name The name of the fallback font.
+     */
+    public synchronized void unregisterFallbackFont(String name) {
+        Map<String, Fallback> m = new HashMap<String, Fallback>(fallbacks);
+        m.remove(name);
+        fallbacks = m;
+    }
+    
+    /**
+     * The number of sizes of a fallback chain whose fonts are kept.
+     */
+    private static final int FALLBACK_SIZES = 16;
+    
+    /**
+     * A fallback chain and the sizes that it has been used in.
+     */
+    private static class Fallback {
+        final String[] names;
+        
+        /**
+         * The collection that the other sizes share their character table 
+         * with, which is replaced when the loaded fonts of the chain change.
+         */
+        FallbackFontCollection base;
+        
+        /**
+         * The fonts of the most recently used sizes, least recently used 
+         * first, so that zooming or animated sizes don't grow it without limit.
+         */
+        final Map<Float, TTFFont> fonts = new LinkedHashMap<Float, TTFFont>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Float, TTFFont> eldest) {
+                return size() > FALLBACK_SIZES;
+            }
+        };
+        
+        Fallback(String[] names) {
+            this.names = names;
+        }
+    }
+    
+    private TTFFont getFallbackFont(String name, Fallback fallback, float size) {
+        List<String> names = new ArrayList<String>();
+        List<TrueTypeFont> loaded = new ArrayList<TrueTypeFont>();
+        for (int i = 0; i < fallback.names.length; i++) {
+            String member = fallback.names[i];
+            if (fallbacks.containsKey(member)) {
+                // chains don't nest
+                continue;
+            }
+            // getFont() loads fonts that aren't loaded, and checks the budget
+            if (getFont(member, size) != null) {
+                TrueTypeFont ttf = getTrueTypeFont(member);
+                if (ttf != null) {
+                    names.add(member);
+                    loaded.add(ttf);
+                }
+            }
+        }
+        if (loaded.isEmpty()) {
+            return null;
+        }
+        TrueTypeFont[] fonts = loaded.toArray(new TrueTypeFont[loaded.size()]);
+        synchronized (fallback) {
+            if (fallback.base == null || !Arrays.equals(fonts, fallback.base.getFonts())) {
+                // fonts were loaded or unloaded, so characters may resolve differently
+                fallback.base = new FallbackFontCollection(names.toArray(new String[names.size()]), fonts, size);
+                fallback.fonts.clear();
+            }
+            Float key = new Float(size);
+            TTFFont cached = fallback.fonts.get(key);
+            if (cached != null) {
+                return cached;
+            }
+            FallbackFontCollection collection = fallback.base.getSize() == size 
+                    ? fallback.base : fallback.base.deriveCollection(size);
+            TTFFont primary = fonts[0].getFont(names.get(0), size);
+            TTFFont font = new TTFFont(name, collection);
+            font.setAscent(primary.getAscent());
+            font.setDescent(primary.getDescent());
+            fallback.fonts.put(key, font);
+            return font;
+        }
+    }
+    
+    /**
+     * Returns the underlying TrueTypeFont that was loaded with the given name.
+     * This can be used to configure font-wide rendering options such as
+     * {@link TrueTypeFont#setCurveFlattening(boolean) }.
+     * @param name The name of the font (should match name provided by loadTTF()
+     * when the font was loaded.
+     * @return The font or null if it hasn't been loaded.
+     */
+    public TrueTypeFont getTrueTypeFont(String name) {
+        return ttfMap.get(name);
+    }
+    
+    /**
+     * Checks whether a font is being loaded.
+     * @param name The name of the font.
+     * @return True if a load of the font is in progress.
+     */
+    public synchronized boolean isLoading(String name) {
+        return loads.containsKey(name);
+    }
+
     /**
      * Loads a True Type font from an input stream.  This must be called before
  the getFont() method will be able to retrieve the font.
+ 
+     * If snapshot caching is enabled (see {@link #setSnapshotCaching(boolean) })
+     * the parsed font is written to {@link Storage} as a compact snapshot, and 
+     * later loads of the same font data, e.g. on later launches of the app, are
+     * loaded from the snapshot instead of parsing the font's tables.
+     * 
+     * If the font is already being loaded by another thread, this waits for
+     * that load instead of loading the font again.
      * @param name The name of the font.  Used for looking up later via {@link #getFont(java.lang.String, float) }
      * @param is InputStream with the .ttf file contents.
      * @throws IOException 
      */
     public void loadTTF(String name, InputStream is) throws IOException{
-        if (ttfMap.containsKey(name)) {
+        loadTTF(name, is, null);
+    }
+    
+    /**
+     * Loads a True Type font from the application resources.  Unlike fonts 
+     * loaded from a stream, fonts loaded from resources can be unloaded when
+     * the memory budget is exceeded, and are loaded again on next use.
+     * @param name The name of the font.  Used for looking up later via {@link #getFont(java.lang.String, float) }
+     * @param resourcePath The resource path of the .ttf file.
+     * @throws IOException If the resource is missing or isn't a valid font.
+     * @see #setMemoryBudget(long) 
+     */
+    public void loadTTF(String name, String resourcePath) throws IOException {
+        Source source = resourceSource(resourcePath);
+        InputStream is = source.open();
+        if (is == null) {
+            throw new IOException("Font resource "+resourcePath+" not found");
+        }
+        loadTTF(name, is, source);
+    }
+    
+    /**
+     * Loads a font and records where it was loaded from.
+     * @param source Where the font can be loaded again from, or null if it 
+     * can't be loaded again.
+     */
+    private void loadTTF(String name, InputStream is, Source source) throws IOException {
+        if (source != null) {
+            setSource(name, source);
+        }
+        if (getTrueTypeFont(name) != null) {
+            return;
+        }
+        if (!joinLoad(name, null)) {
+            closeQuietly(is);
+            awaitLoad(name);
+            if (getTrueTypeFont(name) == null) {
+                // the other load failed or the wait was interrupted
+                throw new IOException("Font "+name+" could not be loaded");
+            }
             return;
         }
-        TTFParser parser = new TTFParser();
-        TrueTypeFont font = parser.parseTTF(is);
-        ttfMap.put(name, font);
+        TrueTypeFont font = null;
+        Throwable error = null;
+        try {
+            font = parseTTF(name, is);
+        } catch (IOException ex) {
+            error = ex;
+            throw ex;
+        } catch (RuntimeException ex) {
+            error = ex;
+            throw ex;
+        } finally {
+            finishLoad(name, font, error);
+        }
+    }
+    
+    /**
+     * Parses a font, or loads it from its snapshot.
+     */
+    private TrueTypeFont parseTTF(String name, InputStream is) throws IOException {
+        if (!snapshotCaching) {
+            TTFParser parser = new TTFParser();
+            return parser.parseTTF(is);
+        }
+        byte[] data = readFully(is);
+        int hash = TTFSnapshot.hash(data);
+        String key = getSnapshotKey(name, hash);
+        TrueTypeFont font = readSnapshot(key, data, hash);
+        if (font == null) {
+            font = new TTFParser().parseTTF(new MemoryTTFDataStream(data));
+            writeSnapshot(name, key, font, hash);
+        }
+        return font;
+    }
+    
+    /**
+     * Receives the result of an asynchronous font load.  Methods are called on
+     * the EDT.
+     */
+    public static interface LoadCallback {
+        
+        /**
+         * Called when the font has been loaded.  It can now be retrieved with
+         * {@link TTFFont#getFont(java.lang.String, float) }.
+         * @param name The name of the font.
+         * @param font The loaded font.
+         */
+        public void fontLoaded(String name, TrueTypeFont font);
         
+        /**
+         * Called when the font could not be loaded.
+         * @param name The name of the font.
+         * @param error The cause of the failure.
+         */
+        public void fontLoadFailed(String name, Throwable error);
+    }
+    
+    /**
+     * A load in progress and the callbacks waiting for it.
+     */
+    private static class Load {
+        final List<LoadCallback> callbacks = new ArrayList<LoadCallback>();
+    }
+    
+    /**
+     * Opens the data of a font, for background loads and for loading fonts
+     * again that were unloaded.
+     */
+    private static interface Source {
+        InputStream open() throws IOException;
+    }
+    
+    private synchronized void setSource(String name, Source source) {
+        sources.put(name, source);
+    }
+    
+    private synchronized Source getSource(String name) {
+        return sources.get(name);
+    }
+    
+    private static Source resourceSource(final String resourcePath) {
+        return new Source() {
+            public InputStream open() throws IOException {
+                return Display.getInstance().getResourceAsStream(null, resourcePath);
+            }
+        };
+    }
+    
+    private static Source storageSource(final String storageKey, final String url) {
+        return new Source() {
+            public InputStream open() throws IOException {
+                return openFromStorage(storageKey, url);
+            }
+        };
+    }
+    
+    private static Source fileSystemSource(final String path, final String url) {
+        return new Source() {
+            public InputStream open() throws IOException {
+                return openFromFileSystem(path, url);
+            }
+        };
+    }
+    
+    /**
+     * Joins the load of a font that is in progress, or starts a new one.
+     * @return True if the caller started a new load and must finish it with
+     * {@link #finishLoad(java.lang.String, org.apache.fontbox.ttf.TrueTypeFont, java.lang.Throwable) }
+     */
+    private synchronized boolean joinLoad(String name, LoadCallback callback) {
+        Load load = loads.get(name);
+        boolean started = load == null;
+        if (started) {
+            load = new Load();
+            loads.put(name, load);
+        }
+        if (callback != null) {
+            load.callbacks.add(callback);
+        }
+        return started;
+    }
+    
+    private void finishLoad(final String name, final TrueTypeFont font, final Throwable error) {
+        final Load load;
+        synchronized (this) {
+            if (font != null) {
+                Map<String, TrueTypeFont> fonts = new HashMap<String, TrueTypeFont>(ttfMap);
+                fonts.put(name, font);
+                ttfMap = fonts;
+            }
+            load = loads.remove(name);
+            notifyAll();
+        }
+        if (font != null) {
+            enforceMemoryBudget();
+        }
+        if (load == null || load.callbacks.isEmpty()) {
+            return;
+        }
+        Display.getInstance().callSerially(new Runnable() {
+            public void run() {
+                for (LoadCallback callback : load.callbacks) {
+                    deliver(callback, name, font, error);
+                }
+            }
+        });
+    }
+    
+    private static void deliver(LoadCallback callback, String name, TrueTypeFont font, Throwable error) {
+        if (font != null) {
+            callback.fontLoaded(name, font);
+        } else {
+            callback.fontLoadFailed(name, error != null ? error : new IOException("Font "+name+" could not be loaded"));
+        }
+    }
+    
+    /**
+     * Waits for the load of a font by another thread to finish.
+     */
+    private void awaitLoad(final String name) {
+        Runnable wait = new Runnable() {
+            public void run() {
+                synchronized (FontBoxFontProvider.this) {
+                    while (loads.containsKey(name)) {
+                        try {
+                            FontBoxFontProvider.this.wait();
+                        } catch (InterruptedException ex) {
+                            Thread.currentThread().interrupt();
+                            return;
+                        }
+                    }
+                }
+            }
+        };
+        if (Display.getInstance().isEdt()) {
+            // keeps the EDT painting while the other thread loads
+            Display.getInstance().invokeAndBlock(wait);
+        } else {
+            wait.run();
+        }
+    }
+    
+    /**
+     * Loads a font on a background thread, unless it is already loaded or 
+     * being loaded, in which case the callback receives the result of that load.
+     * @param reloadable True if the font can be loaded again from the source
+     * after it has been unloaded.
+     * @return True if a new load was started.
+     */
+    private boolean loadAsync(final String name, final Source source, boolean reloadable, final LoadCallback callback) {
+        if (reloadable) {
+            setSource(name, source);
+        }
+        final TrueTypeFont loaded = getTrueTypeFont(name);
+        if (loaded != null) {
+            if (callback != null) {
+                Display.getInstance().callSerially(new Runnable() {
+                    public void run() {
+                        callback.fontLoaded(name, loaded);
+                    }
+                });
+            }
+            return false;
+        }
+        if (!joinLoad(name, callback)) {
+            return false;
+        }
+        Display.getInstance().startThread(new Runnable() {
+            public void run() {
+                TrueTypeFont font = null;
+                Throwable error = null;
+                try {
+                    InputStream is = source.open();
+                    if (is == null) {
+                        error = new IOException("Font "+name+" not found");
+                    } else {
+                        font = parseTTF(name, is);
+                    }
+                } catch (Throwable t) {
+                    Log.e(t);
+                    error = t;
+                } finally {
+                    finishLoad(name, font, error);
+                }
+            }
+        }, "Font loader "+name).start();
+        return true;
+    }
+    
+    /**
+     * Loads a True Type font from an input stream on a background thread.  
+     * Concurrent loads of the same font name share a single load.  Until the 
+     * font is loaded, {@link #getFont(java.lang.String, float) } returns null
+     * for it, so fallback text can be shown.
+     * @param name The name of the font.  Used for looking up later via {@link #getFont(java.lang.String, float) }
+     * @param is InputStream with the .ttf file contents.
+     * @param callback Notified on the EDT when the load completes, or null.
+     */
+    public void loadTTFAsync(String name, final InputStream is, LoadCallback callback) {
+        // a stream can only be read once, so the font can't be unloaded
+        boolean started = loadAsync(name, new Source() {
+            public InputStream open() throws IOException {
+                return is;
+            }
+        }, false, callback);
+        if (!started) {
+            closeQuietly(is);
+        }
+    }
+    
+    /**
+     * Loads a True Type font from the application resources on a background
+     * thread.
+     * @param name The name of the font.  Used for looking up later via {@link #getFont(java.lang.String, float) }
+     * @param resourcePath The resource path of the .ttf file.
+     * @param callback Notified on the EDT when the load completes, or null.
+     * @see #loadTTFAsync(java.lang.String, java.io.InputStream, com.codename1.ui.FontBoxFontProvider.LoadCallback) 
+     */
+    public void loadTTFAsync(String name, String resourcePath, LoadCallback callback) {
+        loadAsync(name, resourceSource(resourcePath), true, callback);
+    }
+
+    /**
+     * The number of characters that a warm-up prepares per step.
+     */
+    private static final int WARM_UP_SLICE = 16;
+
+    /**
+     * Prepares a font for drawing the given characters at the given sizes on
+     * a background thread, so that a splash screen can pay the cost of the
+     * first paint: the font is loaded if necessary, its glyphs are decoded,
+     * their outlines built and their masks rasterized.
+     * @param name The name of the font, or of a fallback font.
+     * @param sizes The sizes in pixels.
+     * @param charset The characters.
+     * @see #warmUp(java.lang.String, float[], java.lang.String, boolean, boolean, java.lang.Runnable)
+     */
+    public void warmUp(String name, float[] sizes, String charset) {
+        warmUp(name, sizes, charset, true, false, null);
+    }
+
+    /**
+     * Prepares a font for drawing the given characters at the given sizes, so
+     * that a splash screen can pay the cost of the first paint.  The font is
+     * loaded on a background thread if necessary, and then the glyphs of the
+     * characters are decoded and their outlines built in steps of a few 
+     * characters, either on that thread or on the EDT, one step per call to 
+     * {@link Display#callSerially(java.lang.Runnable) } so that the EDT keeps
+     * painting in between.
+     * @param name The name of the font, or of a fallback font.
+     * @param sizes The sizes in pixels.
+     * @param charset The characters.
+     * @param rasterize True to also rasterize the masks that glyphs are blitted
+     * with (see {@link TTFFont#prerasterize(java.lang.String) }).
+     * @param onEdt True to run the steps on the EDT, false to run them on a
+     * background thread.
+     * @param callback Called on the EDT when the warm-up is done, or null.
+     */
+    public void warmUp(String name, float[] sizes, String charset, boolean rasterize, final boolean onEdt, Runnable callback) {
+        final WarmUp warmUp = new WarmUp(name, (float[])sizes.clone(), charset, rasterize, onEdt, callback);
+        Display.getInstance().startThread(new Runnable() {
+            public void run() {
+                try {
+                    // loading parses the fonts and reads storage, which would
+                    // stall the EDT for longer than a step
+                    warmUp.fonts = warmUp.loadFonts();
+                    if (onEdt) {
+                        Display.getInstance().callSerially(warmUp);
+                    } else {
+                        while (warmUp.step()) {
+                        }
+                    }
+                } catch (Throwable t) {
+                    Log.e(t);
+                }
+            }
+        }, "Font warm-up "+name).start();
+    }
+
+    /**
+     * A warm-up in progress.
+     */
+    private class WarmUp implements Runnable {
+        final String name;
+        final float[] sizes;
+        final String charset;
+        final boolean rasterize;
+        final boolean onEdt;
+        final Runnable callback;
+        volatile TrueTypeFont[] fonts;
+        int position;
+
+        WarmUp(String name, float[] sizes, String charset, boolean rasterize, boolean onEdt, Runnable callback) {
+            this.name = name;
+            this.sizes = sizes;
+            this.charset = charset;
+            this.rasterize = rasterize;
+            this.onEdt = onEdt;
+            this.callback = callback;
+        }
+
+        /**
+         * Runs a step on the EDT and schedules the next one.
+         */
+        public void run() {
+            try {
+                if (step()) {
+                    Display.getInstance().callSerially(this);
+                }
+            } catch (Throwable t) {
+                Log.e(t);
+            }
+        }
+
+        /**
+         * Prepares the next few characters with the loaded fonts.
+         * @return True if there are more steps.
+         */
+        boolean step() {
+            int end = Math.min(position + WARM_UP_SLICE, charset.length());
+            String slice = charset.substring(position, end);
+            for (int i = 0; i < fonts.length; i++) {
+                for (int j = 0; j < sizes.length; j++) {
+                    fonts[i].warmUp(slice, sizes[j]);
+                }
+            }
+            position = end;
+            if (position < charset.length()) {
+                return true;
+            }
+            finish();
+            return false;
+        }
+
+        private TrueTypeFont[] loadFonts() {
+            Fallback fallback = fallbacks.get(name);
+            String[] names = fallback != null ? fallback.names : new String[]{name};
+            List<TrueTypeFont> out = new ArrayList<TrueTypeFont>();
+            for (int i = 0; i < names.length; i++) {
+                if (isLoading(names[i])) {
+                    awaitLoad(names[i]);
+                }
+                if (getTrueTypeFont(names[i]) == null) {
+                    // loads the font from its source or the resources
+                    getFont(names[i], sizes.length > 0 ? sizes[0] : 12);
+                }
+                TrueTypeFont font = getTrueTypeFont(names[i]);
+                if (font != null) {
+                    out.add(font);
+                }
+            }
+            return out.toArray(new TrueTypeFont[out.size()]);
+        }
+
+        private void finish() {
+            Display.getInstance().callSerially(new Runnable() {
+                public void run() {
+                    if (rasterize) {
+                        for (int i = 0; i < sizes.length; i++) {
+                            // the interned font keeps the masks of its size cached
+                            TTFFont font = TTFFont.getFont(FontBoxFontProvider.this, name, sizes[i]);
+                            if (font != null) {
+                                font.prerasterize(charset);
+                            }
+                        }
+                    }
+                    if (callback != null) {
+                        callback.run();
+                    }
+                }
+            });
+        }
+    }
+
+    private String getSnapshotKey(String name, int hash) {
+        return SNAPSHOT_PREFIX + name.replace('/', '_') + "-" + Integer.toHexString(hash);
+    }
+    
+    private TrueTypeFont readSnapshot(String key, byte[] data, int hash) {
+        Storage s = Storage.getInstance();
+        if (!s.exists(key)) {
+            return null;
+        }
+        InputStream in = null;
+        try {
+            in = s.createInputStream(key);
+            return TTFSnapshot.read(data, hash, in);
+        } catch (IOException ex) {
+            // corrupt or from an older version of the library
+            Log.e(ex);
+            s.deleteStorageFile(key);
+            return null;
+        } catch (RuntimeException ex) {
+            // corrupt in a way that the format checks don't catch
+            Log.e(ex);
+            s.deleteStorageFile(key);
+            return null;
+        } finally {
+            closeQuietly(in);
+        }
+    }
+    
+    private void writeSnapshot(String name, String key, TrueTypeFont font, int hash) {
+        Storage s = Storage.getInstance();
+        // snapshots of earlier versions of the font are never read again
+        String stale = SNAPSHOT_PREFIX + name.replace('/', '_') + "-";
+        String[] entries = s.listEntries();
+        if (entries != null) {
+            for (int i = 0; i < entries.length; i++) {
+                if (entries[i].startsWith(stale) && entries[i].indexOf('-', stale.length()) < 0) {
+                    s.deleteStorageFile(entries[i]);
+                }
+            }
+        }
+        OutputStream out = null;
+        try {
+            out = s.createOutputStream(key);
+            TTFSnapshot.write(font, hash, out);
+        } catch (IOException ex) {
+            Log.e(ex);
+            closeQuietly(out);
+            out = null;
+            s.deleteStorageFile(key);
+        } finally {
+            closeQuietly(out);
+        }
+    }
+    
+    private static byte[] readFully(InputStream is) throws IOException {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(1024, is.available()));
+            byte[] buf = new byte[8192];
+            int len;
+            while ((len = is.read(buf)) != -1) {
+                out.write(buf, 0, len);
+            }
+            return out.toByteArray();
+        } finally {
+            is.close();
+        }
+    }
+    
+    private static void closeQuietly(Object stream) {
+        try {
+            if (stream instanceof InputStream) {
+                ((InputStream)stream).close();
+            } else if (stream instanceof OutputStream) {
+                ((OutputStream)stream).close();
+            }
+        } catch (IOException ex) {}
+    }
+    
+    /**
+     * Enables or disables caching of parsed fonts in {@link Storage}.  Enabled
+     * by default.
+     * @param cache True to load fonts from snapshots of earlier loads.
+     */
+    public void setSnapshotCaching(boolean cache) {
+        snapshotCaching = cache;
+    }
+    
+    /**
+     * Checks whether parsed fonts are cached in {@link Storage}.
+     * @return True if fonts are loaded from snapshots of earlier loads.
+     */
+    public boolean isSnapshotCaching() {
+        return snapshotCaching;
+    }
+    
+    /**
+     * Deletes the snapshots of all fonts from {@link Storage}.
+     */
+    public void clearSnapshots() {
+        Storage s = Storage.getInstance();
+        String[] entries = s.listEntries();
+        if (entries == null) {
+            return;
+        }
+        for (int i = 0; i < entries.length; i++) {
+            if (entries[i].startsWith(SNAPSHOT_PREFIX)) {
+                s.deleteStorageFile(entries[i]);
+            }
+        }
     }
     
     /**
@@ -93,13 +873,37 @@ public class FontBoxFontProvider implements TTFFont.FontProvider{
      * @throws IOException 
      */
     public void createFontToStorage(String name, String storageKey, String url) throws IOException {
-        if (ttfMap.containsKey(name)) {
+        if (getTrueTypeFont(name) != null) {
             return;
         }
+        Source source = storageSource(storageKey, url);
+        InputStream is = source.open();
+        if (is != null) {
+            loadTTF(name, is, source);
+        }
+    }
+    
+    /**
+     * Asynchronous version of {@link #createFontToStorage(java.lang.String, java.lang.String, java.lang.String) }
+     * that downloads and loads the font on a background thread.
+     * @param name The name of the font.  Used for looking up later via {@link #getFont(java.lang.String, float) }
+     * @param storageKey The storage key where font should be stored.
+     * @param url The url where the font should be downloaded.
+     * @param callback Notified on the EDT when the load completes, or null.
+     * @see #loadTTFAsync(java.lang.String, java.io.InputStream, com.codename1.ui.FontBoxFontProvider.LoadCallback) 
+     */
+    public void createFontToStorageAsync(String name, String storageKey, String url, LoadCallback callback) {
+        loadAsync(name, storageSource(storageKey, url), true, callback);
+    }
+    
+    /**
+     * Opens a font in storage, downloading it first if necessary.
+     * @return The stream, or null if the font couldn't be downloaded.
+     */
+    private static InputStream openFromStorage(String storageKey, String url) throws IOException {
         Storage s = Storage.getInstance();
         if (s.exists(storageKey)) {
-            loadTTF(name, s.createInputStream(storageKey));
-            return;
+            return s.createInputStream(storageKey);
         }
         ConnectionRequest req = new ConnectionRequest();
         req.setFailSilently(true);
@@ -109,10 +913,9 @@ public class FontBoxFontProvider implements TTFFont.FontProvider{
         req.setUrl(url);
         NetworkManager.getInstance().addToQueueAndWait(req);
         if (s.exists(storageKey)) {
-            loadTTF(name, s.createInputStream(storageKey));
-            return;
+            return s.createInputStream(storageKey);
         }
-        
+        return null;
     }
     
     /**
@@ -124,10 +927,34 @@ public class FontBoxFontProvider implements TTFFont.FontProvider{
      * @throws IOException 
      */
     public void createFontToFileSystem(String name, String path, String url) throws IOException {
+        Source source = fileSystemSource(path, url);
+        InputStream is = source.open();
+        if (is != null) {
+            loadTTF(name, is, source);
+        }
+    }
+    
+    /**
+     * Asynchronous version of {@link #createFontToFileSystem(java.lang.String, java.lang.String, java.lang.String) }
+     * that downloads and loads the font on a background thread.
+     * @param name The name of the font.  Used for looking up later via {@link #getFont(java.lang.String, float) }
+     * @param path The file system path where the font should be saved.
+     * @param url The url where the font may be downloaded.
+     * @param callback Notified on the EDT when the load completes, or null.
+     * @see #loadTTFAsync(java.lang.String, java.io.InputStream, com.codename1.ui.FontBoxFontProvider.LoadCallback) 
+     */
+    public void createFontToFileSystemAsync(String name, String path, String url, LoadCallback callback) {
+        loadAsync(name, fileSystemSource(path, url), true, callback);
+    }
+    
+    /**
+     * Opens a font in the file system, downloading it first if necessary.
+     * @return The stream, or null if the font couldn't be downloaded.
+     */
+    private static InputStream openFromFileSystem(String path, String url) throws IOException {
         FileSystemStorage s = FileSystemStorage.getInstance();
         if (s.exists(path)) {
-            loadTTF(name,s.openInputStream(path));
-            return;
+            return s.openInputStream(path);
         }
         ConnectionRequest req = new ConnectionRequest();
         req.setFailSilently(true);
@@ -137,18 +964,297 @@ public class FontBoxFontProvider implements TTFFont.FontProvider{
         req.setUrl(url);
         NetworkManager.getInstance().addToQueueAndWait(req);
         if (s.exists(path)) {
-            loadTTF(name, s.openInputStream(path));
-            return;
+            return s.openInputStream(path);
         }
+        return null;
+    }
+    
+    /**
+     * Clears the font cache.  Fonts that were loaded from resources, storage or
+     * the file system are loaded again on next use.
+     */
+    public synchronized void clearFontCache(){
+        ttfMap = new HashMap<String, TrueTypeFont>();
         
     }
     
     /**
-     * Clears the font cache.
+     * Sets the memory budget for loaded fonts.  When the estimated memory of
+     * the loaded fonts (see {@link TrueTypeFont#getMemoryUsage() }) exceeds the
+     * budget, the least recently used fonts first release their decoded glyphs
+     * and cached paths, masks and images, which are recreated when they are
+     * drawn again.  If that isn't enough, least recently used fonts that were 
+     * loaded from resources, storage or the file system, and that are no 
+     * longer in use (see {@link TrueTypeFont#isInUse() }), are unloaded, and 
+     * are loaded again transparently on next use.  Fonts that are still 
+     * referenced, e.g. by a style, stay loaded, since unloading them would 
+     * free nothing.  Fonts that were loaded from a plain input stream are 
+     * never unloaded.
+     * 
+     * Fonts that were used since the previous check, and the most recently 
+     * used font, keep their caches, and fonts are only unloaded once they 
+     * stayed unused across two checks, so that fonts in use aren't released 
+     * on every check when they exceed the budget.
+     * 
+     * The budget is checked when fonts are loaded, and at most once a second
+     * when fonts are retrieved with {@link #getFont(java.lang.String, float) }.
+     * @param bytes The budget in bytes, or 0 for no budget, which is the default.
+     */
+    public void setMemoryBudget(long bytes) {
+        memoryBudget = bytes;
+        enforceMemoryBudget();
+    }
+    
+    /**
+     * Gets the memory budget for loaded fonts.
+     * @return The budget in bytes, or 0 if there is no budget.
+     * @see #setMemoryBudget(long) 
      */
-    public void clearFontCache(){
-        ttfMap.clear();
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+    
+    /**
+     * Estimates the memory used by the loaded fonts.
+     * @return The estimated size in bytes.
+     */
+    public long getMemoryUsage() {
+        long bytes = 0;
+        TrueTypeFont[] fonts = getLoadedFonts();
+        for (int i = 0; i < fonts.length; i++) {
+            bytes += fonts[i].getMemoryUsage();
+        }
+        return bytes;
+    }
+    
+    /**
+     * Estimates the memory used by the loaded fonts, broken down by component,
+     * for example to log it when memory runs low.
+     * @return The report of all loaded fonts.
+     */
+    public MemoryReport getMemoryReport() {
+        MemoryReport report = new MemoryReport();
+        TrueTypeFont[] fonts = getLoadedFonts();
+        for (int i = 0; i < fonts.length; i++) {
+            report.add(fonts[i].getMemoryReport());
+        }
+        return report;
+    }
+    
+    /**
+     * Estimates the memory used by a loaded font, broken down by component.
+     * @param name The name of the font.
+     * @return The report, or null if the font isn't loaded.
+     */
+    public MemoryReport getMemoryReport(String name) {
+        TrueTypeFont font = getTrueTypeFont(name);
+        return font == null ? null : font.getMemoryReport();
+    }
+    
+    private TrueTypeFont[] getLoadedFonts() {
+        Map<String, TrueTypeFont> fonts = ttfMap;
+        return fonts.values().toArray(new TrueTypeFont[fonts.size()]);
+    }
+    
+    private void checkMemoryBudget() {
+        if (memoryBudget <= 0) {
+            return;
+        }
+        // racing threads may both check, which is harmless
+        long now = System.currentTimeMillis();
+        if (now - lastBudgetCheck < BUDGET_CHECK_INTERVAL) {
+            return;
+        }
+        lastBudgetCheck = now;
+        enforceMemoryBudget();
+    }
+    
+    /**
+     * Trims the loaded fonts to the memory budget on the EDT, since the caches
+     * that are released are only used there.
+     */
+    private void enforceMemoryBudget() {
+        if (getMemoryBudget() <= 0) {
+            return;
+        }
+        if (Display.getInstance().isEdt()) {
+            trimToBudget(getMemoryBudget(), false);
+        } else {
+            Display.getInstance().callSerially(new Runnable() {
+                public void run() {
+                    trimToBudget(getMemoryBudget(), false);
+                }
+            });
+        }
+    }
+    
+    /**
+     * Frees as much font memory as possible when the application is running 
+     * low on memory, for example from a low memory warning of the platform.
+     * All loaded fonts release their caches, the string snapshots of 
+     * {@link TTFFont} are discarded, and fonts that can be loaded again and
+     * are no longer in use are unloaded, except the most recently used one.  Glyph paths and images
+     * are also held through soft references, see {@link TrueTypeFont#setSoftCaching(boolean) },
+     * so that the platform can reclaim them without this call.  Can be called
+     * from any thread.
+     */
+    public void onLowMemory() {
+        Runnable release = new Runnable() {
+            public void run() {
+                TTFFont.clearSnapshotCache();
+                trimToBudget(0, true);
+            }
+        };
+        if (Display.getInstance().isEdt()) {
+            release.run();
+        } else {
+            Display.getInstance().callSerially(release);
+        }
+    }
+    
+    /**
+     * Releases caches of, and then unloads, the least recently used fonts until
+     * the loaded fonts are within a budget.  Fonts that were used since the 
+     * previous check, and the most recently used font, are spared, so that a
+     * budget that the fonts in use exceed doesn't release their caches on every
+     * check.  Fonts are only unloaded once they stayed unused across two checks.
+     * @param budget The budget in bytes.
+     * @param force True to release the caches of all fonts and unload all
+     * unused fonts regardless of when they were last used, when memory is low.
+     */
+    private void trimToBudget(long budget, boolean force) {
+        String[] names;
+        TrueTypeFont[] fonts;
+        long[] used;
+        synchronized (this) {
+            Map<String, TrueTypeFont> loaded = ttfMap;
+            names = loaded.keySet().toArray(new String[loaded.size()]);
+            fonts = new TrueTypeFont[names.length];
+            used = new long[names.length];
+            // copy the use counters, since other threads advance them
+            for (int i = 0; i < names.length; i++) {
+                fonts[i] = loaded.get(names[i]);
+                used[i] = fonts[i].getLastUsed();
+            }
+        }
+        int count = names.length;
+        // least recently used first
+        Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = Integer.valueOf(i);
+        }
+        final long[] keys = used;
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                long ua = keys[a.intValue()];
+                long ub = keys[b.intValue()];
+                return ua < ub ? -1 : (ua > ub ? 1 : 0);
+            }
+        });
+        Map<String, BudgetState> states = new HashMap<String, BudgetState>();
+        long total = 0;
+        for (int i = 0; i < count; i++) {
+            String name = names[i];
+            BudgetState state = budgetStates.get(name);
+            if (state == null || state.font != fonts[i]) {
+                state = new BudgetState(fonts[i], used[i]);
+            } else if (state.lastUsed == used[i]) {
+                state.idleChecks++;
+            } else {
+                state.lastUsed = used[i];
+                state.idleChecks = 0;
+                // the caches of idle fonts don't grow, so their usage is kept
+                state.usage = -1;
+            }
+            if (state.usage < 0) {
+                state.usage = fonts[i].getMemoryUsage();
+            }
+            states.put(name, state);
+            total += state.usage;
+        }
+        budgetStates = states;
+        int spared = force ? 0 : 1;
+        for (int j = 0; j < count - spared && total > budget; j++) {
+            int i = order[j].intValue();
+            BudgetState state = states.get(names[i]);
+            if (!force && state.idleChecks == 0) {
+                continue;
+            }
+            fonts[i].releaseCaches();
+            long released = fonts[i].getMemoryUsage();
+            total -= state.usage - released;
+            state.usage = released;
+        }
+        // the most recently used font stays loaded, since it is likely to be drawn next
+        for (int j = 0; j < count - 1 && total > budget; j++) {
+            int i = order[j].intValue();
+            String name = names[i];
+            TrueTypeFont font = fonts[i];
+            BudgetState state = states.get(name);
+            if (getSource(name) == null || (!force && state.idleChecks < 2)) {
+                continue;
+            }
+            releaseReferences(name, font);
+            if (font.isInUse()) {
+                // unloading it would free nothing, and it would be loaded twice
+                continue;
+            }
+            synchronized (this) {
+                if (ttfMap.get(name) != font) {
+                    continue;
+                }
+                Map<String, TrueTypeFont> loaded = new HashMap<String, TrueTypeFont>(ttfMap);
+                loaded.remove(name);
+                ttfMap = loaded;
+            }
+            states.remove(name);
+            total -= state.usage;
+        }
+    }
+    
+    /**
+     * What a budget check saw of a loaded font.
+     */
+    private static class BudgetState {
+        final TrueTypeFont font;
+        long lastUsed;
+        
+        /**
+         * The number of checks in a row that saw the font unused.
+         */
+        int idleChecks;
+        
+        /**
+         * The estimated memory usage in bytes, or -1 if it must be estimated again.
+         */
+        long usage = -1;
         
+        BudgetState(TrueTypeFont font, long lastUsed) {
+            this.font = font;
+            this.lastUsed = lastUsed;
+        }
+    }
+    
+    /**
+     * Drops the references that the caches of the library hold to a font's 
+     * glyphs: its interned fonts and string snapshots, and the fallback fonts
+     * that include it.  Once fonts that the application holds are no longer 
+     * referenced either, and have been garbage collected, the font is no 
+     * longer in use and can be unloaded by a later budget check.
+     */
+    private void releaseReferences(String name, TrueTypeFont font) {
+        TTFFont.evictFont(this, name);
+        for (Map.Entry<String, Fallback> e : fallbacks.entrySet()) {
+            Fallback fallback = e.getValue();
+            synchronized (fallback) {
+                if (fallback.base == null || !Arrays.asList(fallback.base.getFonts()).contains(font)) {
+                    continue;
+                }
+                fallback.base = null;
+                fallback.fonts.clear();
+            }
+            TTFFont.evictFont(this, e.getKey());
+        }
     }
     
 }
@@ -0,0 +1,378 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package com.codename1.ui;
+
+import com.codename1.ui.geom.GeneralPath;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * A glyph collection that is loaded from artifacts generated at build time by
+ * the glyph atlas compiler (see the <code>precompile-glyphs</code> Ant target),
+ * so that no TTF parsing or rasterization happens at runtime.
+ *
+ * The artifacts are a metrics file with the extension <code>.cn1glyphs</code>,
+ * which holds the glyph metrics, atlas locations and kerning pairs for one font
+ * size and character set, and an atlas PNG with the anti-aliased glyphs in white.
+ * Both are loaded from the application resources:
+ *
+ * <code><pre>
+ * TTFFont font = new TTFFont("Roboto-16.cn1glyphs");
+ * </pre></code>
+ *
+ * Glyphs of precompiled collections can only be blitted: fonts of this kind
+ * ({@link TTFFont.Kind#Blit}) can't be stroked and throw an
+ * IllegalStateException when their outlines are requested.  Characters
+ * that aren't in the character set are drawn as blanks.
+ * @author shannah
+ */
+public class PrecompiledGlyphCollection implements TTFFont.KerningCollection {
+
+    /**
+     * The first bytes of a metrics file.
+     */
+    public static final int MAGIC = 0x43314741;
+
+    /**
+     * The version of the metrics file format.
+     */
+    public static final int VERSION = 1;
+
+    private float size;
+    private int ascent;
+    private int descent;
+    private int maxWidth;
+    private int maxHeight;
+
+    /**
+     * The characters of the collection, sorted, and their metrics by index.
+     */
+    private char[] chars;
+    private int[] advances;
+    private short[] atlasX;
+    private short[] atlasY;
+    private short[] widths;
+    private short[] heights;
+    private short[] lefts;
+    private short[] tops;
+    private GlyphImpl[] glyphs;
+
+    /**
+     * Kerning pairs as (left &lt;&lt; 16 | right), sorted, and their adjustments
+     * in 1/64ths of a pixel.
+     */
+    private int[] kernPairs;
+    private int[] kernValues;
+
+    private String atlasName;
+    private byte[] atlasAlpha;
+    private int atlasWidth;
+
+    /**
+     * The number of colors that images of a glyph are kept in.
+     */
+    private static final int BITMAP_COLORS = 4;
+
+    /**
+     * Images of the glyphs in the last {@link #BITMAP_COLORS} colors they were
+     * drawn in, by glyph index.
+     */
+    private GlyphImage[][] images;
+    private long useClock;
+
+    /**
+     * Creates an empty collection that is initialized with {@link #read(java.io.InputStream) }.
+     */
+    public PrecompiledGlyphCollection() {
+    }
+
+    public TTFFont.Kind getKind() {
+        return TTFFont.Kind.Blit;
+    }
+
+    /**
+     * Reads the metrics file and loads the atlas image it refers to from the
+     * application resources.
+     * @param in The metrics file.
+     * @throws IOException If the file is malformed or the atlas can't be loaded.
+     */
+    public void read(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        if (data.readInt() != MAGIC) {
+            throw new IOException("Not a precompiled glyph file");
+        }
+        int version = data.readUnsignedShort();
+        if (version != VERSION) {
+            throw new IOException("Unsupported precompiled glyph file version "+version);
+        }
+        atlasName = data.readUTF();
+        size = data.readFloat();
+        ascent = data.readShort();
+        descent = data.readShort();
+        maxWidth = data.readShort();
+        maxHeight = data.readShort();
+
+        int count = data.readInt();
+        chars = new char[count];
+        advances = new int[count];
+        atlasX = new short[count];
+        atlasY = new short[count];
+        widths = new short[count];
+        heights = new short[count];
+        lefts = new short[count];
+        tops = new short[count];
+        for (int i = 0; i < count; i++) {
+            chars[i] = data.readChar();
+            advances[i] = data.readInt();
+            atlasX[i] = data.readShort();
+            atlasY[i] = data.readShort();
+            widths[i] = data.readShort();
+            heights[i] = data.readShort();
+            lefts[i] = data.readShort();
+            tops[i] = data.readShort();
+        }
+        glyphs = new GlyphImpl[count];
+        images = new GlyphImage[count][];
+
+        int kernCount = data.readInt();
+        kernPairs = new int[kernCount];
+        kernValues = new int[kernCount];
+        for (int i = 0; i < kernCount; i++) {
+            kernPairs[i] = (data.readChar() << 16) | data.readChar();
+            kernValues[i] = data.readInt();
+        }
+
+        InputStream atlasStream = Display.getInstance().getResourceAsStream(PrecompiledGlyphCollection.class, "/"+atlasName);
+        if (atlasStream == null) {
+            throw new IOException("Glyph atlas not found "+atlasName);
+        }
+        Image atlas;
+        try {
+            atlas = Image.createImage(atlasStream);
+        } finally {
+            atlasStream.close();
+        }
+        atlasWidth = atlas.getWidth();
+        int[] rgb = atlas.getRGB();
+        atlasAlpha = new byte[rgb.length];
+        for (int i = 0; i < rgb.length; i++) {
+            atlasAlpha[i] = (byte)(rgb[i] >>> 24);
+        }
+        atlas.dispose();
+    }
+
+    /**
+     * Gets the pixel size that the collection was compiled for.
+     * @return The size in pixels.
+     */
+    public float getSize() {
+        return size;
+    }
+
+    /**
+     * Gets the ascent of the font at the compiled size.
+     * @return The ascent in pixels.
+     */
+    public int getAscent() {
+        return ascent;
+    }
+
+    /**
+     * Gets the descent of the font at the compiled size.
+     * @return The descent in pixels.
+     */
+    public int getDescent() {
+        return descent;
+    }
+
+    private int indexOf(char c) {
+        int lo = 0;
+        int hi = chars.length - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (chars[mid] < c) {
+                lo = mid + 1;
+            } else if (chars[mid] > c) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    public TTFFont.Glyph getGlyph(char id) {
+        int index = indexOf(id);
+        if (index < 0) {
+            return null;
+        }
+        if (glyphs[index] == null) {
+            glyphs[index] = new GlyphImpl(index);
+        }
+        return glyphs[index];
+    }
+
+    public int getFixedKerning(char left, char right) {
+        int key = (left << 16) | right;
+        int lo = 0;
+        int hi = kernPairs.length - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (kernPairs[mid] < key) {
+                lo = mid + 1;
+            } else if (kernPairs[mid] > key) {
+                hi = mid - 1;
+            } else {
+                return kernValues[mid];
+            }
+        }
+        return 0;
+    }
+
+    public int getMaxWidth() {
+        return maxWidth;
+    }
+
+    public int getMaxHeight() {
+        return maxHeight;
+    }
+
+    public Iterator<TTFFont.Glyph> iterator() {
+        List<TTFFont.Glyph> out = new ArrayList<TTFFont.Glyph>();
+        for (int i = 0; i < chars.length; i++) {
+            out.add(getGlyph(chars[i]));
+        }
+        return out.iterator();
+    }
+
+    /**
+     * Gets an image of a glyph in the given color, cut out of the atlas.
+     * Images are kept in the {@link #BITMAP_COLORS} most recently used colors
+     * of each glyph, so that text in a few colors doesn't cut the images out
+     * again on every paint.
+     * @return The image, or null for blank glyphs.
+     */
+    private Image getImage(int index, int color) {
+        int w = widths[index];
+        int h = heights[index];
+        if (w == 0 || h == 0) {
+            return null;
+        }
+        color = color & 0xffffff;
+        long now = ++useClock;
+        GlyphImage[] colors = images[index];
+        if (colors == null) {
+            colors = new GlyphImage[BITMAP_COLORS];
+            images[index] = colors;
+        }
+        int victim = 0;
+        for (int i = 0; i < colors.length; i++) {
+            GlyphImage img = colors[i];
+            if (img == null) {
+                victim = i;
+                break;
+            }
+            if (img.color == color) {
+                img.lastUsed = now;
+                return img.image;
+            }
+            if (img.lastUsed < colors[victim].lastUsed) {
+                victim = i;
+            }
+        }
+        int[] argb = new int[w * h];
+        int ax = atlasX[index];
+        int ay = atlasY[index];
+        for (int row = 0; row < h; row++) {
+            int src = (ay + row) * atlasWidth + ax;
+            int dst = row * w;
+            for (int col = 0; col < w; col++) {
+                argb[dst + col] = ((atlasAlpha[src + col] & 0xff) << 24) | color;
+            }
+        }
+        GlyphImage img = new GlyphImage(Image.createImage(argb, w, h), color, now);
+        colors[victim] = img;
+        return img.image;
+    }
+
+    /**
+     * An image of a glyph, the color it was cut out in and when it was last
+     * drawn.
+     */
+    private static class GlyphImage {
+        final Image image;
+        final int color;
+        long lastUsed;
+
+        GlyphImage(Image image, int color, long lastUsed) {
+            this.image = image;
+            this.color = color;
+            this.lastUsed = lastUsed;
+        }
+    }
+
+    private class GlyphImpl implements TTFFont.SubpixelGlyph {
+        private final int index;
+
+        GlyphImpl(int index) {
+            this.index = index;
+        }
+
+        public char getId() {
+            return chars[index];
+        }
+
+        public int getWidth() {
+            return advances[index] >> 6;
+        }
+
+        public int getHeight() {
+            return maxHeight;
+        }
+
+        public int getFixedAdvance() {
+            return advances[index];
+        }
+
+        public TTFFont.Glyph blit(Graphics g, int x, int y, float op) {
+            return blitFixed(g, x << 6, y, op);
+        }
+
+        public TTFFont.Glyph blitFixed(Graphics g, int fixedX, int y, float op) {
+            Image img = getImage(index, g.getColor());
+            if (img == null) {
+                return this;
+            }
+            int alpha = g.getAlpha();
+            g.setAlpha((int)(alpha * op));
+            // rounded to the nearest pixel, like the phases of rasterized glyphs
+            g.drawImage(img, ((fixedX + 32) >> 6) + lefts[index], y + ascent + tops[index]);
+            g.setAlpha(alpha);
+            return this;
+        }
+
+        public TTFFont.Glyph draw(Graphics g, int x, int y, float op) {
+            return blit(g, x, y, op);
+        }
+
+        public TTFFont.Glyph stroke(Graphics g, int x, int y, float op, Stroke stroke) {
+            throw new IllegalStateException("Precompiled glyphs can't be stroked");
+        }
+
+        public TTFFont.Glyph fill(Graphics g, int x, int y, float op) {
+            return blit(g, x, y, op);
+        }
+
+        public TTFFont.Glyph draw(GeneralPath sink, int x, int y, float op) {
+            throw new IllegalStateException("Precompiled glyphs have no outlines");
+        }
+    }
+}
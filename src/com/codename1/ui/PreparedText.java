@@ -0,0 +1,296 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package com.codename1.ui;
+
+import com.codename1.ui.TTFFont.Glyph;
+
+/**
+ * A string laid out with a {@link TTFFont}, ready to be painted repeatedly.
+ *
+ * Laying out a string resolves its characters to glyphs, computes the glyph
+ * positions and breaks it into lines, which {@link Graphics#drawString(java.lang.String, int, int) }
+ * repeats on every paint.  A component that paints the same text over and over,
+ * such as a label, can prepare it once and paint the prepared text instead.
+ * Prepared text stays valid until its string, font or wrapping width changes.
+ *
+ * <p>Example:</p>
+ * <code><pre>
+ * // in paint()
+ * prepared = PreparedText.prepare(prepared, font, getText(), getWidth());
+ * prepared.paint(g, getX(), getY());
+ * </pre></code>
+ * @author shannah
+ */
+public class PreparedText {
+
+    private final TTFFont font;
+    private final String text;
+    private final int wrapWidth;
+
+    /**
+     * The glyphs that have outlines, excluding spaces and line breaks.
+     */
+    private Glyph[] glyphs;
+
+    /**
+     * The x coordinate of each glyph box relative to the left of the text, in
+     * 1/64ths of a pixel and before horizontal scaling.
+     */
+    private int[] xs;
+
+    /**
+     * The y coordinate of each glyph box relative to the top of the text, before
+     * vertical scaling.
+     */
+    private int[] ys;
+    private int glyphCount;
+
+    /**
+     * The index of the first character of each line.
+     */
+    private int[] lineStarts;
+    private int lineCount;
+
+    private int width;
+    private int height;
+
+    /**
+     * Lays out a string on a single line, breaking only at line feeds.
+     * @param font The font.
+     * @param text The string.
+     */
+    public PreparedText(TTFFont font, String text) {
+        this(font, text, 0);
+    }
+
+    /**
+     * Lays out a string, wrapping words onto new lines so that no line is wider
+     * than the given width.
+     * @param font The font.
+     * @param text The string.
+     * @param wrapWidth The maximum width of a line in pixels, or 0 to break only
+     * at line feeds.
+     */
+    public PreparedText(TTFFont font, String text, int wrapWidth) {
+        if (font == null || text == null) {
+            throw new IllegalArgumentException("font and text are required");
+        }
+        this.font = font;
+        this.text = text;
+        this.wrapWidth = wrapWidth;
+        layout();
+    }
+
+    /**
+     * Returns prepared text for a string, reusing previously prepared text if
+     * it was prepared for the same string, font and width.
+     * @param previous The previously prepared text, or null.
+     * @param font The font.
+     * @param text The string.
+     * @param wrapWidth The maximum width of a line in pixels, or 0 to break only
+     * at line feeds.
+     * @return The previous prepared text if it is still valid, otherwise newly
+     * prepared text.
+     */
+    public static PreparedText prepare(PreparedText previous, TTFFont font, String text, int wrapWidth) {
+        if (previous != null && previous.isValidFor(font, text, wrapWidth)) {
+            return previous;
+        }
+        return new PreparedText(font, text, wrapWidth);
+    }
+
+    /**
+     * Checks whether this text was prepared for the given string, font and width.
+     * The font must be the same instance, since equal derivations are shared
+     * and an equal font of a reloaded or rebuilt font has other glyphs.
+     * @param font The font.
+     * @param text The string.
+     * @param wrapWidth The wrapping width.
+     * @return True if this text can be painted in place of the string.
+     */
+    public boolean isValidFor(TTFFont font, String text, int wrapWidth) {
+        return this.wrapWidth == wrapWidth && this.text.equals(text) && this.font == font;
+    }
+
+    private void layout() {
+        int len = text.length();
+        glyphs = new Glyph[len];
+        xs = new int[len];
+        ys = new int[len];
+        lineStarts = new int[4];
+        lineCount = 0;
+        glyphCount = 0;
+
+        float hscale = font.getHorizontalScale();
+        int strokeWidth = font.peekStroke() == null ? 0 : (int)(2 * font.peekStroke().getLineWidth());
+        int lineHeight = font.getLineHeight();
+        int maxLine = 0;
+
+        int lineStart = 0;
+        while (lineStart <= len) {
+            // find the end of this line
+            int lineEnd = lineStart;
+            int lastBreak = -1;
+            int px = 0;
+            while (lineEnd < len) {
+                char ch = text.charAt(lineEnd);
+                if (ch == 0x0A) {
+                    break;
+                }
+                int advance = font.getFixedAdvance(ch);
+                if (lineEnd > lineStart) {
+                    advance += font.getFixedKerning(text.charAt(lineEnd - 1), ch);
+                }
+                if (wrapWidth > 0 && lineEnd > lineStart && ch != 0x20
+                        && Math.ceil((px + advance) * hscale / 64f) + strokeWidth > wrapWidth) {
+                    if (lastBreak > lineStart) {
+                        lineEnd = lastBreak;
+                    }
+                    break;
+                }
+                if (ch == 0x20) {
+                    lastBreak = lineEnd + 1;
+                }
+                px += advance;
+                lineEnd++;
+            }
+
+            addLine(lineStart);
+            int y = (lineCount - 1) * lineHeight;
+            px = 0;
+            for (int i = lineStart; i < lineEnd; i++) {
+                char ch = text.charAt(i);
+                if (ch == 0x0D) {
+                    px = 0;
+                    continue;
+                }
+                if (i > lineStart) {
+                    px += font.getFixedKerning(text.charAt(i - 1), ch);
+                }
+                if (ch != 0x20) {
+                    Glyph glyph = font.getGlyph(ch);
+                    if (glyph != null) {
+                        glyphs[glyphCount] = glyph;
+                        xs[glyphCount] = px;
+                        ys[glyphCount] = y;
+                        glyphCount++;
+                    }
+                }
+                px += font.getFixedAdvance(ch);
+                // trailing spaces of wrapped lines don't count towards the width
+                if (ch != 0x20 && px > maxLine) {
+                    maxLine = px;
+                }
+            }
+
+            if (lineEnd < len && text.charAt(lineEnd) == 0x0A) {
+                lineStart = lineEnd + 1;
+            } else if (lineEnd < len) {
+                lineStart = lineEnd;
+            } else {
+                break;
+            }
+        }
+        width = ((int)Math.ceil(maxLine * hscale / 64f)) + strokeWidth;
+        height = ((int)(lineCount * lineHeight * font.getVerticalScale())) + strokeWidth / 2;
+    }
+
+    private void addLine(int start) {
+        if (lineCount == lineStarts.length) {
+            int[] grown = new int[lineStarts.length * 2];
+            System.arraycopy(lineStarts, 0, grown, 0, lineCount);
+            lineStarts = grown;
+        }
+        lineStarts[lineCount++] = start;
+    }
+
+    /**
+     * Paints the text.
+     * @param g The graphics context.
+     * @param x The x coordinate of the top left corner of the text.
+     * @param y The y coordinate of the top left corner of the text.
+     */
+    public void paint(Graphics g, int x, int y) {
+        font.drawPrepared(g, this, x, y);
+    }
+
+    /**
+     * Gets the font that the text was laid out with.
+     * @return The font.
+     */
+    public TTFFont getFont() {
+        return font;
+    }
+
+    /**
+     * Gets the string that was laid out.
+     * @return The string.
+     */
+    public String getText() {
+        return text;
+    }
+
+    /**
+     * Gets the width that lines were wrapped at.
+     * @return The width in pixels, or 0 if lines only break at line feeds.
+     */
+    public int getWrapWidth() {
+        return wrapWidth;
+    }
+
+    /**
+     * Gets the width of the widest line.
+     * @return The width in pixels.
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Gets the height of all lines.
+     * @return The height in pixels.
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Gets the number of lines.
+     * @return The number of lines.
+     */
+    public int getLineCount() {
+        return lineCount;
+    }
+
+    /**
+     * Gets the index in the string of the first character of a line.
+     * @param line The line index.
+     * @return The character index.
+     */
+    public int getLineStart(int line) {
+        if (line < 0 || line >= lineCount) {
+            throw new IndexOutOfBoundsException("Line "+line+" of "+lineCount);
+        }
+        return lineStarts[line];
+    }
+
+    int getGlyphCount() {
+        return glyphCount;
+    }
+
+    Glyph getGlyph(int i) {
+        return glyphs[i];
+    }
+
+    int getFixedX(int i) {
+        return xs[i];
+    }
+
+    int getY(int i) {
+        return ys[i];
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package com.codename1.ui;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A memory bounded, least-recently-used cache of strings that have been
+ * rendered into images by {@link TTFFont} in {@link TTFFont.RenderMode#Snapshot}
+ * mode.
+ *
+ * Entries are keyed on the font (which includes all of its derivation
+ * parameters), the string and the color of the graphics context so a change to
+ * any of these produces a new snapshot.
+ * @author shannah
+ */
+class StringImageCache {
+
+    private final LinkedHashMap<Key, Snapshot> map = new LinkedHashMap<Key, Snapshot>(16, 0.75f, true);
+    private int maxBytes;
+    private int bytes;
+
+    StringImageCache(int maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Gets a cached snapshot.
+     * @param font The font the string was rendered with.
+     * @param str The string.
+     * @param color The color of the graphics context.
+     * @return The snapshot or null if it isn't cached.
+     */
+    Snapshot get(TTFFont font, String str, int color) {
+        return map.get(new Key(font, str, color));
+    }
+
+    /**
+     * Adds a snapshot to the cache, evicting the least recently used snapshots
+     * until the cache fits in its budget.
+     * @param font The font the string was rendered with.
+     * @param str The string.
+     * @param color The color of the graphics context.
+     * @param snapshot The snapshot.
+     * @return True if the snapshot was cached.  Snapshots that are larger than
+     * the whole budget are not cached.
+     */
+    boolean put(TTFFont font, String str, int color, Snapshot snapshot) {
+        int size = snapshot.getSize();
+        if (size > maxBytes) {
+            return false;
+        }
+        Snapshot old = map.put(new Key(font, str, color), snapshot);
+        if (old != null) {
+            bytes -= old.getSize();
+        }
+        bytes += size;
+        trim();
+        return true;
+    }
+
+    /**
+     * Removes all snapshots that were rendered with the given font (or an equal
+     * font).
+     * @param font The font.
+     */
+    void remove(TTFFont font) {
+        Iterator<Map.Entry<Key, Snapshot>> it = map.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Key, Snapshot> e = it.next();
+            if (e.getKey().font.equals(font)) {
+                bytes -= e.getValue().getSize();
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Removes all snapshots that were rendered with any derivation of a 
+     * provider's font.
+     * @param provider The provider.
+     * @param name The name of the font.
+     */
+    void removeFont(TTFFont.FontProvider provider, String name) {
+        Iterator<Map.Entry<Key, Snapshot>> it = map.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Key, Snapshot> e = it.next();
+            if (e.getKey().font.isFont(provider, name)) {
+                bytes -= e.getValue().getSize();
+                it.remove();
+            }
+        }
+    }
+
+    void clear() {
+        map.clear();
+        bytes = 0;
+    }
+
+    void setMaxBytes(int maxBytes) {
+        this.maxBytes = maxBytes;
+        trim();
+    }
+
+    int getMaxBytes() {
+        return maxBytes;
+    }
+
+    int getBytes() {
+        return bytes;
+    }
+
+    private void trim() {
+        Iterator<Snapshot> it = map.values().iterator();
+        while (bytes > maxBytes && it.hasNext()) {
+            bytes -= it.next().getSize();
+            it.remove();
+        }
+    }
+
+    /**
+     * A string rendered into an image, along with the offset of the image
+     * from the location that the string is drawn at.
+     */
+    static class Snapshot {
+        final Image image;
+        final int offsetX;
+        final int offsetY;
+
+        Snapshot(Image image, int offsetX, int offsetY) {
+            this.image = image;
+            this.offsetX = offsetX;
+            this.offsetY = offsetY;
+        }
+
+        int getSize() {
+            return image.getWidth() * image.getHeight() * 4;
+        }
+    }
+
+    private static class Key {
+        final TTFFont font;
+        final String str;
+        final int color;
+
+        Key(TTFFont font, String str, int color) {
+            this.font = font;
+            this.str = str;
+            this.color = color;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key k = (Key)o;
+            return k.color == color && k.str.equals(str) && k.font.equals(font);
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = 7;
+            hash = 41 * hash + font.hashCode();
+            hash = 41 * hash + str.hashCode();
+            hash = 41 * hash + color;
+            return hash;
+        }
+    }
+}
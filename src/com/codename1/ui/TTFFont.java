@@ -28,13 +28,18 @@ import com.codename1.io.Log;
 import com.codename1.ui.Display;
 import com.codename1.ui.Graphics;
 import com.codename1.ui.geom.GeneralPath;
+import com.codename1.ui.geom.Rectangle;
+import org.apache.fontbox.ttf.FontBoxMetrics;
 
 
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 //import java.net.URL;
 
 /**
@@ -52,17 +57,60 @@ public class TTFFont
     implements Iterable<TTFFont.Glyph>
 {
     
-    private static List<FontProvider> providers = new ArrayList<FontProvider>();
+    /**
+     * The registered providers.  The list is replaced rather than modified, so
+     * fonts can be looked up from any thread without locking.
+     */
+    private static volatile List<FontProvider> providers = new ArrayList<FontProvider>();
     private static Image dummyImg;
     private float pixelSize;
     
     private float hscale = 1f;
     private float vscale = 1f;
     private Stroke stroke = null;
+    
+    /**
+     * The key of this font in the derivation cache, or null if the font isn't
+     * shared through the cache.
+     */
+    private DerivationKey internKey;
     private Integer strokeColor = null;
     private boolean filled = true;
     private Integer fillColor = null;
     private boolean antialias = true;
+    private RenderMode renderMode = RenderMode.Vector;
+    
+    /**
+     * Cache of rendered strings used by fonts in {@link RenderMode#Snapshot} mode.
+     */
+    private static final StringImageCache snapshots = new StringImageCache(1024 * 1024);
+    
+    private static boolean strokeOutlineCaching = true;
+    
+    /**
+     * Fonts returned by getFont() and the derive methods, keyed on their full
+     * derivation, so that equal derivations return the same instance instead 
+     * of allocating a new font on every call, e.g. when a theme derives fonts
+     * in paint().  The cache is split into segments by key, each a small LRU
+     * with its own lock, so threads deriving different fonts rarely contend.
+     */
+    private static final int INTERN_SEGMENTS = 8;
+    private static final int INTERN_SEGMENT_SIZE = 32;
+    private static final Map<DerivationKey, TTFFont>[] interned = createInternSegments();
+    
+    @SuppressWarnings("unchecked")
+    private static Map<DerivationKey, TTFFont>[] createInternSegments() {
+        Map<DerivationKey, TTFFont>[] segments = new Map[INTERN_SEGMENTS];
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = new LinkedHashMap<DerivationKey, TTFFont>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<DerivationKey, TTFFont> eldest) {
+                    return size() > INTERN_SEGMENT_SIZE;
+                }
+            };
+        }
+        return segments;
+    }
     
     /**
      * A dummy image that is passed to the CustomFont constructor.
@@ -82,16 +130,20 @@ public class TTFFont
      * Adds a font provider that can be used to load fonts.
      * @param provider 
      */
-    static void addProvider(FontProvider provider){
-        providers.add(provider);
+    static synchronized void addProvider(FontProvider provider){
+        List<FontProvider> list = new ArrayList<FontProvider>(providers);
+        list.add(provider);
+        providers = list;
     }
     
     /**
      * Removes a font provider.
      * @param provider 
      */
-    static void removeProvider(FontProvider provider){
-        providers.remove(provider);
+    static synchronized void removeProvider(FontProvider provider){
+        List<FontProvider> list = new ArrayList<FontProvider>(providers);
+        list.remove(provider);
+        providers = list;
     }
     
     /**
@@ -99,7 +151,8 @@ public class TTFFont
      * this will try to load the font from the resources at "/{name}.ttf".  
      * @param name The name of the font to load.
      * @param size The size (in pixels).
-     * @return The font or null if it could not be found.
+     * @return The font or null if it could not be found, or if it is being
+     * loaded in the background.
      */
     public static TTFFont getFont(String name, float size){
         TTFFont out = null;
@@ -107,14 +160,13 @@ public class TTFFont
             FontBoxFontProvider.getDefaultProvider();
         }
         for ( FontProvider provider: providers){
-            TTFFont src = provider.getFont(name, size);
-            if ( src != null ){
-                out = new TTFFont(name, src.collection);
-                out.ascent = src.ascent;
-                out.descent = src.descent;
-                out.provider = provider;
-                out.pixelSize = size;
-                return out;
+            TTFFont font = getFont(provider, name, size);
+            if ( font != null ){
+                return font;
+            }
+            if ( provider.isLoading(name) ){
+                // available once the load completes
+                return null;
             }
         }
         try {
@@ -122,10 +174,58 @@ public class TTFFont
             out.pixelSize = size;
         } catch ( IOException ioe){
             Log.e(ioe);
+        } catch ( IllegalArgumentException iae){
+            // not a font file name
+            Log.e(iae);
         }
         return out;
     }
     
+    /**
+     * Gets the interned font of a provider with the specified name and size.
+     * @param provider The provider.
+     * @param name The name of the font.
+     * @param size The size (in pixels).
+     * @return The font or null if the provider doesn't have it.
+     */
+    static TTFFont getFont(FontProvider provider, String name, float size) {
+        TTFFont src = provider.getFont(name, size);
+        if (src == null) {
+            return null;
+        }
+        return intern(provider, src, name, size, 1f, 1f, null, null, null, true, true, RenderMode.Vector);
+    }
+    
+    /**
+     * Drops the interned fonts and string snapshots of a provider's font, so
+     * that they don't keep its glyphs reachable once the provider unloads it.
+     * Must be called on the EDT, which owns the snapshots.
+     * @param provider The provider.
+     * @param name The name of the font.
+     */
+    static void evictFont(FontProvider provider, String name) {
+        for (int i = 0; i < interned.length; i++) {
+            Map<DerivationKey, TTFFont> segment = interned[i];
+            synchronized (segment) {
+                Iterator<DerivationKey> it = segment.keySet().iterator();
+                while (it.hasNext()) {
+                    DerivationKey key = it.next();
+                    if (key.provider == provider && key.name.equals(name)) {
+                        it.remove();
+                    }
+                }
+            }
+        }
+        snapshots.removeFont(provider, name);
+    }
+    
+    /**
+     * Checks whether this font is a font of the given provider.
+     */
+    boolean isFont(FontProvider provider, String name) {
+        return this.provider == provider && name.equals(this.name);
+    }
+    
     /**
      * Loads a font from resources at given resource path.  
      * @param name The name of the font.
@@ -134,7 +234,7 @@ public class TTFFont
      * @throws IOException 
      */
     public static TTFFont createFont(String name, String resourcePath) throws IOException {
-        FontBoxFontProvider.getDefaultProvider().loadTTF(name, Display.getInstance().getResourceAsStream(null, resourcePath));
+        FontBoxFontProvider.getDefaultProvider().loadTTF(name, resourcePath);
         return getFont(name, 12);
     }
     
@@ -182,7 +282,7 @@ public class TTFFont
      * Checks whether the font should be rendered antialiased.
      * @return the antialias
      */
-    private boolean isAntialias() {
+    boolean isAntialias() {
         return antialias;
     }
 
@@ -202,6 +302,42 @@ public class TTFFont
         Draw, Blit
     }
     
+    /**
+     * How a font paints strings on a graphics context.
+     */
+    public enum RenderMode {
+        
+        /**
+         * Strings are filled and/or stroked as vector paths on every paint.
+         */
+        Vector,
+        
+        /**
+         * Each string is rendered into an image the first time it is drawn, and
+         * the image is reused on subsequent paints.  Best suited to static text
+         * such as headers, badges and buttons.
+         * @see #setSnapshotCacheSize(int) 
+         * @see #invalidateSnapshots() 
+         */
+        Snapshot,
+        
+        /**
+         * Glyphs are drawn as images rendered from signed distance fields that 
+         * are generated once per font at a reference size.  The images are 
+         * rendered at the resolution of the graphics transform, so text that is
+         * scaled, rotated or animated costs image draws rather than path fills.
+         * Stroked or unfilled fonts fall back to {@link #Vector}.
+         */
+        DistanceField,
+        
+        /**
+         * Glyphs are blitted from cached anti-aliased images when the text is 
+         * drawn without a transform, stroke or scaling, which is the case for
+         * most UI text.  Otherwise the text is drawn as in {@link #Vector}.
+         */
+        Auto
+    }
+    
     
     /**
      * Interface that can be implemented by any class that wishes to provide
@@ -216,6 +352,15 @@ public class TTFFont
          * @return 
          */
         public TTFFont getFont(String name, float size);
+        
+        /**
+         * Checks whether a font is being loaded in the background, in which
+         * case {@link #getFont(java.lang.String, float) } returns null for it
+         * until the load completes.
+         * @param name The name of the font.
+         * @return True if a load of the font is in progress.
+         */
+        public boolean isLoading(String name);
     }
 
     /**
@@ -285,6 +430,103 @@ public class TTFFont
        
     }
     
+    /**
+     * A glyph that can be blitted at fractional horizontal positions.  Positions
+     * and advances are in 26.6 fixed point, i.e. in 1/64ths of a pixel.
+     */
+    public interface SubpixelGlyph extends Glyph {
+        
+        /**
+         * Gets the unrounded advance width of the glyph.
+         * @return The advance in 1/64ths of a pixel.
+         */
+        public int getFixedAdvance();
+        
+        /**
+         * Blits the glyph with the left of its box at a fractional position.
+         * @param g The graphics context.
+         * @param fixedX The x coordinate of the glyph box in 1/64ths of a pixel.
+         * @param y The y coordinate of the glyph box.
+         * @param op The opacity.
+         * @return Self for chaining.
+         */
+        public Glyph blitFixed(Graphics g, int fixedX, int y, float op);
+    }
+    
+    /**
+     * A glyph collection with kerning pairs that are applied when its glyphs 
+     * are blitted.
+     */
+    public interface KerningCollection extends Glyph.Collection {
+        
+        /**
+         * Gets the kerning adjustment between two characters.
+         * @param left The left character.
+         * @param right The right character.
+         * @return The adjustment in 1/64ths of a pixel, or 0 if the pair isn't
+         * kerned.
+         */
+        public int getFixedKerning(char left, char right);
+    }
+    
+    /**
+     * A glyph collection that can rasterize glyphs in the background, ahead of
+     * the first paint that blits them.
+     */
+    public interface PrerasterizingCollection extends Glyph.Collection {
+        
+        /**
+         * Queues the glyphs of the given characters for rasterization on a 
+         * background thread.  The results are added to the collection's bitmap
+         * cache on the EDT once they are ready.
+         * @param chars The characters.
+         */
+        public void prerasterize(String chars);
+    }
+    
+    /**
+     * A glyph that can provide the outline of its stroke as a path that can be
+     * filled, so that stroked text doesn't need to be stroked by the platform on 
+     * every paint.
+     */
+    public interface StrokeOutlineGlyph extends Glyph {
+        
+        /**
+         * Appends the fillable outline of the glyph's stroke to a path.
+         * @param sink The path to append to.
+         * @param x The x coordinate of the glyph box.
+         * @param y The y coordinate of the glyph box.
+         * @param stroke The stroke.
+         * @return Self for chaining.
+         */
+        public Glyph drawStrokeOutline(GeneralPath sink, int x, int y, Stroke stroke);
+    }
+    
+    /**
+     * A glyph that can be rendered from a signed distance field, which lets it be
+     * drawn as an image at any scale or rotation.
+     * @see RenderMode#DistanceField
+     */
+    public interface DistanceFieldGlyph extends Glyph {
+        
+        /**
+         * Draws the glyph as an image rendered from its distance field.  The 
+         * coordinates locate the glyph box at its top left location like 
+         * {@link #blit(com.codename1.ui.Graphics, int, int, float) }.
+         * @param g The graphics context.
+         * @param x The x coordinate.
+         * @param y The y coordinate.
+         * @param hscale Horizontal scale of the glyph.
+         * @param vscale Vertical scale of the glyph.
+         * @param deviceScale The scale of the graphics context's transform.  The 
+         * glyph image is rendered at this many device pixels per pixel so that it
+         * remains sharp when the transform enlarges it.
+         * @param color The RGB color of the glyph.
+         * @return Self for chaining.
+         */
+        public Glyph drawDistanceField(Graphics g, int x, int y, float hscale, float vscale, float deviceScale, int color);
+    }
+    
     
     
     
@@ -294,7 +536,13 @@ public class TTFFont
      */
     public enum Type {
 
-        PSFU(Object.class);
+        PSFU(Object.class),
+        
+        /**
+         * Glyph atlases and metrics precompiled at build time.
+         * @see PrecompiledGlyphCollection
+         */
+        CN1GLYPHS(PrecompiledGlyphCollection.class);
 
 
         public final Class<TTFFont.Glyph.Collection> jclass;
@@ -406,13 +654,45 @@ public class TTFFont
         return descent;
     }
     
+    /**
+     * Sets the ascent of the font.  Fonts returned by {@link #getFont(java.lang.String, float) }
+     * and the derive methods are shared, so this font is first removed from 
+     * the derivation cache: later calls return a new font with the original
+     * ascent.
+     * @param ascent The ascent in pixels.
+     */
     public void setAscent(int ascent){
+        unshare();
         this.ascent = ascent;
     }
     
+    /**
+     * Sets the descent of the font.  Like {@link #setAscent(int) }, this 
+     * removes a shared font from the derivation cache first.
+     * @param descent The descent in pixels.
+     */
     public void setDescent(int descent){
+        unshare();
         this.descent = descent;
     }
+    
+    /**
+     * Removes this font from the derivation cache before it is modified, so
+     * that the change doesn't reach later users of the derivation.
+     */
+    private void unshare() {
+        DerivationKey key = internKey;
+        if (key == null) {
+            return;
+        }
+        internKey = null;
+        Map<DerivationKey, TTFFont> segment = getSegment(key);
+        synchronized (segment) {
+            if (segment.get(key) == this) {
+                segment.remove(key);
+            }
+        }
+    }
 
     
     public TTFFont(String name, TTFFont.Glyph.Collection collection){
@@ -428,12 +708,31 @@ public class TTFFont
         if (glyph == null) {
             return ((int)(getMaxWidth() * hscale)) + strokeWidth;
         }
+        if (isFixedLayout()) {
+            return ((int)Math.ceil(getFixedAdvance(glyph) * hscale / 64f)) + strokeWidth;
+        }
         return ((int)(glyph.getWidth() * hscale)) + strokeWidth;
     }
 
     @Override
     public int charsWidth(char[] ch, int offset, int length) {
         int strokeWidth = stroke == null ? 0 : (int)(2 * stroke.getLineWidth());
+        if (isFixedLayout()) {
+            // blitted glyphs are placed at fractional positions
+            int fw = 0;
+            for (int i=0; i<length; i++) {
+                if (i > 0) {
+                    fw += getFixedKerning(ch[i+offset-1], ch[i+offset]);
+                }
+                Glyph glyph =  getGlyph(ch[i+offset]);
+                if (glyph == null) {
+                    fw += getMaxWidth() << 6;
+                } else {
+                    fw += getFixedAdvance(glyph);
+                }
+            }
+            return ((int)Math.ceil(fw * hscale / 64f)) + strokeWidth;
+        }
         int w = 0;
         for (int i=0; i<length; i++) {
             Glyph glyph =  getGlyph(ch[i+offset]);
@@ -477,7 +776,7 @@ public class TTFFont
     public boolean equals(Object o) {
         if (o instanceof TTFFont) {
             TTFFont f = (TTFFont)o;
-            return f.name.equals(name) && f.pixelSize == pixelSize && f.antialias==antialias && f.hscale==hscale && f.vscale==vscale && f.stroke == stroke && f.strokeColor == strokeColor && f.fillColor == fillColor && f.filled == this.filled;
+            return f.name.equals(name) && f.pixelSize == pixelSize && f.antialias==antialias && f.hscale==hscale && f.vscale==vscale && eq(f.stroke, stroke) && eq(f.strokeColor, strokeColor) && eq(f.fillColor, fillColor) && f.filled == this.filled && f.renderMode == renderMode;
         }
         return false;
     }
@@ -494,8 +793,13 @@ public class TTFFont
         hash = 41 * hash + (this.fillColor != null ? this.fillColor.hashCode() : 0);
         hash = 41 * hash + (this.antialias ? 1 : 0);
         hash = 41 * hash + (this.name != null ? this.name.hashCode() : 0);
+        hash = 41 * hash + this.renderMode.hashCode();
         return hash;
     }
+    
+    private static boolean eq(Object a, Object b) {
+        return a == null ? b == null : a.equals(b);
+    }
 
     
     
@@ -512,6 +816,12 @@ public class TTFFont
         if (null != name && 0 < name.length()){
             this.name = name;
             this.collection = TTFFont.Type.Create(name);
+            if (collection instanceof PrecompiledGlyphCollection) {
+                PrecompiledGlyphCollection precompiled = (PrecompiledGlyphCollection)collection;
+                this.ascent = precompiled.getAscent();
+                this.descent = precompiled.getDescent();
+                this.pixelSize = precompiled.getSize();
+            }
         }
         else
             throw new IllegalArgumentException();
@@ -519,34 +829,140 @@ public class TTFFont
 
 
     public TTFFont deriveFont(float size){
+        return derive(size, hscale, vscale, stroke, fillColor, strokeColor, antialias, filled, renderMode);
+    }
+    
+    /**
+     * Derives a font from the same provider, returning the interned instance
+     * for the derivation.
+     * @return The derived font, or null if this font has no provider or the
+     * provider no longer has the font.
+     */
+    private TTFFont derive(float size, float hScale, float vScale, Stroke stroke, Integer fillColor, Integer strokeColor, boolean antialias, boolean filled, RenderMode renderMode){
         if ( provider != null ){
             TTFFont src = provider.getFont(name, size);
-            TTFFont out =  new TTFFont(name, src.collection);
-            
-            out.setAscent(src.ascent);
-            out.setDescent(src.descent);
-            
-            
-                    
-            if ( out != null ){
-                out.provider = provider;
-                out.pixelSize = size;
-                out.hscale = hscale;
-                out.vscale = vscale;
-                
-                out.stroke = stroke;
-                out.fillColor = fillColor;
-                out.strokeColor = strokeColor;
-                out.antialias = antialias;
-                out.filled = filled;
-            
-            
+            if ( src == null ){
+                // being loaded again
+                return null;
             }
-            return out;
+            return intern(provider, src, name, size, hScale, vScale, stroke, fillColor, strokeColor, antialias, filled, renderMode);
         } 
         return null;
     }
     
+    /**
+     * Gets the canonical font for a derivation, creating it if necessary.
+     * Derived fonts are shared; setting their ascent or descent removes them
+     * from the cache first.
+     * @param src The font returned by the provider for the size.
+     */
+    private static TTFFont intern(FontProvider provider, TTFFont src, String name, float size, float hScale, float vScale, Stroke stroke, Integer fillColor, Integer strokeColor, boolean antialias, boolean filled, RenderMode renderMode){
+        DerivationKey key = new DerivationKey(provider, name, size, hScale, vScale, stroke, fillColor, strokeColor, antialias, filled, renderMode);
+        Map<DerivationKey, TTFFont> segment = getSegment(key);
+        synchronized (segment) {
+            TTFFont out = segment.get(key);
+            // the provider may have loaded the font again since
+            if (out != null && out.collection == src.collection) {
+                return out;
+            }
+        }
+        TTFFont out = new TTFFont(name, src.collection);
+        out.setAscent(src.ascent);
+        out.setDescent(src.descent);
+        out.provider = provider;
+        out.pixelSize = size;
+        out.hscale = hScale;
+        out.vscale = vScale;
+        // strokes are mutable, so the font keeps its own copy
+        out.stroke = copy(stroke);
+        out.fillColor = fillColor;
+        out.strokeColor = strokeColor;
+        out.antialias = antialias;
+        out.filled = filled;
+        out.renderMode = renderMode;
+        out.internKey = key;
+        synchronized (segment) {
+            segment.put(key, out);
+        }
+        return out;
+    }
+    
+    private static Map<DerivationKey, TTFFont> getSegment(DerivationKey key) {
+        int hash = key.hashCode();
+        return interned[(hash ^ (hash >>> 16)) & (INTERN_SEGMENTS - 1)];
+    }
+    
+    /**
+     * The full derivation of a font, by value.
+     */
+    private static class DerivationKey {
+        final FontProvider provider;
+        final String name;
+        final float size;
+        final float hscale;
+        final float vscale;
+        final boolean stroked;
+        final float lineWidth;
+        final int capStyle;
+        final int joinStyle;
+        final float miterLimit;
+        final Integer fillColor;
+        final Integer strokeColor;
+        final boolean antialias;
+        final boolean filled;
+        final RenderMode renderMode;
+        
+        DerivationKey(FontProvider provider, String name, float size, float hscale, float vscale, Stroke stroke, Integer fillColor, Integer strokeColor, boolean antialias, boolean filled, RenderMode renderMode) {
+            this.provider = provider;
+            this.name = name;
+            this.size = size;
+            this.hscale = hscale;
+            this.vscale = vscale;
+            stroked = stroke != null;
+            lineWidth = stroked ? stroke.getLineWidth() : 0;
+            capStyle = stroked ? stroke.getCapStyle() : 0;
+            joinStyle = stroked ? stroke.getJoinStyle() : 0;
+            miterLimit = stroked ? stroke.getMiterLimit() : 0;
+            this.fillColor = fillColor;
+            this.strokeColor = strokeColor;
+            this.antialias = antialias;
+            this.filled = filled;
+            this.renderMode = renderMode;
+        }
+        
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof DerivationKey)) {
+                return false;
+            }
+            DerivationKey k = (DerivationKey)o;
+            return k.provider == provider && k.name.equals(name) && k.size == size 
+                    && k.hscale == hscale && k.vscale == vscale 
+                    && k.stroked == stroked && k.lineWidth == lineWidth && k.capStyle == capStyle 
+                    && k.joinStyle == joinStyle && k.miterLimit == miterLimit 
+                    && eq(k.fillColor, fillColor) && eq(k.strokeColor, strokeColor) 
+                    && k.antialias == antialias && k.filled == filled && k.renderMode == renderMode;
+        }
+        
+        @Override
+        public int hashCode() {
+            int hash = 7;
+            hash = 41 * hash + name.hashCode();
+            hash = 41 * hash + Float.floatToIntBits(size);
+            hash = 41 * hash + Float.floatToIntBits(hscale);
+            hash = 41 * hash + Float.floatToIntBits(vscale);
+            hash = 41 * hash + Float.floatToIntBits(lineWidth);
+            hash = 41 * hash + capStyle;
+            hash = 41 * hash + joinStyle;
+            hash = 41 * hash + (fillColor != null ? fillColor.hashCode() : 0);
+            hash = 41 * hash + (strokeColor != null ? strokeColor.hashCode() : 0);
+            hash = 41 * hash + (antialias ? 1 : 0);
+            hash = 41 * hash + (filled ? 1 : 0);
+            hash = 41 * hash + renderMode.hashCode();
+            return hash;
+        }
+    }
+    
     public TTFFont deriveScaled(float hScale, float vScale) {
         return deriveFont(pixelSize, hScale, vScale, stroke, fillColor, strokeColor, antialias, filled);
     }
@@ -559,7 +975,18 @@ public class TTFFont
         return deriveFont(pixelSize, hscale, vscale, stroke, fillColor, strokeColor, antialias, filled);
     }
     
+    /**
+     * Derives a font that outlines the text with a stroke.
+     * @param stroke The stroke, or null to not stroke the text.
+     * @param strokeColor The stroke color, or null to use the current graphics color.
+     * @return The derived font.
+     * @throws IllegalStateException If the glyphs of this font can only 
+     * be blitted (see {@link Kind#Blit}).
+     */
     public TTFFont deriveStroked(Stroke stroke, Integer strokeColor) {
+        if (stroke != null && getKind() == Kind.Blit) {
+            throw new IllegalStateException("Fonts of kind Blit can't be stroked");
+        }
         return deriveFont(pixelSize, hscale, vscale, stroke, fillColor, strokeColor, antialias, filled);
     }
     
@@ -571,30 +998,135 @@ public class TTFFont
         return deriveFont(pixelSize, hscale, vscale, stroke, fillColor, strokeColor, antialias, filled);
     }
     
+    /**
+     * Derives a font that paints strings using the given render mode.
+     * @param renderMode The render mode.
+     * @return The derived font.
+     */
+    public TTFFont deriveRenderMode(RenderMode renderMode) {
+        return derive(pixelSize, hscale, vscale, stroke, fillColor, strokeColor, antialias, filled, renderMode);
+    }
+    
+    /**
+     * Gets the render mode of this font.
+     * @return The render mode.
+     */
+    public RenderMode getRenderMode() {
+        return renderMode;
+    }
+    
+    /**
+     * Sets the maximum number of bytes of image data that are kept for fonts in
+     * {@link RenderMode#Snapshot} mode.  Least recently used snapshots are discarded
+     * first.
+     * @param bytes The budget in bytes.
+     */
+    public static void setSnapshotCacheSize(int bytes) {
+        snapshots.setMaxBytes(bytes);
+    }
+    
+    /**
+     * Gets the maximum number of bytes of image data that are kept for fonts in
+     * {@link RenderMode#Snapshot} mode.
+     * @return The budget in bytes.
+     */
+    public static int getSnapshotCacheSize() {
+        return snapshots.getMaxBytes();
+    }
+    
+    /**
+     * Discards all string snapshots of all fonts.
+     */
+    public static void clearSnapshotCache() {
+        snapshots.clear();
+    }
+    
+    /**
+     * Discards all string snapshots that were rendered with this font.  
+     */
+    public void invalidateSnapshots() {
+        snapshots.remove(this);
+    }
+    
     public TTFFont deriveFont(float size, float hScale, float vScale, Stroke stroke, Integer fillColor, Integer strokeColor, boolean antialias, boolean filled){
-        if ( provider != null ){
-            TTFFont src = provider.getFont(name, size);
-            TTFFont out =  new TTFFont(name, src.collection);
-            
-            out.setAscent(src.ascent);
-            out.setDescent(src.descent);
-            //TTFFont out = provider.getFont(name, size);
-              
-            if ( out != null ){
-                out.pixelSize = size;
-                out.hscale = hScale;
-                out.vscale = vScale;
-                out.stroke = stroke;
-                out.fillColor = fillColor;
-                out.strokeColor = strokeColor;
-                out.antialias = antialias;    
-                out.provider = provider;
-            }
-            return out;
-        } 
-        return null;
+        return derive(size, hScale, vScale, stroke, fillColor, strokeColor, antialias, filled, renderMode);
+    }
+    
+    
+    /**
+     * Gets the stroke that is used to outline the text.  Changing the returned
+     * stroke doesn't change the font; use {@link #deriveStroked(com.codename1.ui.Stroke, java.lang.Integer) }.
+     * @return A copy of the stroke or null if the text is not stroked.
+     */
+    public Stroke getStroke() {
+        return copy(stroke);
+    }
+    
+    /**
+     * Gets the stroke that is used to outline the text without copying it, for
+     * code in this package that doesn't modify it.
+     */
+    Stroke peekStroke() {
+        return stroke;
+    }
+    
+    private static Stroke copy(Stroke stroke) {
+        return stroke == null ? null : new Stroke(stroke.getLineWidth(), stroke.getCapStyle(), stroke.getJoinStyle(), stroke.getMiterLimit());
+    }
+    
+    /**
+     * Gets the color that is used to stroke the text.
+     * @return The stroke color or null to use the current graphics color.
+     */
+    public Integer getStrokeColor() {
+        return strokeColor;
+    }
+    
+    /**
+     * Gets the color that is used to fill the text.
+     * @return The fill color or null to use the current graphics color.
+     */
+    public Integer getFillColor() {
+        return fillColor;
     }
     
+    /**
+     * Rasterizes the glyphs of the given characters on background threads so 
+     * that the first paint of text that blits them (see {@link RenderMode#Auto})
+     * doesn't stall.  Call this with the strings of a form before it is shown.
+     * Does nothing for fonts whose glyphs can't be rasterized in the background.
+     * @param chars The characters, in any order and with repeats.
+     * @see org.apache.fontbox.ttf.GlyphRasterizerPool
+     */
+    public void prerasterize(String chars) {
+        if (chars != null && collection instanceof PrerasterizingCollection) {
+            ((PrerasterizingCollection)collection).prerasterize(chars);
+        }
+    }
+    
+    /**
+     * Gets the horizontal scale of the text.
+     * @return The horizontal scale.
+     */
+    public float getHorizontalScale() {
+        return hscale;
+    }
+    
+    /**
+     * Gets the vertical scale of the text.
+     * @return The vertical scale.
+     */
+    public float getVerticalScale() {
+        return vscale;
+    }
+    
+    /**
+     * Checks whether the text is filled.
+     * @return True if the text is filled.
+     */
+    public boolean isFilled() {
+        return filled;
+    }
     
     public Kind getKind(){
         return this.collection.getKind();
@@ -602,10 +1134,61 @@ public class TTFFont
     public Glyph getGlyph(char id){
         return this.collection.getGlyph(id);
     }
+    /**
+     * Gets the advance of a glyph in 1/64ths of a pixel.
+     */
+    static int getFixedAdvance(Glyph glyph) {
+        if (glyph instanceof SubpixelGlyph) {
+            return ((SubpixelGlyph)glyph).getFixedAdvance();
+        }
+        return glyph.getWidth() << 6;
+    }
+    
+    /**
+     * Checks whether strings are laid out at the fractional positions of 
+     * blitted glyphs, with kerning, rather than at the whole pixel advances of
+     * vector glyphs.  This holds for fonts that are blitted on graphics contexts
+     * without a transform.
+     */
+    private boolean isFixedLayout() {
+        return getKind() == Kind.Blit || (renderMode == RenderMode.Auto && canBlitStyle());
+    }
+    
+    /**
+     * Checks whether the style of this font allows blitting its glyphs.
+     */
+    private boolean canBlitStyle() {
+        return stroke == null && filled && antialias && hscale == 1f && vscale == 1f;
+    }
+    
+    /**
+     * Checks whether strings drawn on a graphics context would look the same
+     * blitted from glyph bitmaps as drawn as vector paths.
+     */
+    private boolean canBlit(Graphics g) {
+        if (!canBlitStyle()) {
+            return false;
+        }
+        if (g.getScaleX() != 1f || g.getScaleY() != 1f) {
+            return false;
+        }
+        if (g.isTransformSupported()) {
+            Transform t = g.getTransform();
+            if (t != null && !t.isIdentity()) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
     /**
      * Bitmap font
      */
     private TTFFont blit(Graphics g, String string, int x, int y, float op){
+        int oldColor = g.getColor();
+        if (fillColor != null) {
+            g.setColor(fillColor);
+        }
         boolean oldAntialiased = g.isAntiAliased();
         //if (g.isAntiAliasedText()) {
             g.setAntiAliased(true);
@@ -615,7 +1198,8 @@ public class TTFFont
             int clen = cary.length;
             if (0 < clen){
                 char ch;
-                int px = x;
+                // pen position in 1/64ths of a pixel
+                int px = x << 6;
                 int py = y;
                 Glyph glyph;
                 for (int cc = 0; cc < clen; cc++){
@@ -624,41 +1208,62 @@ public class TTFFont
                     case 0x20:
                         glyph = this.collection.getGlyph(ch);
                         if (null != glyph)
-                            px += glyph.getWidth();
+                            px += getFixedAdvance(glyph);
                         else
-                            px += this.collection.getMaxWidth();
+                            px += this.collection.getMaxWidth() << 6;
                         break;
                     case 0x0A:
-                        px = x;
+                        px = x << 6;
                         py += this.collection.getMaxHeight();
                         break;
                     case 0x0D:
-                        px = x;
+                        px = x << 6;
                         break;
                     default:
                         glyph = this.collection.getGlyph(ch);
+                        if (cc > 0) {
+                            px += getFixedKerning(cary[cc-1], ch);
+                        }
 
-                        if (null != glyph){
-                            glyph.blit(g,px,py,op);
+                        if (glyph instanceof SubpixelGlyph){
+                            ((SubpixelGlyph)glyph).blitFixed(g,px,py,op);
+                            px += getFixedAdvance(glyph);
+                        }
+                        else if (null != glyph){
+                            glyph.blit(g,px >> 6,py,op);
 
-                            px += glyph.getWidth();
+                            px += getFixedAdvance(glyph);
                         }
                         else
-                            px += this.collection.getMaxWidth();
+                            px += this.collection.getMaxWidth() << 6;
                         break;
                     }
                 }
             }
         }
         g.setAntiAliased(oldAntialiased);
+        g.setColor(oldColor);
         return this;
     }
     
+    /**
+     * Appends the outlines of a string to a path.
+     * @param sink The path to append to.
+     * @param string The string.
+     * @param x The x coordinate.
+     * @param y The y coordinate.
+     * @param op The opacity.
+     * @return Self for chaining.
+     * @throws IllegalStateException If the glyphs of this font can only 
+     * be blitted (see {@link Kind#Blit}).
+     */
     public TTFFont draw(GeneralPath sink, String string, int x, int y, float op){
-        
         return draw(sink, string, x, y, op, hscale, vscale);
     }
     public TTFFont draw(GeneralPath sink, String string, int x, int y, float op, float hscale, float vscale){
+        if (getKind() == Kind.Blit) {
+            throw new IllegalStateException("Fonts of kind Blit have no outlines");
+        }
         if (hscale != 1f || vscale != 1f) {
             GeneralPath scaledPath = new GeneralPath();
             draw(scaledPath, string, x, y, op, 1f, 1f);
@@ -720,23 +1325,317 @@ public class TTFFont
      * Vector font
      */
     private TTFFont draw(Graphics g, String string, int x, int y, float op){
+        if (getKind() == Kind.Blit || (renderMode == RenderMode.Auto && canBlit(g))) {
+            return blit(g, string, x, y, op);
+        }
+        if (renderMode == RenderMode.Snapshot && null != string && 0 < string.length()) {
+            return drawSnapshot(g, string, x, y);
+        }
+        if (renderMode == RenderMode.DistanceField && stroke == null && filled && null != string) {
+            if (drawDistanceField(g, string, x, y)) {
+                return this;
+            }
+        }
         boolean oldAntialiased = g.isAntiAliased();
         //if (g.isAntiAliasedText()) {
         g.setAntiAliased(antialias);
         
         //}
         
+        GeneralPath strPath = new GeneralPath();
+        appendString(strPath, string, x, y, op);
+        paintPath(g, strPath, createStrokeOutline(string, x, y));
+        
+        g.setAntiAliased(oldAntialiased);
+        return this;
+        
+    }
+    
+    /**
+     * Draws a string using distance field images of its glyphs.
+     * @return False if the glyphs of this font don't support distance fields, in
+     * which case nothing is drawn.
+     */
+    private boolean drawDistanceField(Graphics g, String string, int x, int y) {
+        char[] cary = string.toCharArray();
+        int clen = cary.length;
+        // check every glyph first, so that nothing is drawn twice on fallback
+        for (int cc = 0; cc < clen; cc++){
+            if (cary[cc] != 0x0A && cary[cc] != 0x0D) {
+                Glyph glyph = this.collection.getGlyph(cary[cc]);
+                if (null != glyph && !(glyph instanceof DistanceFieldGlyph)) {
+                    return false;
+                }
+            }
+        }
+        float deviceScale = getDeviceScale(g);
+        int color = fillColor != null ? fillColor.intValue() : g.getColor();
+        char ch;
+        int px = x;
+        int py = y;
+        Glyph glyph;
+        for (int cc = 0; cc < clen; cc++){
+            ch = cary[cc];
+            switch (ch){
+            case 0x0A:
+                px = x;
+                py += this.collection.getMaxHeight();
+                break;
+            case 0x0D:
+                px = x;
+                break;
+            default:
+                glyph = this.collection.getGlyph(ch);
+                if (null == glyph) {
+                    px += this.collection.getMaxWidth();
+                } else {
+                    if (ch != 0x20) {
+                        ((DistanceFieldGlyph)glyph).drawDistanceField(g, 
+                                x + (int)((px - x) * hscale), 
+                                y + (int)((py - y) * vscale), 
+                                hscale, vscale, deviceScale, color);
+                    }
+                    px += glyph.getWidth();
+                }
+                break;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * Estimates how many device pixels a pixel covers under the graphics transform.
+     */
+    private static float getDeviceScale(Graphics g) {
+        if (!g.isTransformSupported()) {
+            return 1f;
+        }
+        Transform t = g.getTransform();
+        if (t == null || t.isIdentity()) {
+            return 1f;
+        }
+        float[] o = new float[2];
+        float[] ux = new float[2];
+        float[] uy = new float[2];
+        t.transformPoint(new float[]{0, 0}, o);
+        t.transformPoint(new float[]{1, 0}, ux);
+        t.transformPoint(new float[]{0, 1}, uy);
+        float sx = (float)Math.sqrt((ux[0]-o[0])*(ux[0]-o[0]) + (ux[1]-o[1])*(ux[1]-o[1]));
+        float sy = (float)Math.sqrt((uy[0]-o[0])*(uy[0]-o[0]) + (uy[1]-o[1])*(uy[1]-o[1]));
+        float scale = Math.max(sx, sy);
+        // keep glyph images to a sensible size under extreme zoom
+        return Math.max(0.25f, Math.min(scale, 8f));
+    }
+    
+    /**
+     * Draws a string using a cached image of it, rendering the image first
+     * if necessary.
+     */
+    private TTFFont drawSnapshot(Graphics g, String string, int x, int y) {
+        int color = g.getColor();
+        StringImageCache.Snapshot snapshot = snapshots.get(this, string, color);
+        if (snapshot == null) {
+            GeneralPath strPath = new GeneralPath();
+            appendString(strPath, string, 0, 0, 1f);
+            Rectangle bounds = strPath.getBounds();
+            int pad = (stroke == null ? 0 : (int)Math.ceil(stroke.getLineWidth())) + 1;
+            int w = bounds.getWidth() + 2 * pad;
+            int h = bounds.getHeight() + 2 * pad;
+            int ox = bounds.getX() - pad;
+            int oy = bounds.getY() - pad;
+            
+            Image img = Image.createImage(w, h, 0);
+            Graphics ig = img.getGraphics();
+            ig.setColor(color);
+            ig.setAntiAliased(antialias);
+            ig.translate(-ox, -oy);
+            paintPath(ig, strPath, createStrokeOutline(string, 0, 0));
+            snapshot = new StringImageCache.Snapshot(img, ox, oy);
+            snapshots.put(this, string, color, snapshot);
+        }
+        g.drawImage(snapshot.image, x + snapshot.offsetX, y + snapshot.offsetY);
+        return this;
+    }
+    
+    /**
+     * Appends the outline of a string to a path, offset by the stroke width 
+     * the same way that {@link #drawString(com.codename1.ui.Graphics, java.lang.String, int, int) }
+     * positions it.
+     * @param sink The path to append to.
+     * @param string The string.
+     * @param x The x coordinate.
+     * @param y The y coordinate.
+     * @param op The opacity.
+     */
+    void appendString(GeneralPath sink, String string, int x, int y, float op) {
         int strokeWidth = stroke == null ? 0 : (int)(stroke.getLineWidth());
         x += strokeWidth;
         y += strokeWidth;
+        draw(sink, string, x, y, op);
+    }
+    
+    /**
+     * Builds the fillable outline of the stroke of a string from the cached 
+     * stroke outlines of its glyphs.
+     * @return The outline, or null if the string isn't stroked or its stroke 
+     * can't be cached, in which case the platform must stroke the text path.
+     */
+    private GeneralPath createStrokeOutline(String string, int x, int y) {
+        if (stroke == null || !strokeOutlineCaching || hscale != 1f || vscale != 1f || null == string) {
+            return null;
+        }
+        int strokeWidth = (int)(stroke.getLineWidth());
+        x += strokeWidth;
+        y += strokeWidth;
+        GeneralPath sink = new GeneralPath();
+        char[] cary = string.toCharArray();
+        int clen = cary.length;
+        char ch;
+        int px = x;
+        int py = y;
+        Glyph glyph;
+        for (int cc = 0; cc < clen; cc++){
+            ch = cary[cc];
+            switch (ch){
+            case 0x0A:
+                px = x;
+                py += this.collection.getMaxHeight();
+                break;
+            case 0x0D:
+                px = x;
+                break;
+            default:
+                glyph = this.collection.getGlyph(ch);
+                if (null == glyph) {
+                    px += this.collection.getMaxWidth();
+                } else if (!(glyph instanceof StrokeOutlineGlyph)) {
+                    return null;
+                } else {
+                    if (ch != 0x20) {
+                        ((StrokeOutlineGlyph)glyph).drawStrokeOutline(sink, px, py, stroke);
+                    }
+                    px += glyph.getWidth();
+                }
+                break;
+            }
+        }
+        return sink;
+    }
+    
+    /**
+     * Paints text that was laid out with this font.
+     */
+    void drawPrepared(Graphics g, PreparedText text, int x, int y) {
+        int count = text.getGlyphCount();
+        if (count == 0) {
+            return;
+        }
+        if (getKind() == Kind.Blit || (renderMode == RenderMode.Auto && canBlit(g))) {
+            int oldColor = g.getColor();
+            if (fillColor != null) {
+                g.setColor(fillColor);
+            }
+            int fx = x << 6;
+            for (int i = 0; i < count; i++) {
+                Glyph glyph = text.getGlyph(i);
+                if (glyph instanceof SubpixelGlyph) {
+                    ((SubpixelGlyph)glyph).blitFixed(g, fx + text.getFixedX(i), y + text.getY(i), 1f);
+                } else {
+                    glyph.blit(g, (fx + text.getFixedX(i)) >> 6, y + text.getY(i), 1f);
+                }
+            }
+            g.setColor(oldColor);
+            return;
+        }
+        int strokeWidth = stroke == null ? 0 : (int)(stroke.getLineWidth());
+        int ox = x + strokeWidth;
+        int oy = y + strokeWidth;
         GeneralPath strPath = new GeneralPath();
-        draw(strPath, string, x, y, op);
+        GeneralPath strokeOutline = null;
+        if (stroke != null && strokeOutlineCaching) {
+            strokeOutline = new GeneralPath();
+        }
+        for (int i = 0; i < count; i++) {
+            Glyph glyph = text.getGlyph(i);
+            int gx = ox + (text.getFixedX(i) >> 6);
+            int gy = oy + text.getY(i);
+            glyph.draw(strPath, gx, gy, 1f);
+            if (strokeOutline != null) {
+                if (glyph instanceof StrokeOutlineGlyph) {
+                    ((StrokeOutlineGlyph)glyph).drawStrokeOutline(strokeOutline, gx, gy, stroke);
+                } else {
+                    strokeOutline = null;
+                }
+            }
+        }
+        if (hscale != 1f || vscale != 1f) {
+            Transform t = Transform.makeTranslation(ox, oy);
+            t.scale(hscale, vscale);
+            t.translate(-ox, -oy);
+            strPath.transform(t);
+            if (strokeOutline != null) {
+                // the stroke width must not be scaled with the text
+                strokeOutline = null;
+            }
+        }
+        boolean oldAntialiased = g.isAntiAliased();
+        g.setAntiAliased(antialias);
+        paintPath(g, strPath, strokeOutline);
+        g.setAntiAliased(oldAntialiased);
+    }
+    
+    /**
+     * Enables or disables caching of stroke outlines for stroked fonts.  When
+     * enabled (the default), the stroke of each glyph is computed once per size
+     * and stroke as a fillable path, and stroked text is painted by filling those
+     * paths instead of asking the platform to stroke the text on every paint.
+     * @param caching True to cache stroke outlines.
+     */
+    public static void setStrokeOutlineCaching(boolean caching) {
+        strokeOutlineCaching = caching;
+    }
+    
+    /**
+     * Checks whether stroke outlines are cached for stroked fonts.
+     * @return True if stroke outlines are cached.
+     * @see #setStrokeOutlineCaching(boolean) 
+     */
+    public static boolean isStrokeOutlineCaching() {
+        return strokeOutlineCaching;
+    }
+    
+    /**
+     * Fills and/or strokes a text path using this font's colors and stroke.  
+     * The caller is responsible for setting the antialiasing state.
+     * @param g The graphics context.
+     * @param strPath The text outline.
+     */
+    void paintPath(Graphics g, GeneralPath strPath) {
+        paintPath(g, strPath, null);
+    }
+    
+    /**
+     * Fills and/or strokes a text path using this font's colors and stroke.  
+     * The caller is responsible for setting the antialiasing state.
+     * @param g The graphics context.
+     * @param strPath The text outline.
+     * @param strokeOutline The fillable outline of the text's stroke, or null 
+     * to have the platform stroke the text outline.
+     */
+    void paintPath(Graphics g, GeneralPath strPath, GeneralPath strokeOutline) {
         int oldColor = g.getColor();
         if (filled && fillColor != null) {
             g.setColor(fillColor);
         }
+        FontBoxMetrics metrics = FontBoxMetrics.getListener();
+        long start = metrics == null ? 0 : System.currentTimeMillis();
         if (filled) {
             g.fillShape(strPath);
+            if (metrics != null) {
+                long now = System.currentTimeMillis();
+                metrics.record(FontBoxMetrics.FILL_SHAPE, now - start);
+                start = now;
+            }
         }
         
         
@@ -744,22 +1643,63 @@ public class TTFFont
             g.setColor(strokeColor);
         }
         if (stroke != null) {
-            g.drawShape(strPath, stroke);
+            if (strokeOutline != null) {
+                g.fillShape(strokeOutline);
+                if (metrics != null) {
+                    metrics.record(FontBoxMetrics.FILL_SHAPE, System.currentTimeMillis() - start);
+                }
+            } else {
+                g.drawShape(strPath, stroke);
+                if (metrics != null) {
+                    metrics.record(FontBoxMetrics.DRAW_SHAPE, System.currentTimeMillis() - start);
+                }
+            }
         }
         
         
         if (g.getColor() != oldColor) {
             g.setColor(oldColor);
         }
-        
-        
-        g.setAntiAliased(oldAntialiased);
-        return this;
-        
     }
     private int getMaxWidth(){
         return this.collection.getMaxWidth();
     }
+    
+    /**
+     * Gets the distance between lines, before vertical scaling.
+     */
+    int getLineHeight(){
+        return this.collection.getMaxHeight();
+    }
+    
+    /**
+     * Gets the kerning adjustment between two characters in 1/64ths of a pixel,
+     * before horizontal scaling.
+     * @return The adjustment, or 0 if the collection has no kerning or strings
+     * aren't laid out at fractional positions.
+     */
+    int getFixedKerning(char left, char right){
+        if (collection instanceof KerningCollection && isFixedLayout()) {
+            return ((KerningCollection)collection).getFixedKerning(left, right);
+        }
+        return 0;
+    }
+    
+    /**
+     * Gets the advance of a character in 1/64ths of a pixel, before horizontal
+     * scaling.  Advances are fractional if glyphs are blitted at subpixel 
+     * positions and whole pixels otherwise, matching {@link #charsWidth(char[], int, int) }.
+     */
+    int getFixedAdvance(char ch){
+        Glyph glyph = getGlyph(ch);
+        if (glyph == null) {
+            return getMaxWidth() << 6;
+        }
+        if (isFixedLayout()) {
+            return getFixedAdvance(glyph);
+        }
+        return glyph.getWidth() << 6;
+    }
     private int getMaxHeight(){
         return this.collection.getMaxHeight();
     }
@@ -0,0 +1,175 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package com.codename1.ui;
+
+import com.codename1.ui.geom.GeneralPath;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Accumulates runs of text drawn with {@link TTFFont}s into as few shapes as
+ * possible so that many short strings can be painted with a single fill (and
+ * stroke) per paint style, rather than one per string.
+ *
+ * Runs are grouped by their fill color, stroke, stroke color, antialiasing and
+ * filled settings.  Runs with the same style are merged into one path, regardless
+ * of the font face or size that produced them.  Groups are painted in the order
+ * in which their first run was added.  Strings of fonts whose glyphs can only
+ * be blitted (see {@link TTFFont.Kind#Blit}) have no outlines to merge, so they
+ * are blitted one by one after the groups.
+ *
+ * <p>Example:</p>
+ * <code><pre>
+ * TextBatch batch = new TextBatch();
+ * batch.add(titleFont, "Title", 10, 10);
+ * batch.add(labelFont, "Label 1", 10, 40);
+ * batch.add(labelFont, "Label 2", 10, 60);
+ * batch.flush(g);
+ * </pre></code>
+ * @author shannah
+ */
+public class TextBatch {
+
+    private final Map<Style, GeneralPath> runs = new LinkedHashMap<Style, GeneralPath>();
+    private final List<Blit> blits = new ArrayList<Blit>();
+
+    /**
+     * Adds a string to the batch.
+     * @param font The font to draw the string with.
+     * @param str The string.
+     * @param x The x coordinate of the top left corner of the string.
+     * @param y The y coordinate of the top left corner of the string.
+     * @return Self for chaining.
+     */
+    public TextBatch add(TTFFont font, String str, int x, int y) {
+        if (str == null || str.length() == 0) {
+            return this;
+        }
+        if (font.getKind() == TTFFont.Kind.Blit) {
+            blits.add(new Blit(font, str, x, y));
+            return this;
+        }
+        Style style = new Style(font);
+        GeneralPath path = runs.get(style);
+        if (path == null) {
+            path = new GeneralPath();
+            runs.put(style, path);
+        }
+        font.appendString(path, str, x, y, 1f);
+        return this;
+    }
+
+    /**
+     * Paints all accumulated runs and clears the batch.
+     * @param g The graphics context to paint to.
+     */
+    public void flush(Graphics g) {
+        if (isEmpty()) {
+            return;
+        }
+        boolean oldAntialiased = g.isAntiAliased();
+        Iterator<Map.Entry<Style, GeneralPath>> it = runs.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Style, GeneralPath> e = it.next();
+            TTFFont font = e.getKey().font;
+            g.setAntiAliased(font.isAntialias());
+            font.paintPath(g, e.getValue());
+        }
+        g.setAntiAliased(oldAntialiased);
+        runs.clear();
+        for (int i = 0; i < blits.size(); i++) {
+            Blit b = blits.get(i);
+            b.font.drawString(g, b.str, b.x, b.y);
+        }
+        blits.clear();
+    }
+
+    /**
+     * Discards all accumulated runs without painting them.
+     */
+    public void clear() {
+        runs.clear();
+        blits.clear();
+    }
+
+    /**
+     * Checks whether the batch contains any runs.
+     * @return True if there is nothing to flush.
+     */
+    public boolean isEmpty() {
+        return runs.isEmpty() && blits.isEmpty();
+    }
+
+    /**
+     * Returns the number of distinct paint styles in the batch, which is the
+     * number of fill (and stroke) calls that the next flush will make.
+     * @return The number of style groups.
+     */
+    public int getStyleCount() {
+        return runs.size();
+    }
+
+    /**
+     * A string of a font whose glyphs can only be blitted.
+     */
+    private static class Blit {
+        final TTFFont font;
+        final String str;
+        final int x;
+        final int y;
+
+        Blit(TTFFont font, String str, int x, int y) {
+            this.font = font;
+            this.str = str;
+            this.x = x;
+            this.y = y;
+        }
+    }
+
+    /**
+     * The paint style of a run.  The first font added with a given style is
+     * used to paint the whole group.
+     */
+    private static class Style {
+        final TTFFont font;
+
+        Style(TTFFont font) {
+            this.font = font;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Style)) {
+                return false;
+            }
+            TTFFont f = ((Style)o).font;
+            return f.isFilled() == font.isFilled()
+                    && f.isAntialias() == font.isAntialias()
+                    && eq(f.getFillColor(), font.getFillColor())
+                    && eq(f.getStrokeColor(), font.getStrokeColor())
+                    && eq(f.peekStroke(), font.peekStroke());
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = 7;
+            hash = 41 * hash + (font.isFilled() ? 1 : 0);
+            hash = 41 * hash + (font.isAntialias() ? 1 : 0);
+            hash = 41 * hash + (font.getFillColor() != null ? font.getFillColor().hashCode() : 0);
+            hash = 41 * hash + (font.getStrokeColor() != null ? font.getStrokeColor().hashCode() : 0);
+            hash = 41 * hash + (font.peekStroke() != null ? font.peekStroke().hashCode() : 0);
+            return hash;
+        }
+
+        private static boolean eq(Object a, Object b) {
+            return a == null ? b == null : a.equals(b);
+        }
+    }
+}
@@ -84,6 +84,22 @@ abstract class AbstractTTFParser
         return font;
     }
 
+    /**
+     * Reads the data of a table, reporting the time it took to the metrics
+     * listener.
+     */
+    private void initTable(TrueTypeFont font, TTFDataStream raf, TTFTable table) throws IOException
+    {
+        FontBoxMetrics metrics = FontBoxMetrics.getListener();
+        long start = metrics == null ? 0 : System.currentTimeMillis();
+        raf.seek(table.getOffset());
+        table.initData(font, raf);
+        if (metrics != null)
+        {
+            metrics.tableParsed(table.getTag(), System.currentTimeMillis() - start);
+        }
+    }
+
     /**
      * Parse all tables and check if all needed tables are present.
      * 
@@ -99,8 +115,7 @@ abstract class AbstractTTFParser
         {
             throw new IOException("head is mandatory");
         }
-        raf.seek(head.getOffset());
-        head.initData(font, raf);
+        initTable(font, raf, head);
         initialized.add(head);
 
         HorizontalHeaderTable hh = font.getHorizontalHeader();
@@ -108,15 +123,13 @@ abstract class AbstractTTFParser
         {
             throw new IOException("hhead is mandatory");
         }
-        raf.seek(hh.getOffset());
-        hh.initData(font, raf);
+        initTable(font, raf, hh);
         initialized.add(hh);
 
         MaximumProfileTable maxp = font.getMaximumProfile();
         if (maxp != null)
         {
-            raf.seek(maxp.getOffset());
-            maxp.initData(font, raf);
+            initTable(font, raf, maxp);
             initialized.add(maxp);
         }
         else
@@ -127,8 +140,7 @@ abstract class AbstractTTFParser
         PostScriptTable post = font.getPostScript();
         if (post != null)
         {
-            raf.seek(post.getOffset());
-            post.initData(font, raf);
+            initTable(font, raf, post);
             initialized.add(post);
         }
         else if (!isEmbedded)
@@ -142,8 +154,7 @@ abstract class AbstractTTFParser
         {
             throw new IOException("loca is mandatory");
         }
-        raf.seek(loc.getOffset());
-        loc.initData(font, raf);
+        initTable(font, raf, loc);
         initialized.add(loc);
 
         Iterator<TTFTable> iter = font.getTables().iterator();
@@ -152,8 +163,7 @@ abstract class AbstractTTFParser
             TTFTable table = iter.next();
             if (!initialized.contains(table))
             {
-                raf.seek(table.getOffset());
-                table.initData(font, raf);
+                initTable(font, raf, table);
             }
         }
 
@@ -172,10 +182,15 @@ abstract class AbstractTTFParser
         }
     }
 
-    private TTFTable readTableDirectory(TTFDataStream raf) throws IOException
+    /**
+     * Creates an empty table for a tag.
+     * 
+     * @param tag the table tag
+     * @return the table, which is a plain {@link TTFTable} for unknown tags
+     */
+    static TTFTable createTable(String tag)
     {
         TTFTable retval = null;
-        String tag = raf.readString(4);
         if (tag.equals(CMAPTable.TAG))
         {
             retval = new CMAPTable();
@@ -220,12 +235,23 @@ abstract class AbstractTTFParser
         {
             retval = new DigitalSignatureTable();
         }
+        else if (tag.equals(KerningTable.TAG))
+        {
+            retval = new KerningTable();
+        }
         else
         {
             // unknown table type but read it anyway.
             retval = new TTFTable();
         }
         retval.setTag(tag);
+        return retval;
+    }
+
+    private TTFTable readTableDirectory(TTFDataStream raf) throws IOException
+    {
+        String tag = raf.readString(4);
+        TTFTable retval = createTable(tag);
         retval.setCheckSum(raf.readUnsignedInt());
         retval.setOffset(raf.readUnsignedInt());
         retval.setLength(raf.readUnsignedInt());
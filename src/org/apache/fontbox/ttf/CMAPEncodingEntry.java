@@ -20,6 +20,7 @@ import java.io.IOException;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.Map.Entry;
 import ca.weblite.codename1.lang.Integer;
@@ -42,6 +43,14 @@ public class CMAPEncodingEntry
     private int[] glyphIdToCharacterCode;
     private Map<Integer, Integer> characterCodeToGlyphId = new HashMap<Integer, Integer>();
 
+    /**
+     * The mapping as runs of consecutive character codes, if it was set with
+     * {@link #setRuns(int[], int[], int[]) }.
+     */
+    private int[] runCodes;
+    private int[] runGlyphIds;
+    private int[] runLengths;
+
     /**
      * This will read the required data from the stream.
      * 
@@ -518,6 +527,93 @@ public class CMAPEncodingEntry
         glyphIdToCharacterCode = glyphIdToCharacterCodeValue;
     }
 
+    /**
+     * Returns the mapping as runs of consecutive character codes that map to
+     * consecutive glyph ids.
+     * 
+     * @return the first character code, first glyph id and length of each run,
+     * in ascending order of character codes
+     */
+    int[][] getRuns()
+    {
+        if (runCodes != null)
+        {
+            return new int[][] { runCodes, runGlyphIds, runLengths };
+        }
+        int n = characterCodeToGlyphId.size();
+        int[] codes = new int[n];
+        int i = 0;
+        for (Iterator<Integer> it = characterCodeToGlyphId.keySet().iterator(); it.hasNext();)
+        {
+            codes[i++] = it.next().intValue();
+        }
+        Arrays.sort(codes);
+        int[] glyphIds = new int[n];
+        int runs = 0;
+        for (i = 0; i < n; i++)
+        {
+            glyphIds[i] = characterCodeToGlyphId.get(new Integer(codes[i])).intValue();
+            if (i == 0 || codes[i] != codes[i - 1] + 1 || glyphIds[i] != glyphIds[i - 1] + 1)
+            {
+                runs++;
+            }
+        }
+        int[][] out = new int[3][runs];
+        int r = -1;
+        for (i = 0; i < n; i++)
+        {
+            if (i == 0 || codes[i] != codes[i - 1] + 1 || glyphIds[i] != glyphIds[i - 1] + 1)
+            {
+                r++;
+                out[0][r] = codes[i];
+                out[1][r] = glyphIds[i];
+            }
+            out[2][r]++;
+        }
+        return out;
+    }
+
+    /**
+     * Adds the mapping to a memory report.
+     * 
+     * @param report the report
+     */
+    void addMemoryUsage(MemoryReport report)
+    {
+        long bytes = 32;
+        if (glyphIdToCharacterCode != null)
+        {
+            bytes += 16 + glyphIdToCharacterCode.length * 4;
+        }
+        Map<Integer, Integer> map = characterCodeToGlyphId;
+        if (map != null)
+        {
+            // an entry and two boxed integers per character
+            bytes += 32 + map.size() * 64;
+        }
+        if (runCodes != null)
+        {
+            bytes += 48 + runCodes.length * 12;
+        }
+        report.add(MemoryReport.CHARACTER_MAPS, bytes, 1);
+    }
+
+    /**
+     * Replaces the mapping with runs that were read from elsewhere.  Glyph ids
+     * are then looked up by binary search of the runs.
+     * 
+     * @param codes the first character code of each run, in ascending order
+     * @param glyphIds the first glyph id of each run
+     * @param lengths the length of each run
+     */
+    void setRuns(int[] codes, int[] glyphIds, int[] lengths)
+    {
+        runCodes = codes;
+        runGlyphIds = glyphIds;
+        runLengths = lengths;
+        characterCodeToGlyphId = null;
+    }
+
     /**
      * @return Returns the platformEncodingId.
      */
@@ -582,6 +678,10 @@ public class CMAPEncodingEntry
 //            sb.append(k).append("=>").append(characterCodeToGlyphId.get(k)).append(", ");
 //        }
 //        Log.p("KV={"+sb.toString()+"}");
+        if (runCodes != null)
+        {
+            return getRunGlyphId(characterCode);
+        }
         if (characterCodeToGlyphId.containsKey(new Integer(characterCode)))
         {
 //            Log.p("Found code for characterCode: ");
@@ -599,6 +699,29 @@ public class CMAPEncodingEntry
         }
     }
 
+    private int getRunGlyphId(int characterCode)
+    {
+        int lo = 0;
+        int hi = runCodes.length - 1;
+        while (lo <= hi)
+        {
+            int mid = (lo + hi) >>> 1;
+            if (runCodes[mid] > characterCode)
+            {
+                hi = mid - 1;
+            }
+            else if (characterCode - runCodes[mid] >= runLengths[mid])
+            {
+                lo = mid + 1;
+            }
+            else
+            {
+                return runGlyphIds[mid] + characterCode - runCodes[mid];
+            }
+        }
+        return 0;
+    }
+
     /**
      * 
      * Class used to manage CMap - Format 2.
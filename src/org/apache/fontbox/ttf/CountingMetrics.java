@@ -0,0 +1,95 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.fontbox.ttf;
+
+/**
+ * Metrics that add up the number and total duration of each event, to be
+ * read periodically, for example to report them to a dashboard.
+ *
+ * <pre>
+ * CountingMetrics metrics = new CountingMetrics();
+ * FontBoxMetrics.setListener(metrics);
+ * ...
+ * Log.p(metrics.toString());
+ * </pre>
+ */
+public class CountingMetrics extends FontBoxMetrics
+{
+
+    private final long[] counts = new long[EVENT_COUNT];
+    private final long[] millis = new long[EVENT_COUNT];
+
+    public synchronized void record(int event, long duration)
+    {
+        counts[event]++;
+        millis[event] += duration;
+    }
+
+    /**
+     * Gets the number of times an event was recorded.
+     *
+     * @param event the event
+     * @return the count
+     */
+    public synchronized long getCount(int event)
+    {
+        return counts[event];
+    }
+
+    /**
+     * Gets the total duration of an event.
+     *
+     * @param event the event
+     * @return the duration in milliseconds
+     */
+    public synchronized long getMillis(int event)
+    {
+        return millis[event];
+    }
+
+    /**
+     * Sets the counts and durations back to 0.
+     */
+    public synchronized void reset()
+    {
+        for (int i = 0; i < EVENT_COUNT; i++)
+        {
+            counts[i] = 0;
+            millis[i] = 0;
+        }
+    }
+
+    /**
+     * Formats the metrics with one line per event, for logging.
+     *
+     * @return the metrics
+     */
+    public synchronized String toString()
+    {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < EVENT_COUNT; i++)
+        {
+            if (i > 0)
+            {
+                sb.append('\n');
+            }
+            sb.append(getEventName(i)).append(": ").append(counts[i]).append(" in ")
+                    .append(millis[i]).append(" ms");
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.fontbox.ttf;
+
+/**
+ * A listener for the work done by font parsing, lookup and rendering, so that
+ * applications can see where text rendering time goes.
+ *
+ * Metrics are off by default.  While no listener is set, each instrumented
+ * operation only reads a static field.  Listeners are called on the thread that
+ * did the work, which may be a background thread, and must be fast.  Durations
+ * are measured with {@link System#currentTimeMillis() }, which is the only clock
+ * on all platforms, so short operations are mostly recorded as 0 ms and are
+ * best read as totals over many events.
+ *
+ * @see CountingMetrics
+ */
+public abstract class FontBoxMetrics
+{
+
+    /**
+     * A font table was parsed, when the font was loaded or on first access.
+     */
+    public static final int TABLE_PARSE = 0;
+
+    /**
+     * A glyph was decoded from the font data.
+     */
+    public static final int GLYPH_DECODE = 1;
+
+    /**
+     * A character was looked up in the character maps.
+     */
+    public static final int CMAP_LOOKUP = 2;
+
+    /**
+     * A glyph outline was found in the cache.
+     */
+    public static final int OUTLINE_CACHE_HIT = 3;
+
+    /**
+     * A glyph outline wasn't in the cache and was built.
+     */
+    public static final int OUTLINE_CACHE_MISS = 4;
+
+    /**
+     * A glyph mask was found in the cache.
+     */
+    public static final int MASK_CACHE_HIT = 5;
+
+    /**
+     * A glyph mask wasn't in the cache and was rasterized.
+     */
+    public static final int MASK_CACHE_MISS = 6;
+
+    /**
+     * A glyph outline was built from its description.
+     */
+    public static final int PATH_BUILD = 7;
+
+    /**
+     * A text outline was filled on a graphics context.
+     */
+    public static final int FILL_SHAPE = 8;
+
+    /**
+     * A text outline was stroked on a graphics context.
+     */
+    public static final int DRAW_SHAPE = 9;
+
+    /**
+     * The number of events.
+     */
+    public static final int EVENT_COUNT = 10;
+
+    private static final String[] NAMES = {
+        "table parse", "glyph decode", "cmap lookup", "outline cache hit",
+        "outline cache miss", "mask cache hit", "mask cache miss", "path build",
+        "fill shape", "draw shape"
+    };
+
+    private static volatile FontBoxMetrics listener;
+
+    /**
+     * Sets the listener that receives the metrics.
+     *
+     * @param metrics the listener, or null to turn metrics off
+     */
+    public static void setListener(FontBoxMetrics metrics)
+    {
+        listener = metrics;
+    }
+
+    /**
+     * Gets the listener that receives the metrics.
+     *
+     * @return the listener, or null if metrics are off
+     */
+    public static FontBoxMetrics getListener()
+    {
+        return listener;
+    }
+
+    /**
+     * Gets the name of an event.
+     *
+     * @param event the event, one of the constants of this class
+     * @return the name
+     */
+    public static String getEventName(int event)
+    {
+        return NAMES[event];
+    }
+
+    /**
+     * Records an event.
+     *
+     * @param event the event, one of the constants of this class
+     * @param millis the duration of the event in milliseconds, or 0 for events
+     * that aren't timed
+     */
+    public abstract void record(int event, long millis);
+
+    /**
+     * Records the parse of a font table.  Records a {@link #TABLE_PARSE} event
+     * unless overridden.
+     *
+     * @param tag the tag of the table
+     * @param millis the duration of the parse in milliseconds
+     */
+    public void tableParsed(String tag, long millis)
+    {
+        record(TABLE_PARSE, millis);
+    }
+}
@@ -34,7 +34,7 @@ public class GlyfCompositeDescript extends GlyfDescript
 {
 
     private List<GlyfCompositeComp> components = new ArrayList<GlyfCompositeComp>();
-    private GlyphData[] glyphs = null;
+    private GlyphTable glyphTable = null;
     private boolean beingResolved = false;
     private boolean resolved = false;
 
@@ -49,7 +49,7 @@ public class GlyfCompositeDescript extends GlyfDescript
     {
         super((short) -1, bais);
 
-        glyphs = glyphTable.getGlyphs();
+        this.glyphTable = glyphTable;
 
         // Get all of the composite components
         GlyfCompositeComp comp;
@@ -245,9 +245,9 @@ public class GlyfCompositeDescript extends GlyfDescript
 
     private GlyphDescription getGlypDescription(int index)
     {
-        if (glyphs != null && index < glyphs.length)
+        if (glyphTable != null)
         {
-            GlyphData glyph = glyphs[index];
+            GlyphData glyph = glyphTable.getGlyphData(index);
             if (glyph != null)
             {
                 return glyph.getDescription();
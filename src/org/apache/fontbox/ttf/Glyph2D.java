@@ -19,8 +19,6 @@
 package org.apache.fontbox.ttf;
 
 import com.codename1.ui.geom.GeneralPath;
-import java.util.ArrayList;
-import java.util.List;
 
 
 
@@ -28,6 +26,10 @@ import java.util.List;
 /**
  * This class provides a glyph to GeneralPath conversion.
  * 
+ * The outline is converted in a single pass over the coordinates and flags of
+ * the glyph description, writing straight into the path without creating any
+ * intermediate point objects.
+ * 
  * This class is based on code from Apache Batik a subproject of Apache XMLGraphics.
  * see http://xmlgraphics.apache.org/batik/ for further details.
  */
@@ -36,7 +38,7 @@ public class Glyph2D
 
     private short leftSideBearing = 0;
     private int advanceWidth = 0;
-    private Point[] points;
+    private GlyphDescription description;
     private GeneralPath glyphPath;
 
     /**
@@ -50,7 +52,7 @@ public class Glyph2D
     {
         leftSideBearing = lsb;
         advanceWidth = advance;
-        describe(gd);
+        description = gd;
     }
 
     /**
@@ -73,28 +75,6 @@ public class Glyph2D
         return leftSideBearing;
     }
 
-    /**
-     * Set the points of a glyph from the GlyphDescription.
-     */
-    private void describe(GlyphDescription gd) 
-    {
-        int endPtIndex = 0;
-        points = new Point[gd.getPointCount()];
-        for (int i = 0; i < gd.getPointCount(); i++) 
-        {
-            boolean endPt = gd.getEndPtOfContours(endPtIndex) == i;
-            if (endPt) 
-            {
-                endPtIndex++;
-            }
-            points[i] = new Point(
-                    gd.getXCoordinate(i),
-                    gd.getYCoordinate(i),
-                    (gd.getFlags(i) & GlyfDescript.ON_CURVE) != 0,
-                    endPt);
-        }
-    }
-    
     /**
      * Returns the path describing the glyph.
      * 
@@ -104,125 +84,122 @@ public class Glyph2D
     {
         if (glyphPath == null)
         {
-            glyphPath = calculatePath(points);
+            glyphPath = new GeneralPath();
+            appendPath(description, glyphPath);
         }
         return glyphPath;
     }
     
-    
-    private GeneralPath calculatePath(Point[] points) 
-    { 
-        GeneralPath path = new GeneralPath(); 
-        int start = 0; 
-        for (int p = 0, len = points.length; p < len; ++p) 
-        { 
-         if (points[p].endOfContour) 
-            { 
-          Point firstPoint = points[start]; 
-          Point lastPoint = points[p]; 
-          List<Point> contour = new ArrayList<Point>(); 
-          for (int q = start; q <= p; ++q) 
-                { 
-           contour.add(points[q]); 
-                } 
-          if (points[start].onCurve) 
-                { 
-           // using start point at the contour end 
-           contour.add(firstPoint); 
-                } 
-          else if (points[p].onCurve) 
-                { 
-           // first is off-curve point, trying to use one from the end 
-           contour.add(0, lastPoint); 
-                } 
-                else 
-                { 
-                 // start and end are off-curve points, creating implicit one 
-                 Point pmid = midValue(firstPoint, lastPoint); 
-                 contour.add(0, pmid); 
-                 contour.add(pmid); 
-                } 
-          moveTo(path, contour.get(0)); 
-          for (int j = 1, clen = contour.size(); j < clen; j++) 
-                { 
-           Point pnow = contour.get(j); 
-           if (pnow.onCurve) 
-           { 
-            lineTo(path, pnow); 
-           } 
-           else if (contour.get(j + 1).onCurve) 
-           { 
-            quadTo(path, pnow, contour.get(j + 1)); 
-            ++j; 
-           } 
-           else 
-           { 
-            quadTo(path, pnow, midValue(pnow, contour.get(j + 1))); 
-           } 
-                } 
-          start = p + 1; 
-            } 
-        } 
-        return path; 
-    } 
-    
-    private void moveTo(GeneralPath path, Point point) {
-        path.moveTo(point.x, point.y);
-    }
-    
-    private void lineTo(GeneralPath path, Point point) 
-    { 
-        path.lineTo(point.x, point.y); 
-//        Log.v("PdfBoxAndroid", "lineTo: " + String.format("%d,%d", point.x, point.y)); 
-    } 
-    
-    private void quadTo(GeneralPath path, Point ctrlPoint, Point point) 
-    { 
-        path.quadTo(ctrlPoint.x, ctrlPoint.y, point.x, point.y); 
-//        Log.v("PdfBoxAndroid", "quadTo: " + String.format("%d,%d %d,%d", ctrlPoint.x, ctrlPoint.y, 
-//                    point.x, point.y)); 
-    }
-    
-    private Point midValue(Point point1, Point point2) 
-    { 
-        return new Point(midValue(point1.x, point2.x), midValue(point1.y, point2.y)); 
-    } 
-    
-    
-
-    private int midValue(int a, int b) 
-    {
-        return a + (b - a)/2;
-    }
-
     /**
-     * This class represents one point of a glyph.  
-     *
+     * Appends the outline of a glyph description to a path, in font units.
+     * 
+     * Consecutive off-curve points imply an on-curve point halfway between them.
+     * A contour that starts with an off-curve point starts at its last point if
+     * that is on the curve, and otherwise at the point implied between its first
+     * and last points.
+     * 
+     * @param gd the glyph description
+     * @param path the path to append to
      */
-    private class Point 
+    public static void appendPath(GlyphDescription gd, GeneralPath path)
     {
-
-        public int x = 0;
-        public int y = 0;
-        public boolean onCurve = true;
-        public boolean endOfContour = false;
-
-        public Point(int xValue, int yValue, boolean onCurveValue, boolean endOfContourValue) 
+        FontBoxMetrics metrics = FontBoxMetrics.getListener();
+        if (metrics == null)
         {
-            x = xValue;
-            y = yValue;
-            onCurve = onCurveValue;
-            endOfContour = endOfContourValue;
+            appendContours(gd, path);
+            return;
         }
+        long start = System.currentTimeMillis();
+        appendContours(gd, path);
+        metrics.record(FontBoxMetrics.PATH_BUILD, System.currentTimeMillis() - start);
+    }
 
-        public Point(int xValue, int yValue) 
+    private static void appendContours(GlyphDescription gd, GeneralPath path)
+    {
+        int contourCount = gd.getContourCount();
+        int start = 0;
+        for (int c = 0; c < contourCount; c++)
         {
-            this(xValue, yValue, false, false);
-        }
-        
-        public String toString() {
-            return "Point{x="+x+", y="+y+", onCurve="+onCurve+", endOfContour="+endOfContour;
+            int end = gd.getEndPtOfContours(c);
+            if (end < start)
+            {
+                continue;
+            }
+            int first = start;
+            int last = end;
+            int sx;
+            int sy;
+            if (isOnCurve(gd, start))
+            {
+                sx = gd.getXCoordinate(start);
+                sy = gd.getYCoordinate(start);
+                first = start + 1;
+            }
+            else if (isOnCurve(gd, end))
+            {
+                sx = gd.getXCoordinate(end);
+                sy = gd.getYCoordinate(end);
+                last = end - 1;
+            }
+            else
+            {
+                sx = midValue(gd.getXCoordinate(start), gd.getXCoordinate(end));
+                sy = midValue(gd.getYCoordinate(start), gd.getYCoordinate(end));
+            }
+            path.moveTo(sx, sy);
+            
+            // the pending off-curve control point, if any
+            boolean hasControl = false;
+            int cx = 0;
+            int cy = 0;
+            for (int i = first; i <= last; i++)
+            {
+                int x = gd.getXCoordinate(i);
+                int y = gd.getYCoordinate(i);
+                if (isOnCurve(gd, i))
+                {
+                    if (hasControl)
+                    {
+                        path.quadTo(cx, cy, x, y);
+                        hasControl = false;
+                    }
+                    else
+                    {
+                        path.lineTo(x, y);
+                    }
+                }
+                else
+                {
+                    if (hasControl)
+                    {
+                        path.quadTo(cx, cy, midValue(cx, x), midValue(cy, y));
+                    }
+                    cx = x;
+                    cy = y;
+                    hasControl = true;
+                }
+            }
+            // back to the start point
+            if (hasControl)
+            {
+                path.quadTo(cx, cy, sx, sy);
+            }
+            else
+            {
+                path.lineTo(sx, sy);
+            }
+            start = end + 1;
         }
     }
+    
+    private static boolean isOnCurve(GlyphDescription gd, int i)
+    {
+        return (gd.getFlags(i) & GlyfDescript.ON_CURVE) != 0;
+    }
+
+    private static int midValue(int a, int b) 
+    {
+        return a + (b - a)/2;
+    }
 
-}
\ No newline at end of file
+}
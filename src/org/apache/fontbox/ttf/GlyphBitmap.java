@@ -0,0 +1,127 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.fontbox.ttf;
+
+/**
+ * An anti-aliased alpha mask of a glyph, as produced by {@link GlyphRasterizer}.
+ *
+ * The mask is positioned relative to the pen position on the baseline: its top
+ * left pixel lies {@link #getLeft()} pixels to the right of the pen and
+ * {@link #getTop()} pixels below the baseline (negative values are to the left
+ * and above).
+ */
+public class GlyphBitmap
+{
+    private final int width;
+    private final int height;
+    private final int left;
+    private final int top;
+    private final byte[] alpha;
+
+    /**
+     * Constructor.
+     *
+     * @param width the width of the mask in pixels
+     * @param height the height of the mask in pixels
+     * @param left the horizontal offset of the mask from the pen position
+     * @param top the vertical offset of the mask from the baseline
+     * @param alpha the coverage of each pixel, row by row
+     */
+    public GlyphBitmap(int width, int height, int left, int top, byte[] alpha)
+    {
+        this.width = width;
+        this.height = height;
+        this.left = left;
+        this.top = top;
+        this.alpha = alpha;
+    }
+
+    /**
+     * @return the width of the mask in pixels
+     */
+    public int getWidth()
+    {
+        return width;
+    }
+
+    /**
+     * @return the height of the mask in pixels
+     */
+    public int getHeight()
+    {
+        return height;
+    }
+
+    /**
+     * @return the horizontal offset of the mask from the pen position
+     */
+    public int getLeft()
+    {
+        return left;
+    }
+
+    /**
+     * @return the vertical offset of the mask from the baseline
+     */
+    public int getTop()
+    {
+        return top;
+    }
+
+    /**
+     * Returns the coverage of each pixel, row by row, where 0 is transparent and
+     * 255 (-1 as a signed byte) is fully covered.
+     *
+     * @return the alpha mask
+     */
+    public byte[] getAlpha()
+    {
+        return alpha;
+    }
+
+    /**
+     * Checks whether the mask has no pixels, as is the case for blank glyphs.
+     *
+     * @return true if the mask is empty
+     */
+    public boolean isEmpty()
+    {
+        return width == 0 || height == 0;
+    }
+
+    /**
+     * Converts the mask into ARGB pixels of the given color.
+     *
+     * @param color the RGB color
+     * @param out the array to write into, or null to allocate one
+     * @return the ARGB pixels
+     */
+    public int[] toARGB(int color, int[] out)
+    {
+        int len = width * height;
+        if (out == null || out.length < len)
+        {
+            out = new int[len];
+        }
+        int rgb = color & 0xffffff;
+        for (int i = 0; i < len; i++)
+        {
+            out[i] = ((alpha[i] & 0xff) << 24) | rgb;
+        }
+        return out;
+    }
+}
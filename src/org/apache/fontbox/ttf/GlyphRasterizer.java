@@ -0,0 +1,214 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.fontbox.ttf;
+
+import com.codename1.ui.geom.GeneralPath;
+import org.apache.fontbox.util.BoundingBox;
+
+/**
+ * A self-contained anti-aliased scanline rasterizer for glyph outlines.
+ *
+ * Outlines are flattened and filled with the non-zero winding rule, sampling a
+ * 4x4 grid in every pixel.  The rasterizer doesn't use the platform graphics
+ * at all, so it produces identical output on every platform and can run on any
+ * thread, in JavaSE tools and in unit tests.
+ */
+public final class GlyphRasterizer
+{
+
+    /**
+     * The number of samples per pixel along each axis.
+     */
+    public static final int SUBSAMPLES = 4;
+
+    private static final int SAMPLES_PER_PIXEL = SUBSAMPLES * SUBSAMPLES;
+
+    private GlyphRasterizer()
+    {
+    }
+
+    /**
+     * Rasterizes a glyph of a font at the given size.
+     *
+     * @param font the font
+     * @param glyphId the glyph id
+     * @param size the size in pixels
+     * @return the glyph mask, which is empty for glyphs without an outline
+     */
+    public static GlyphBitmap rasterize(TrueTypeFont font, int glyphId, float size)
+    {
+        return rasterize(font, glyphId, size, 0);
+    }
+
+    /**
+     * Rasterizes a glyph of a font at the given size, with the pen position
+     * shifted right by a fraction of a pixel.
+     *
+     * @param font the font
+     * @param glyphId the glyph id
+     * @param size the size in pixels
+     * @param offsetX the horizontal subpixel offset of the pen, from 0 (inclusive)
+     * to 1 (exclusive)
+     * @return the glyph mask, which is empty for glyphs without an outline
+     */
+    public static GlyphBitmap rasterize(TrueTypeFont font, int glyphId, float size, float offsetX)
+    {
+        GlyphData data = font.getGlyph().getGlyphData(glyphId);
+        if (data == null || data.getDescription().getPointCount() == 0)
+        {
+            return new GlyphBitmap(0, 0, 0, 0, new byte[0]);
+        }
+        return rasterize(data, font.getGlyphPath(glyphId), size / font.getHeader().getUnitsPerEm(),
+                offsetX);
+    }
+
+    /**
+     * Rasterizes the outline of a glyph.
+     *
+     * @param data the glyph data, whose bounding box sizes the mask
+     * @param outline the outline of the glyph in font units
+     * @param scale the number of pixels per font unit
+     * @param offsetX the horizontal subpixel offset of the pen
+     * @return the glyph mask
+     */
+    static GlyphBitmap rasterize(GlyphData data, GeneralPath outline, float scale, float offsetX)
+    {
+        BoundingBox bbox = data.getBoundingBox();
+        // one pixel of slack on each side for antialiasing
+        int left = (int)Math.floor(bbox.getLowerLeftX() * scale + offsetX) - 1;
+        int right = (int)Math.ceil(bbox.getUpperRightX() * scale + offsetX) + 1;
+        int top = (int)Math.floor(-bbox.getUpperRightY() * scale) - 1;
+        int bottom = (int)Math.ceil(-bbox.getLowerLeftY() * scale) + 1;
+        int width = right - left;
+        int height = bottom - top;
+        byte[] alpha = rasterize(outline, scale, offsetX - left, -top, width, height, null);
+        return new GlyphBitmap(width, height, left, top, alpha);
+    }
+
+    /**
+     * Rasterizes an outline into an alpha mask.
+     *
+     * @param path the outline in font units, with the y axis pointing up
+     * @param scale the number of pixels per font unit
+     * @param originX the x coordinate in pixels of the font unit origin in the mask
+     * @param originY the y coordinate in pixels of the font unit origin (the
+     * baseline) in the mask, measured downwards from the top
+     * @param width the width of the mask in pixels
+     * @param height the height of the mask in pixels
+     * @param out the array to write into, or null to allocate one
+     * @return the coverage of each pixel, row by row
+     */
+    public static byte[] rasterize(GeneralPath path, float scale, float originX, float originY,
+            int width, int height, byte[] out)
+    {
+        if (out == null || out.length < width * height)
+        {
+            out = new byte[width * height];
+        }
+        float[] edges = PathFlattener.edges(path, scale, originX, originY, 0.1f);
+        int edgeCount = edges.length / 4;
+        float[] crossX = new float[edgeCount];
+        int[] crossDir = new int[edgeCount];
+        int[] coverage = new int[width];
+        int sampleWidth = width * SUBSAMPLES;
+        for (int row = 0; row < height; row++)
+        {
+            for (int i = 0; i < width; i++)
+            {
+                coverage[i] = 0;
+            }
+            for (int sub = 0; sub < SUBSAMPLES; sub++)
+            {
+                float sy = row + (sub + 0.5f) / SUBSAMPLES;
+                int n = 0;
+                for (int i = 0; i < edgeCount * 4; i += 4)
+                {
+                    float y0 = edges[i + 1];
+                    float y1 = edges[i + 3];
+                    if ((y0 <= sy) != (y1 <= sy))
+                    {
+                        float x0 = edges[i];
+                        float x = x0 + (sy - y0) * (edges[i + 2] - x0) / (y1 - y0);
+                        int dir = y1 > y0 ? 1 : -1;
+                        // insertion sort by x
+                        int j = n;
+                        while (j > 0 && crossX[j - 1] > x)
+                        {
+                            crossX[j] = crossX[j - 1];
+                            crossDir[j] = crossDir[j - 1];
+                            j--;
+                        }
+                        crossX[j] = x;
+                        crossDir[j] = dir;
+                        n++;
+                    }
+                }
+                int winding = 0;
+                for (int i = 0; i < n - 1; i++)
+                {
+                    winding += crossDir[i];
+                    if (winding != 0)
+                    {
+                        // samples lie at the centers of SUBSAMPLES columns per pixel
+                        int s0 = (int)Math.ceil(crossX[i] * SUBSAMPLES - 0.5f);
+                        int s1 = (int)Math.ceil(crossX[i + 1] * SUBSAMPLES - 0.5f);
+                        if (s0 < 0)
+                        {
+                            s0 = 0;
+                        }
+                        if (s1 > sampleWidth)
+                        {
+                            s1 = sampleWidth;
+                        }
+                        addSpan(coverage, s0, s1);
+                    }
+                }
+            }
+            int base = row * width;
+            for (int i = 0; i < width; i++)
+            {
+                int c = coverage[i];
+                out[base + i] = (byte)(c >= SAMPLES_PER_PIXEL ? 255 : c * 256 / SAMPLES_PER_PIXEL);
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Adds one sample of coverage for each sample column in [s0, s1).
+     */
+    private static void addSpan(int[] coverage, int s0, int s1)
+    {
+        if (s0 >= s1)
+        {
+            return;
+        }
+        int p0 = s0 / SUBSAMPLES;
+        int p1 = (s1 - 1) / SUBSAMPLES;
+        if (p0 == p1)
+        {
+            coverage[p0] += s1 - s0;
+            return;
+        }
+        coverage[p0] += SUBSAMPLES - (s0 - p0 * SUBSAMPLES);
+        for (int p = p0 + 1; p < p1; p++)
+        {
+            coverage[p] += SUBSAMPLES;
+        }
+        coverage[p1] += s1 - p1 * SUBSAMPLES;
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.fontbox.ttf;
+
+import com.codename1.io.Log;
+import com.codename1.ui.Display;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A pool of background threads that rasterize glyphs ahead of time.
+ *
+ * Jobs run the software {@link GlyphRasterizer}, which doesn't touch the
+ * platform graphics, so they are safe off the EDT.  Each job hands its results
+ * back to the EDT in a single {@link Display#callSerially(java.lang.Runnable) }
+ * call, so paints see either none or all of a job's glyphs and never a
+ * partially written cache.
+ *
+ * Threads are started on demand and then wait for more work until the pool
+ * is shut down.
+ */
+public class GlyphRasterizerPool
+{
+
+    /**
+     * The default number of threads.  CLDC doesn't report the number of
+     * processors, so this is a conservative value for current devices.
+     */
+    public static final int DEFAULT_THREAD_COUNT = 2;
+
+    private static GlyphRasterizerPool defaultPool;
+
+    private final int threadCount;
+    private final List<Runnable> queue = new ArrayList<Runnable>();
+    private int started;
+    private int busy;
+    private boolean shutdown;
+
+    /**
+     * Constructor.
+     *
+     * @param threadCount the maximum number of threads
+     */
+    public GlyphRasterizerPool(int threadCount)
+    {
+        this.threadCount = Math.max(1, threadCount);
+    }
+
+    /**
+     * Returns the pool used to pre-rasterize glyphs of all fonts.
+     *
+     * @return the shared pool
+     */
+    public static synchronized GlyphRasterizerPool getDefault()
+    {
+        if (defaultPool == null)
+        {
+            defaultPool = new GlyphRasterizerPool(DEFAULT_THREAD_COUNT);
+        }
+        return defaultPool;
+    }
+
+    /**
+     * Replaces the shared pool with one that uses the given number of threads,
+     * and shuts the old pool down.  Jobs that were already submitted to the old
+     * pool still run.
+     *
+     * @param threadCount the number of threads
+     */
+    public static synchronized void setDefaultThreadCount(int threadCount)
+    {
+        if (defaultPool != null)
+        {
+            defaultPool.shutdown();
+        }
+        defaultPool = new GlyphRasterizerPool(threadCount);
+    }
+
+    /**
+     * Lets the threads of this pool end once the queue is empty, rather than
+     * wait for more work.  Jobs that are submitted afterwards still run, on
+     * threads that are started for them.
+     */
+    public synchronized void shutdown()
+    {
+        shutdown = true;
+        notifyAll();
+    }
+
+    /**
+     * @return the maximum number of threads of this pool
+     */
+    public int getThreadCount()
+    {
+        return threadCount;
+    }
+
+    /**
+     * Queues a job to run on one of the pool's threads.
+     *
+     * @param job the job
+     */
+    public synchronized void submit(Runnable job)
+    {
+        queue.add(job);
+        startWorkerIfNeeded();
+        notify();
+    }
+
+    /**
+     * Starts a thread if the queued jobs outnumber the idle threads and the
+     * pool has room for another thread.
+     */
+    private void startWorkerIfNeeded()
+    {
+        if (started < threadCount && started - busy < queue.size())
+        {
+            started++;
+            Display.getInstance().startThread(new Worker(), "Glyph rasterizer " + started).start();
+        }
+    }
+
+    /**
+     * Returns the number of jobs that are queued or running.
+     *
+     * @return the number of unfinished jobs
+     */
+    public synchronized int getPendingCount()
+    {
+        return queue.size() + busy;
+    }
+
+    /**
+     * Waits for the next job.
+     *
+     * @return the job, or null if the pool was shut down and the calling thread
+     * should end
+     */
+    private synchronized Runnable take() throws InterruptedException
+    {
+        while (queue.isEmpty())
+        {
+            if (shutdown)
+            {
+                return null;
+            }
+            wait();
+        }
+        busy++;
+        return queue.remove(0);
+    }
+
+    private synchronized void done()
+    {
+        busy--;
+    }
+
+    private synchronized void stopped()
+    {
+        started--;
+        // replaces a thread that ended while jobs are still queued
+        startWorkerIfNeeded();
+    }
+
+    private class Worker implements Runnable
+    {
+        public void run()
+        {
+            try
+            {
+                while (true)
+                {
+                    Runnable job;
+                    try
+                    {
+                        job = take();
+                    }
+                    catch (InterruptedException ex)
+                    {
+                        return;
+                    }
+                    if (job == null)
+                    {
+                        return;
+                    }
+                    try
+                    {
+                        job.run();
+                    }
+                    catch (Throwable ex)
+                    {
+                        // e.g. an OutOfMemoryError, which must not end the thread
+                        Log.e(ex);
+                    }
+                    finally
+                    {
+                        done();
+                    }
+                }
+            }
+            finally
+            {
+                // lets submit() start a replacement
+                stopped();
+            }
+        }
+    }
+}
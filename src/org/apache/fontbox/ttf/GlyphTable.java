@@ -16,6 +16,7 @@
  */
 package org.apache.fontbox.ttf;
 
+import com.codename1.io.Log;
 import java.io.IOException;
 
 /**
@@ -31,10 +32,28 @@ public class GlyphTable extends TTFTable
      */
     public static final String TAG = "glyf";
 
-    private GlyphData[] glyphs;
+    /**
+     * The glyphs by id.  While glyphs are read on demand, null means that a
+     * glyph hasn't been read yet and {@link #UNDEFINED} that it isn't defined.
+     * Entries are read and published under the lock of their stripe, and the 
+     * array is replaced when the glyphs are released.
+     */
+    private volatile GlyphData[] glyphs;
+
+    /**
+     * Whether glyphs are read from the data stream on first access, since most
+     * fonts have far more glyphs than an app draws.
+     */
+    private volatile boolean onDemand;
+    private final LockStripes locks = new LockStripes(16);
+    private static final GlyphData UNDEFINED = new GlyphData();
+    private long[] offsets;
+    private TrueTypeFont font;
+    private TTFDataStream data;
 
     /**
-     * This will read the required data from the stream.
+     * This will read the required data from the stream.  The glyphs themselves
+     * are read on demand by {@link #getGlyphData(int) }.
      * 
      * @param ttf The font that is being read.
      * @param data The stream to read the data from.
@@ -45,47 +64,202 @@ public class GlyphTable extends TTFTable
         MaximumProfileTable maxp = ttf.getMaximumProfile();
         IndexToLocationTable loc = ttf.getIndexToLocation();
         // the glyph offsets
-        long[] offsets = loc.getOffsets();
+        offsets = loc.getOffsets();
         // number of glyphs
         int numGlyphs = maxp.getNumGlyphs();
-        // the end of the glyph table
-        long endOfGlyphs = offsets[numGlyphs];
-        long offset = getOffset();
+        font = ttf;
+        this.data = data;
         glyphs = new GlyphData[numGlyphs];
-        for (int i = 0; i < numGlyphs; i++)
+        onDemand = true;
+    }
+
+    /**
+     * @return the number of glyphs in the font.
+     */
+    public int getNumGlyphs()
+    {
+        return glyphs.length;
+    }
+
+    /**
+     * Returns a glyph, reading it from the font data if necessary.  This is
+     * safe to call from any thread.
+     * 
+     * @param glyphId the glyph id
+     * @return the glyph, or null if the glyph id is out of range or the glyph
+     * isn't defined
+     */
+    public GlyphData getGlyphData(int glyphId)
+    {
+        boolean lazy = onDemand;
+        GlyphData[] g = glyphs;
+        if (glyphId < 0 || glyphId >= g.length)
         {
-            // end of glyphs reached?
-            if (endOfGlyphs == offsets[i])
+            return null;
+        }
+        if (!lazy)
+        {
+            return g[glyphId];
+        }
+        GlyphData glyph;
+        synchronized (locks.get(glyphId))
+        {
+            glyph = g[glyphId];
+        }
+        if (glyph == null)
+        {
+            // the stream is shared with the font's other tables
+            synchronized (data)
             {
-                break;
+                if (!onDemand)
+                {
+                    return glyphs[glyphId];
+                }
+                // the glyphs may have been released or read since
+                g = glyphs;
+                synchronized (locks.get(glyphId))
+                {
+                    glyph = g[glyphId];
+                }
+                if (glyph == null)
+                {
+                    glyph = readGlyph(glyphId);
+                    // resolve composite glyphs
+                    if (glyph != null && glyph.getDescription().isComposite())
+                    {
+                        glyph.getDescription().resolve();
+                    }
+                    if (glyph == null)
+                    {
+                        glyph = UNDEFINED;
+                    }
+                    synchronized (locks.get(glyphId))
+                    {
+                        g[glyphId] = glyph;
+                    }
+                }
             }
-            // the current glyph isn't defined
-            // if the next offset equals the current index
-            if (offsets[i] == offsets[i + 1])
+        }
+        return glyph == UNDEFINED ? null : glyph;
+    }
+
+    private GlyphData readGlyph(int glyphId)
+    {
+        // the end of the glyph table
+        long endOfGlyphs = offsets[glyphs.length];
+        // end of glyphs reached, or the current glyph isn't defined
+        // if the next offset equals the current index
+        if (endOfGlyphs == offsets[glyphId] || offsets[glyphId] == offsets[glyphId + 1])
+        {
+            return null;
+        }
+        FontBoxMetrics metrics = FontBoxMetrics.getListener();
+        long start = metrics == null ? 0 : System.currentTimeMillis();
+        GlyphData glyph = new GlyphData();
+        try
+        {
+            data.seek(getOffset() + offsets[glyphId]);
+            glyph.initData(font, data);
+        }
+        catch (IOException ex)
+        {
+            Log.e(ex);
+            return null;
+        }
+        if (metrics != null)
+        {
+            metrics.record(FontBoxMetrics.GLYPH_DECODE, System.currentTimeMillis() - start);
+        }
+        return glyph;
+    }
+
+    /**
+     * Reads all glyphs that haven't been read yet.
+     * 
+     * @return Returns the glyphs.
+     */
+    public GlyphData[] getGlyphs()
+    {
+        if (onDemand)
+        {
+            GlyphData[] all = new GlyphData[glyphs.length];
+            for (int i = 0; i < all.length; i++)
+            {
+                all[i] = getGlyphData(i);
+            }
+            synchronized (data)
             {
-                continue;
+                if (onDemand)
+                {
+                    glyphs = all;
+                    onDemand = false;
+                }
             }
-            glyphs[i] = new GlyphData();
-            data.seek(offset + offsets[i]);
-            glyphs[i].initData(ttf, data);
         }
-        for (int i = 0; i < numGlyphs; i++)
+        return glyphs;
+    }
+
+    /**
+     * Releases the glyphs that have been read, so that they are read from the
+     * font data again on next access.  Does nothing if all glyphs have been
+     * read with {@link #getGlyphs() } or set with {@link #setGlyphs(GlyphData[]) },
+     * since callers may hold on to the array.
+     */
+    public void releaseGlyphs()
+    {
+        if (data == null || !onDemand)
+        {
+            return;
+        }
+        synchronized (data)
         {
-            GlyphData glyph = glyphs[i];
-            // resolve composite glyphs
-            if (glyph != null && glyph.getDescription().isComposite())
+            if (onDemand)
             {
-                glyph.getDescription().resolve();
+                glyphs = new GlyphData[glyphs.length];
             }
         }
     }
 
     /**
-     * @return Returns the glyphs.
+     * Estimates the memory used by the glyphs that have been read.
+     * 
+     * @return the estimated size in bytes
      */
-    public GlyphData[] getGlyphs()
+    public long getMemoryUsage()
     {
-        return glyphs;
+        MemoryReport report = new MemoryReport();
+        addMemoryUsage(report);
+        return report.getTotalBytes();
+    }
+
+    /**
+     * Adds the glyphs that have been read, and their hinting instructions, to
+     * a memory report.
+     * 
+     * @param report the report
+     */
+    void addMemoryUsage(MemoryReport report)
+    {
+        GlyphData[] g = glyphs;
+        report.add(MemoryReport.GLYPHS, 16 + g.length * 4, 0);
+        for (int i = 0; i < g.length; i++)
+        {
+            GlyphData glyph = g[i];
+            if (glyph != null && glyph != UNDEFINED)
+            {
+                // flags and coordinates are unpacked into a byte and two shorts per point
+                GlyphDescription d = glyph.getDescription();
+                report.add(MemoryReport.GLYPHS, 64 + d.getPointCount() * 5 + d.getContourCount() * 2, 1);
+                if (d instanceof GlyfDescript)
+                {
+                    int[] instructions = ((GlyfDescript)d).getInstructions();
+                    if (instructions != null && instructions.length > 0)
+                    {
+                        report.add(MemoryReport.INSTRUCTIONS, 16 + instructions.length * 4, 1);
+                    }
+                }
+            }
+        }
     }
 
     /**
@@ -94,5 +268,6 @@ public class GlyphTable extends TTFTable
     public void setGlyphs(GlyphData[] glyphsValue)
     {
         glyphs = glyphsValue;
+        onDemand = false;
     }
 }
@@ -78,4 +78,33 @@ public class HorizontalMetricsTable extends TTFTable
     {
         this.advanceWidth = advanceWidthValue;
     }
+    /**
+     * @return Returns the leftSideBearing.
+     */
+    public short[] getLeftSideBearing()
+    {
+        return leftSideBearing;
+    }
+    /**
+     * @param leftSideBearingValue The leftSideBearing to set.
+     */
+    public void setLeftSideBearing(short[] leftSideBearingValue)
+    {
+        this.leftSideBearing = leftSideBearingValue;
+    }
+    /**
+     * @return Returns the left side bearings of the glyphs after the last
+     * advance width.
+     */
+    public short[] getNonHorizontalLeftSideBearing()
+    {
+        return nonHorizontalLeftSideBearing;
+    }
+    /**
+     * @param nonHorizontalLeftSideBearingValue The nonHorizontalLeftSideBearing to set.
+     */
+    public void setNonHorizontalLeftSideBearing(short[] nonHorizontalLeftSideBearingValue)
+    {
+        this.nonHorizontalLeftSideBearing = nonHorizontalLeftSideBearingValue;
+    }
 }
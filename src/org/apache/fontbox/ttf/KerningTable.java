@@ -0,0 +1,212 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.fontbox.ttf;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A table in a true type font.
+ *
+ * Only horizontal kerning pairs from format 0 subtables of the Microsoft
+ * version of the table are read; other subtables are skipped.
+ */
+public class KerningTable extends TTFTable
+{
+    /**
+     * A tag that identifies this table type.
+     */
+    public static final String TAG = "kern";
+
+    private static final int COVERAGE_HORIZONTAL = 0x01;
+    private static final int COVERAGE_MINIMUM = 0x02;
+    private static final int COVERAGE_CROSS_STREAM = 0x04;
+
+    /**
+     * The kerning pairs as (left glyph id &lt;&lt; 16 | right glyph id), sorted.
+     */
+    private int[] pairs = new int[0];
+    private short[] values = new short[0];
+
+    /**
+     * This will read the required data from the stream.
+     *
+     * @param ttf The font that is being read.
+     * @param data The stream to read the data from.
+     * @throws IOException If there is an error reading the data.
+     */
+    public void initData( TrueTypeFont ttf, TTFDataStream data ) throws IOException
+    {
+        int version = data.readUnsignedShort();
+        if (version != 0)
+        {
+            // the Apple version of the table isn't supported
+            return;
+        }
+        int numTables = data.readUnsignedShort();
+        int[] allPairs = new int[0];
+        short[] allValues = new short[0];
+        int count = 0;
+        for (int t = 0; t < numTables; t++)
+        {
+            long start = data.getCurrentPosition();
+            data.readUnsignedShort(); // subtable version
+            int length = data.readUnsignedShort();
+            int coverage = data.readUnsignedShort();
+            int format = coverage >> 8;
+            boolean usable = format == 0
+                    && (coverage & COVERAGE_HORIZONTAL) != 0
+                    && (coverage & (COVERAGE_MINIMUM | COVERAGE_CROSS_STREAM)) == 0;
+            if (usable)
+            {
+                int nPairs = data.readUnsignedShort();
+                data.readUnsignedShort(); // searchRange
+                data.readUnsignedShort(); // entrySelector
+                data.readUnsignedShort(); // rangeShift
+                if (count + nPairs > allPairs.length)
+                {
+                    int[] grownPairs = new int[count + nPairs];
+                    short[] grownValues = new short[count + nPairs];
+                    System.arraycopy(allPairs, 0, grownPairs, 0, count);
+                    System.arraycopy(allValues, 0, grownValues, 0, count);
+                    allPairs = grownPairs;
+                    allValues = grownValues;
+                }
+                for (int i = 0; i < nPairs; i++)
+                {
+                    int left = data.readUnsignedShort();
+                    int right = data.readUnsignedShort();
+                    allPairs[count] = (left << 16) | right;
+                    allValues[count] = data.readSignedShort();
+                    count++;
+                }
+            }
+            data.seek(start + length);
+        }
+        sort(allPairs, allValues, count);
+    }
+
+    /**
+     * Sorts the pairs so they can be binary searched.  Pairs are usually sorted
+     * already, and later duplicates are dropped.
+     */
+    private void sort(int[] keys, short[] vals, int count)
+    {
+        boolean sorted = true;
+        for (int i = 1; i < count && sorted; i++)
+        {
+            sorted = keys[i - 1] < keys[i];
+        }
+        if (!sorted)
+        {
+            // sort by key, keeping the original order of duplicates
+            long[] packed = new long[count];
+            for (int i = 0; i < count; i++)
+            {
+                packed[i] = ((long)keys[i] << 32) | i;
+            }
+            Arrays.sort(packed);
+            short[] original = new short[count];
+            System.arraycopy(vals, 0, original, 0, count);
+            int n = 0;
+            for (int i = 0; i < count; i++)
+            {
+                int key = (int)(packed[i] >> 32);
+                if (n > 0 && keys[n - 1] == key)
+                {
+                    continue;
+                }
+                keys[n] = key;
+                vals[n] = original[(int)(packed[i] & 0xffffffffL)];
+                n++;
+            }
+            count = n;
+        }
+        pairs = new int[count];
+        values = new short[count];
+        System.arraycopy(keys, 0, pairs, 0, count);
+        System.arraycopy(vals, 0, values, 0, count);
+    }
+
+    /**
+     * Returns the kerning adjustment between two glyphs.
+     *
+     * @param leftGlyphId the glyph id of the left glyph
+     * @param rightGlyphId the glyph id of the right glyph
+     * @return the adjustment in font units, or 0 if the pair isn't kerned
+     */
+    public int getKerning(int leftGlyphId, int rightGlyphId)
+    {
+        int key = (leftGlyphId << 16) | rightGlyphId;
+        int lo = 0;
+        int hi = pairs.length - 1;
+        while (lo <= hi)
+        {
+            int mid = (lo + hi) >>> 1;
+            int k = pairs[mid];
+            if (k < key)
+            {
+                lo = mid + 1;
+            }
+            else if (k > key)
+            {
+                hi = mid - 1;
+            }
+            else
+            {
+                return values[mid];
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @return the kerning pairs as (left glyph id &lt;&lt; 16 | right glyph id), sorted
+     */
+    int[] getPairs()
+    {
+        return pairs;
+    }
+
+    /**
+     * @return the adjustment of each pair in font units
+     */
+    short[] getValues()
+    {
+        return values;
+    }
+
+    /**
+     * Replaces the kerning pairs with ones that were read from elsewhere.
+     *
+     * @param pairsValue the sorted pairs
+     * @param valuesValue the adjustment of each pair
+     */
+    void setPairs(int[] pairsValue, short[] valuesValue)
+    {
+        pairs = pairsValue;
+        values = valuesValue;
+    }
+
+    /**
+     * @return the number of kerning pairs
+     */
+    public int getPairCount()
+    {
+        return pairs.length;
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.fontbox.ttf;
+
+/**
+ * A fixed set of locks that guard the entries of a cache by glyph id.
+ *
+ * Lazily computed entries are read and published while holding the lock of
+ * their stripe, so threads that look up different glyphs rarely contend, and
+ * an entry that is seen by another thread is always fully constructed.  The
+ * entries themselves are computed outside of the lock.
+ */
+final class LockStripes
+{
+
+    private final Object[] locks;
+
+    /**
+     * Creates a set of locks.
+     *
+     * @param count the number of locks, rounded up to a power of two
+     */
+    LockStripes(int count)
+    {
+        int n = 1;
+        while (n < count)
+        {
+            n <<= 1;
+        }
+        locks = new Object[n];
+        for (int i = 0; i < n; i++)
+        {
+            locks[i] = new Object();
+        }
+    }
+
+    /**
+     * Returns the lock that guards an entry.
+     *
+     * @param key the glyph id of the entry
+     * @return the lock
+     */
+    Object get(int key)
+    {
+        return locks[key & (locks.length - 1)];
+    }
+}
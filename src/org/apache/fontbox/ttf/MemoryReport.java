@@ -0,0 +1,195 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.fontbox.ttf;
+
+/**
+ * The estimated memory used by one or more fonts, broken down by component,
+ * with the number of objects of each component.
+ *
+ * Sizes are estimates that assume 4 byte references and small object headers,
+ * since the heap can't be measured on all platforms.  Outlines are counted at a
+ * fixed size per path.
+ */
+public class MemoryReport
+{
+
+    /**
+     * The bytes of the font files.
+     */
+    public static final int FONT_DATA = 0;
+
+    /**
+     * The glyphs that have been decoded, with their points and contours.
+     */
+    public static final int GLYPHS = 1;
+
+    /**
+     * The hinting instructions of the decoded glyphs.
+     */
+    public static final int INSTRUCTIONS = 2;
+
+    /**
+     * The character to glyph maps.
+     */
+    public static final int CHARACTER_MAPS = 3;
+
+    /**
+     * The advance widths and side bearings of the glyphs.
+     */
+    public static final int METRICS = 4;
+
+    /**
+     * The full resolution glyph outlines.
+     */
+    public static final int OUTLINES = 5;
+
+    /**
+     * The flattened and simplified glyph outlines of small sizes.
+     */
+    public static final int FLATTENED_OUTLINES = 6;
+
+    /**
+     * The fillable stroke outlines of stroked glyphs.
+     */
+    public static final int STROKE_OUTLINES = 7;
+
+    /**
+     * The sizes that fonts have been created in.
+     */
+    public static final int SIZES = 8;
+
+    /**
+     * The anti-aliased glyph masks.
+     */
+    public static final int MASKS = 9;
+
+    /**
+     * The images of glyph masks in the color they were drawn in.
+     */
+    public static final int IMAGES = 10;
+
+    /**
+     * The distance field atlases and the glyph images rendered from them.
+     */
+    public static final int DISTANCE_FIELDS = 11;
+
+    /**
+     * The number of components.
+     */
+    public static final int COMPONENT_COUNT = 12;
+
+    private static final String[] NAMES = {
+        "font data", "glyphs", "hinting instructions", "character maps", "metrics",
+        "outlines", "flattened outlines", "stroke outlines", "sizes", "masks",
+        "images", "distance fields"
+    };
+
+    private final long[] bytes = new long[COMPONENT_COUNT];
+    private final int[] counts = new int[COMPONENT_COUNT];
+
+    /**
+     * Gets the name of a component.
+     *
+     * @param component the component, one of the constants of this class
+     * @return the name
+     */
+    public static String getComponentName(int component)
+    {
+        return NAMES[component];
+    }
+
+    /**
+     * Adds objects to a component.
+     *
+     * @param component the component
+     * @param byteCount the estimated size of the objects in bytes
+     * @param count the number of objects
+     */
+    public void add(int component, long byteCount, int count)
+    {
+        bytes[component] += byteCount;
+        counts[component] += count;
+    }
+
+    /**
+     * Adds the components of another report to this one.
+     *
+     * @param report the other report
+     */
+    public void add(MemoryReport report)
+    {
+        for (int i = 0; i < COMPONENT_COUNT; i++)
+        {
+            bytes[i] += report.bytes[i];
+            counts[i] += report.counts[i];
+        }
+    }
+
+    /**
+     * Gets the estimated size of a component.
+     *
+     * @param component the component
+     * @return the size in bytes
+     */
+    public long getBytes(int component)
+    {
+        return bytes[component];
+    }
+
+    /**
+     * Gets the number of objects of a component.
+     *
+     * @param component the component
+     * @return the number of objects
+     */
+    public int getCount(int component)
+    {
+        return counts[component];
+    }
+
+    /**
+     * Gets the estimated size of all components.
+     *
+     * @return the size in bytes
+     */
+    public long getTotalBytes()
+    {
+        long total = 0;
+        for (int i = 0; i < COMPONENT_COUNT; i++)
+        {
+            total += bytes[i];
+        }
+        return total;
+    }
+
+    /**
+     * Formats the report with one line per component, for logging.
+     *
+     * @return the report
+     */
+    public String toString()
+    {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < COMPONENT_COUNT; i++)
+        {
+            sb.append(NAMES[i]).append(": ").append(bytes[i]).append(" bytes in ")
+                    .append(counts[i]).append(" objects\n");
+        }
+        sb.append("total: ").append(getTotalBytes()).append(" bytes");
+        return sb.toString();
+    }
+}
@@ -60,7 +60,14 @@ public class MemoryTTFDataStream extends TTFDataStream
         }
     }
     
-
+    /**
+     * Constructor from the bytes of a font, which are used without copying.
+     * @param data The font data.
+     */
+    public MemoryTTFDataStream( byte[] data )
+    {
+        this.data = data;
+    }
     
     /**
      * Read an unsigned byte.
@@ -205,4 +212,20 @@ public class MemoryTTFDataStream extends TTFDataStream
     {
         return new ByteArrayInputStream( data );
     }
+    
+    /**
+     * {@inheritDoc}
+     */
+    public long getMemorySize()
+    {
+        return data == null ? 0 : data.length;
+    }
+    
+    /**
+     * {@inheritDoc}
+     */
+    public byte[] getData()
+    {
+        return data;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,240 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.fontbox.ttf;
+
+import com.codename1.ui.Stroke;
+import com.codename1.ui.geom.GeneralPath;
+import com.codename1.ui.geom.PathIterator;
+
+/**
+ * Converts the stroke of a closed outline, such as a glyph, into a path that
+ * can be filled.
+ *
+ * The result is made up of one quadrilateral per flattened segment plus a join
+ * polygon at every vertex, all with the same orientation, so filling it with the
+ * non-zero winding rule paints the union of the pieces.  Since glyph contours
+ * are always closed, no caps are generated.
+ */
+public final class OutlineStroker
+{
+
+    private OutlineStroker()
+    {
+    }
+
+    /**
+     * Computes the fillable outline of the stroke of a path.  Every subpath is
+     * treated as closed.
+     *
+     * @param path the path to stroke
+     * @param width the width of the stroke, in the coordinate space of the path
+     * @param joinStyle one of {@link Stroke#JOIN_MITER}, {@link Stroke#JOIN_ROUND}
+     * or {@link Stroke#JOIN_BEVEL}
+     * @param miterLimit the limit of the ratio of the miter length to the stroke width
+     * @param tolerance the flatness tolerance, in the coordinate space of the path
+     * @return the stroke outline, using the non-zero winding rule
+     */
+    public static GeneralPath stroke(GeneralPath path, float width, int joinStyle, float miterLimit,
+            float tolerance)
+    {
+        GeneralPath out = new GeneralPath(GeneralPath.WIND_NON_ZERO);
+        float hw = width / 2;
+        if (hw <= 0)
+        {
+            return out;
+        }
+        GeneralPath flat = PathFlattener.flatten(path, tolerance);
+        float[] pts = new float[64];
+        int n = 0;
+        float[] coords = new float[6];
+        float[] poly = new float[16];
+        for (PathIterator it = flat.getPathIterator(); !it.isDone(); it.next())
+        {
+            int type = it.currentSegment(coords);
+            if (type == PathIterator.SEG_MOVETO)
+            {
+                strokeContour(out, pts, n, hw, joinStyle, miterLimit, tolerance, poly);
+                n = 0;
+            }
+            if (type == PathIterator.SEG_MOVETO || type == PathIterator.SEG_LINETO)
+            {
+                if (n >= 2 && pts[n - 2] == coords[0] && pts[n - 1] == coords[1])
+                {
+                    continue;
+                }
+                if (n + 2 > pts.length)
+                {
+                    float[] grown = new float[pts.length * 2];
+                    System.arraycopy(pts, 0, grown, 0, n);
+                    pts = grown;
+                }
+                pts[n++] = coords[0];
+                pts[n++] = coords[1];
+            }
+        }
+        strokeContour(out, pts, n, hw, joinStyle, miterLimit, tolerance, poly);
+        return out;
+    }
+
+    private static void strokeContour(GeneralPath out, float[] pts, int n, float hw, int joinStyle,
+            float miterLimit, float tolerance, float[] poly)
+    {
+        if (n >= 4 && pts[0] == pts[n - 2] && pts[1] == pts[n - 1])
+        {
+            n -= 2;
+        }
+        int count = n / 2;
+        if (count < 2)
+        {
+            return;
+        }
+        for (int i = 0; i < count; i++)
+        {
+            int j = (i + 1) % count;
+            float x0 = pts[i * 2];
+            float y0 = pts[i * 2 + 1];
+            float x1 = pts[j * 2];
+            float y1 = pts[j * 2 + 1];
+            float dx = x1 - x0;
+            float dy = y1 - y0;
+            float len = (float)Math.sqrt(dx * dx + dy * dy);
+            if (len == 0)
+            {
+                continue;
+            }
+            float nx = -dy / len * hw;
+            float ny = dx / len * hw;
+            poly[0] = x0 + nx;
+            poly[1] = y0 + ny;
+            poly[2] = x1 + nx;
+            poly[3] = y1 + ny;
+            poly[4] = x1 - nx;
+            poly[5] = y1 - ny;
+            poly[6] = x0 - nx;
+            poly[7] = y0 - ny;
+            emit(out, poly, 4);
+
+            int k = (j + 1) % count;
+            join(out, x1, y1, dx / len, dy / len, pts[k * 2] - x1, pts[k * 2 + 1] - y1,
+                    hw, joinStyle, miterLimit, tolerance, poly);
+        }
+    }
+
+    /**
+     * Adds the join at vertex (x, y) between the unit direction (ux0, uy0) of the
+     * incoming segment and the direction (dx1, dy1) of the outgoing segment.
+     */
+    private static void join(GeneralPath out, float x, float y, float ux0, float uy0,
+            float dx1, float dy1, float hw, int joinStyle, float miterLimit, float tolerance, float[] poly)
+    {
+        float len = (float)Math.sqrt(dx1 * dx1 + dy1 * dy1);
+        if (len == 0)
+        {
+            return;
+        }
+        float ux1 = dx1 / len;
+        float uy1 = dy1 / len;
+        float cross = ux0 * uy1 - uy0 * ux1;
+        float dot = ux0 * ux1 + uy0 * uy1;
+        if (cross == 0 && dot > 0)
+        {
+            return;
+        }
+        // the gap between the two segment quads is on the outside of the turn
+        float s = cross > 0 ? -hw : hw;
+        float ax = -uy0 * s;
+        float ay = ux0 * s;
+        float bx = -uy1 * s;
+        float by = ux1 * s;
+        // cosine of half the angle between the two offsets
+        float cosHalf = (float)Math.sqrt(Math.max(0, (1 + dot) / 2));
+        boolean smooth = hw * (1 - cosHalf) <= tolerance;
+        if (joinStyle == Stroke.JOIN_ROUND && !smooth)
+        {
+            int segs = (int)Math.ceil(Math.PI / Math.sqrt(2 * tolerance / hw));
+            segs = Math.max(8, Math.min(segs, 64));
+            if (poly.length < segs * 2)
+            {
+                poly = new float[segs * 2];
+            }
+            for (int i = 0; i < segs; i++)
+            {
+                double a = 2 * Math.PI * i / segs;
+                poly[i * 2] = x + (float)(Math.cos(a) * hw);
+                poly[i * 2 + 1] = y + (float)(Math.sin(a) * hw);
+            }
+            emit(out, poly, segs);
+            return;
+        }
+        poly[0] = x;
+        poly[1] = y;
+        poly[2] = x + ax;
+        poly[3] = y + ay;
+        int count = 3;
+        if (joinStyle == Stroke.JOIN_MITER && !smooth && cosHalf > 0 && 1 / cosHalf <= miterLimit)
+        {
+            float mx = ax + bx;
+            float my = ay + by;
+            float mlen = (float)Math.sqrt(mx * mx + my * my);
+            if (mlen > 0)
+            {
+                float m = hw / cosHalf / mlen;
+                poly[4] = x + mx * m;
+                poly[5] = y + my * m;
+                count = 4;
+            }
+        }
+        poly[count * 2 - 2] = x + bx;
+        poly[count * 2 - 1] = y + by;
+        emit(out, poly, count);
+    }
+
+    /**
+     * Appends a closed polygon, reversing it if necessary so that all polygons
+     * have a negative signed area.
+     */
+    private static void emit(GeneralPath out, float[] poly, int count)
+    {
+        float area = 0;
+        for (int i = 0; i < count; i++)
+        {
+            int j = (i + 1) % count;
+            area += poly[i * 2] * poly[j * 2 + 1] - poly[j * 2] * poly[i * 2 + 1];
+        }
+        if (area == 0)
+        {
+            return;
+        }
+        if (area < 0)
+        {
+            out.moveTo(poly[0], poly[1]);
+            for (int i = 1; i < count; i++)
+            {
+                out.lineTo(poly[i * 2], poly[i * 2 + 1]);
+            }
+        }
+        else
+        {
+            out.moveTo(poly[(count - 1) * 2], poly[(count - 1) * 2 + 1]);
+            for (int i = count - 2; i >= 0; i--)
+            {
+                out.lineTo(poly[i * 2], poly[i * 2 + 1]);
+            }
+        }
+        out.closePath();
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.fontbox.ttf;
+
+import com.codename1.ui.geom.GeneralPath;
+import com.codename1.ui.geom.PathIterator;
+
+/**
+ * Converts the curved segments of a path into polylines.
+ *
+ * Each curve is subdivided into the smallest number of equal parameter steps
+ * that keeps the polyline within the given tolerance of the true curve (Wang's
+ * formula), so flat curves collapse to a single line while tight curves get
+ * as many segments as they need.
+ */
+public final class PathFlattener
+{
+
+    private PathFlattener()
+    {
+    }
+
+    /**
+     * Returns a copy of the given path in which all quadratic and cubic segments
+     * have been replaced by line segments.
+     *
+     * @param src the path to flatten
+     * @param tolerance the maximum distance between the curve and the polyline,
+     * in the coordinate space of the path.
+     * @return a new path that contains only moveTo, lineTo and closePath segments
+     */
+    public static GeneralPath flatten(GeneralPath src, float tolerance)
+    {
+        GeneralPath out = new GeneralPath(src.getWindingRule());
+        float[] coords = new float[6];
+        float cx = 0;
+        float cy = 0;
+        float sx = 0;
+        float sy = 0;
+        for (PathIterator it = src.getPathIterator(); !it.isDone(); it.next())
+        {
+            switch (it.currentSegment(coords))
+            {
+                case PathIterator.SEG_MOVETO:
+                    cx = sx = coords[0];
+                    cy = sy = coords[1];
+                    out.moveTo(cx, cy);
+                    break;
+                case PathIterator.SEG_LINETO:
+                    cx = coords[0];
+                    cy = coords[1];
+                    out.lineTo(cx, cy);
+                    break;
+                case PathIterator.SEG_QUADTO:
+                    quadTo(out, cx, cy, coords[0], coords[1], coords[2], coords[3], tolerance);
+                    cx = coords[2];
+                    cy = coords[3];
+                    break;
+                case PathIterator.SEG_CUBICTO:
+                    cubicTo(out, cx, cy, coords[0], coords[1], coords[2], coords[3],
+                            coords[4], coords[5], tolerance);
+                    cx = coords[4];
+                    cy = coords[5];
+                    break;
+                case PathIterator.SEG_CLOSE:
+                    out.closePath();
+                    cx = sx;
+                    cy = sy;
+                    break;
+                default:
+                    break;
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Flattens an outline in font units into a list of closed line segments in
+     * pixel coordinates, with the y axis pointing down.
+     *
+     * @param path the outline in font units, with the y axis pointing up
+     * @param scale the number of pixels per font unit
+     * @param originX the x coordinate in pixels of the font unit origin
+     * @param originY the y coordinate in pixels of the font unit origin
+     * @param tolerance the flatness tolerance in pixels
+     * @return the segments as consecutive (x0, y0, x1, y1) quadruples
+     */
+    static float[] edges(GeneralPath path, float scale, float originX, float originY, float tolerance)
+    {
+        GeneralPath flat = flatten(path, tolerance / scale);
+        float[] edges = new float[64];
+        int n = 0;
+        float[] coords = new float[6];
+        float cx = 0;
+        float cy = 0;
+        float sx = 0;
+        float sy = 0;
+        boolean open = false;
+        for (PathIterator it = flat.getPathIterator(); !it.isDone(); it.next())
+        {
+            int type = it.currentSegment(coords);
+            if (type == PathIterator.SEG_MOVETO || type == PathIterator.SEG_CLOSE)
+            {
+                // close the previous contour implicitly
+                if (open && (cx != sx || cy != sy))
+                {
+                    edges = addEdge(edges, n, cx, cy, sx, sy);
+                    n += 4;
+                }
+                open = false;
+                cx = sx;
+                cy = sy;
+            }
+            if (type == PathIterator.SEG_MOVETO)
+            {
+                cx = sx = originX + coords[0] * scale;
+                cy = sy = originY - coords[1] * scale;
+                open = true;
+            }
+            else if (type == PathIterator.SEG_LINETO)
+            {
+                float x = originX + coords[0] * scale;
+                float y = originY - coords[1] * scale;
+                edges = addEdge(edges, n, cx, cy, x, y);
+                n += 4;
+                cx = x;
+                cy = y;
+            }
+        }
+        if (open && (cx != sx || cy != sy))
+        {
+            edges = addEdge(edges, n, cx, cy, sx, sy);
+            n += 4;
+        }
+        float[] out = new float[n];
+        System.arraycopy(edges, 0, out, 0, n);
+        return out;
+    }
+
+    private static float[] addEdge(float[] edges, int n, float x0, float y0, float x1, float y1)
+    {
+        if (n + 4 > edges.length)
+        {
+            float[] grown = new float[edges.length * 2];
+            System.arraycopy(edges, 0, grown, 0, n);
+            edges = grown;
+        }
+        edges[n] = x0;
+        edges[n + 1] = y0;
+        edges[n + 2] = x1;
+        edges[n + 3] = y1;
+        return edges;
+    }
+
+    /**
+     * Returns the number of line segments needed to approximate a curve whose
+     * largest second difference of control points is {@code dd}.
+     */
+    private static int segments(float dd, float factor, float tolerance)
+    {
+        if (tolerance <= 0)
+        {
+            return 16;
+        }
+        int n = (int)Math.ceil(Math.sqrt(factor * dd / tolerance));
+        return n < 1 ? 1 : n;
+    }
+
+    private static void quadTo(GeneralPath out, float x0, float y0, float x1, float y1,
+            float x2, float y2, float tolerance)
+    {
+        float ddx = x0 - 2 * x1 + x2;
+        float ddy = y0 - 2 * y1 + y2;
+        int n = segments((float)Math.sqrt(ddx * ddx + ddy * ddy), 0.25f, tolerance);
+        for (int i = 1; i < n; i++)
+        {
+            float t = (float)i / n;
+            float mt = 1 - t;
+            float a = mt * mt;
+            float b = 2 * mt * t;
+            float c = t * t;
+            out.lineTo(a * x0 + b * x1 + c * x2, a * y0 + b * y1 + c * y2);
+        }
+        out.lineTo(x2, y2);
+    }
+
+    private static void cubicTo(GeneralPath out, float x0, float y0, float x1, float y1,
+            float x2, float y2, float x3, float y3, float tolerance)
+    {
+        float ddx1 = x0 - 2 * x1 + x2;
+        float ddy1 = y0 - 2 * y1 + y2;
+        float ddx2 = x1 - 2 * x2 + x3;
+        float ddy2 = y1 - 2 * y2 + y3;
+        float dd = (float)Math.sqrt(Math.max(ddx1 * ddx1 + ddy1 * ddy1, ddx2 * ddx2 + ddy2 * ddy2));
+        int n = segments(dd, 0.75f, tolerance);
+        for (int i = 1; i < n; i++)
+        {
+            float t = (float)i / n;
+            float mt = 1 - t;
+            float a = mt * mt * mt;
+            float b = 3 * mt * mt * t;
+            float c = 3 * mt * t * t;
+            float d = t * t * t;
+            out.lineTo(a * x0 + b * x1 + c * x2 + d * x3, a * y0 + b * y1 + c * y2 + d * y3);
+        }
+        out.lineTo(x3, y3);
+    }
+}
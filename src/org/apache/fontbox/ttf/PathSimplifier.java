@@ -0,0 +1,227 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.fontbox.ttf;
+
+import com.codename1.ui.geom.GeneralPath;
+import com.codename1.ui.geom.PathIterator;
+
+/**
+ * Reduces the number of vertices of an outline for rendering at small sizes.
+ *
+ * The outline is flattened and each contour is then simplified with the
+ * Douglas-Peucker algorithm, which keeps only the vertices that are needed to
+ * stay within the given distance of the flattened contour.  Detail that is
+ * smaller than a fraction of a pixel can't be resolved anyway, so small text
+ * fills far fewer vertices without a visible difference.
+ */
+public final class PathSimplifier
+{
+
+    private PathSimplifier()
+    {
+    }
+
+    /**
+     * Returns a simplified polyline copy of a path.  Every subpath is treated as
+     * closed.
+     *
+     * @param src the path to simplify
+     * @param tolerance the maximum distance between a removed vertex and the
+     * simplified contour, in the coordinate space of the path
+     * @return a new path that contains only moveTo, lineTo and closePath segments
+     */
+    public static GeneralPath simplify(GeneralPath src, float tolerance)
+    {
+        GeneralPath flat = PathFlattener.flatten(src, tolerance / 4);
+        GeneralPath out = new GeneralPath(src.getWindingRule());
+        float[] pts = new float[64];
+        int n = 0;
+        float[] coords = new float[6];
+        Buffers buffers = new Buffers();
+        for (PathIterator it = flat.getPathIterator(); !it.isDone(); it.next())
+        {
+            int type = it.currentSegment(coords);
+            if (type == PathIterator.SEG_MOVETO)
+            {
+                simplifyContour(out, pts, n, tolerance, buffers);
+                n = 0;
+            }
+            if (type == PathIterator.SEG_MOVETO || type == PathIterator.SEG_LINETO)
+            {
+                if (n + 2 > pts.length)
+                {
+                    float[] grown = new float[pts.length * 2];
+                    System.arraycopy(pts, 0, grown, 0, n);
+                    pts = grown;
+                }
+                pts[n++] = coords[0];
+                pts[n++] = coords[1];
+            }
+        }
+        simplifyContour(out, pts, n, tolerance, buffers);
+        return out;
+    }
+
+    /**
+     * Scratch arrays shared by the contours of a path.
+     */
+    private static class Buffers
+    {
+        boolean[] keep = new boolean[32];
+        int[] stack = new int[64];
+    }
+
+    private static void simplifyContour(GeneralPath out, float[] pts, int n, float tolerance,
+            Buffers buffers)
+    {
+        if (n >= 4 && pts[0] == pts[n - 2] && pts[1] == pts[n - 1])
+        {
+            n -= 2;
+        }
+        int count = n / 2;
+        if (count == 0)
+        {
+            return;
+        }
+        if (buffers.keep.length < count + 1)
+        {
+            buffers.keep = new boolean[(count + 1) * 2];
+        }
+        boolean[] keep = buffers.keep;
+        for (int i = 0; i <= count; i++)
+        {
+            keep[i] = false;
+        }
+        // split the closed contour at its first vertex and the vertex farthest from it
+        int far = 0;
+        float farDist = -1;
+        for (int i = 1; i < count; i++)
+        {
+            float dx = pts[i * 2] - pts[0];
+            float dy = pts[i * 2 + 1] - pts[1];
+            float d = dx * dx + dy * dy;
+            if (d > farDist)
+            {
+                farDist = d;
+                far = i;
+            }
+        }
+        keep[0] = true;
+        keep[far] = true;
+        keep[count] = true;
+        if (far > 0)
+        {
+            simplifyRange(pts, count, 0, far, tolerance * tolerance, buffers);
+            simplifyRange(pts, count, far, count, tolerance * tolerance, buffers);
+        }
+        int kept = 0;
+        for (int i = 0; i < count; i++)
+        {
+            if (keep[i])
+            {
+                kept++;
+            }
+        }
+        // contours that collapse below a triangle are kept as they are
+        boolean all = kept < 3;
+        out.moveTo(pts[0], pts[1]);
+        for (int i = 1; i < count; i++)
+        {
+            if (all || keep[i])
+            {
+                out.lineTo(pts[i * 2], pts[i * 2 + 1]);
+            }
+        }
+        out.closePath();
+    }
+
+    /**
+     * Marks the vertices to keep between vertices {@code from} and {@code to},
+     * where index {@code count} wraps around to the first vertex.
+     */
+    private static void simplifyRange(float[] pts, int count, int from, int to, float toleranceSq,
+            Buffers buffers)
+    {
+        int[] stack = buffers.stack;
+        int top = 0;
+        stack[top++] = from;
+        stack[top++] = to;
+        while (top > 0)
+        {
+            int b = stack[--top];
+            int a = stack[--top];
+            if (b - a < 2)
+            {
+                continue;
+            }
+            float ax = pts[a * 2];
+            float ay = pts[a * 2 + 1];
+            int bi = b == count ? 0 : b;
+            float bx = pts[bi * 2];
+            float by = pts[bi * 2 + 1];
+            int worst = -1;
+            float worstDist = toleranceSq;
+            for (int i = a + 1; i < b; i++)
+            {
+                float d = distanceSq(pts[i * 2], pts[i * 2 + 1], ax, ay, bx, by);
+                if (d > worstDist)
+                {
+                    worstDist = d;
+                    worst = i;
+                }
+            }
+            if (worst >= 0)
+            {
+                buffers.keep[worst] = true;
+                if (top + 4 > stack.length)
+                {
+                    int[] grown = new int[stack.length * 2];
+                    System.arraycopy(stack, 0, grown, 0, top);
+                    stack = grown;
+                    buffers.stack = grown;
+                }
+                stack[top++] = a;
+                stack[top++] = worst;
+                stack[top++] = worst;
+                stack[top++] = b;
+            }
+        }
+    }
+
+    private static float distanceSq(float px, float py, float x0, float y0, float x1, float y1)
+    {
+        float dx = x1 - x0;
+        float dy = y1 - y0;
+        float len = dx * dx + dy * dy;
+        float t = 0;
+        if (len > 0)
+        {
+            t = ((px - x0) * dx + (py - y0) * dy) / len;
+            if (t < 0)
+            {
+                t = 0;
+            }
+            else if (t > 1)
+            {
+                t = 1;
+            }
+        }
+        float ex = x0 + t * dx - px;
+        float ey = y0 + t * dy - py;
+        return ex * ex + ey * ey;
+    }
+}
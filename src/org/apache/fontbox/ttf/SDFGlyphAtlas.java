@@ -0,0 +1,349 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.fontbox.ttf;
+
+import org.apache.fontbox.util.BoundingBox;
+
+/**
+ * An atlas of signed distance fields for the glyphs of a font.
+ *
+ * Fields are generated lazily at a single reference size and packed into one
+ * grayscale atlas using shelf packing.  A glyph can then be rendered at any size
+ * by resampling its field and thresholding the result, see
+ * {@link #render(int, int, int, int, int[])}.
+ *
+ * Glyph placement is expressed in reference size pixels relative to the pen
+ * position on the baseline, with the y axis pointing down.
+ *
+ * The atlas is synchronized, so it can be shared by threads that render text.
+ */
+public class SDFGlyphAtlas
+{
+    /**
+     * The default size (in pixels) at which distance fields are generated.
+     */
+    public static final int DEFAULT_REFERENCE_SIZE = 32;
+
+    /**
+     * The default distance (in reference size pixels) covered by a field on
+     * each side of the outline.
+     */
+    public static final int DEFAULT_SPREAD = 4;
+
+    private static final int X = 0;
+    private static final int Y = 1;
+    private static final int WIDTH = 2;
+    private static final int HEIGHT = 3;
+    private static final int LEFT = 4;
+    private static final int TOP = 5;
+    private static final int ENTRY_SIZE = 6;
+
+    private final TrueTypeFont font;
+    private final int referenceSize;
+    private final int spread;
+
+    private byte[] atlas;
+    private final int atlasWidth;
+    private int atlasHeight;
+    private int shelfX;
+    private int shelfY;
+    private int shelfHeight;
+
+    // ENTRY_SIZE ints per glyph, X is -1 until the field has been generated
+    private int[] entries;
+
+    /**
+     * Creates an atlas for the given font using the default reference size and spread.
+     *
+     * @param font the font
+     */
+    public SDFGlyphAtlas(TrueTypeFont font)
+    {
+        this(font, DEFAULT_REFERENCE_SIZE, DEFAULT_SPREAD);
+    }
+
+    /**
+     * Creates an atlas for the given font.
+     *
+     * @param font the font
+     * @param referenceSize the size in pixels at which fields are generated
+     * @param spread the distance in pixels covered by a field on each side of the outline
+     */
+    public SDFGlyphAtlas(TrueTypeFont font, int referenceSize, int spread)
+    {
+        this.font = font;
+        this.referenceSize = referenceSize;
+        this.spread = spread;
+        this.atlasWidth = referenceSize * 16;
+        int numGlyphs = font.getGlyph().getNumGlyphs();
+        entries = new int[numGlyphs * ENTRY_SIZE];
+        for (int i = 0; i < numGlyphs; i++)
+        {
+            entries[i * ENTRY_SIZE + X] = -1;
+        }
+    }
+
+    /**
+     * Returns the size in pixels at which fields are generated.
+     *
+     * @return the reference size
+     */
+    public int getReferenceSize()
+    {
+        return referenceSize;
+    }
+
+    /**
+     * Returns the distance in reference size pixels covered by a field on each
+     * side of the outline.
+     *
+     * @return the spread
+     */
+    public int getSpread()
+    {
+        return spread;
+    }
+
+    /**
+     * Generates the field of the given glyph if that hasn't been done yet.
+     *
+     * @param glyphId the glyph id
+     * @return true if the glyph has a field, false if it has no outline
+     */
+    public synchronized boolean prepare(int glyphId)
+    {
+        int e = glyphId * ENTRY_SIZE;
+        if (entries[e + X] < 0)
+        {
+            generate(glyphId);
+        }
+        return entries[e + WIDTH] > 0;
+    }
+
+    /**
+     * Returns the width of the field of a prepared glyph in reference size pixels.
+     *
+     * @param glyphId the glyph id
+     * @return the width
+     */
+    public synchronized int getWidth(int glyphId)
+    {
+        return entries[glyphId * ENTRY_SIZE + WIDTH];
+    }
+
+    /**
+     * Returns the height of the field of a prepared glyph in reference size pixels.
+     *
+     * @param glyphId the glyph id
+     * @return the height
+     */
+    public synchronized int getHeight(int glyphId)
+    {
+        return entries[glyphId * ENTRY_SIZE + HEIGHT];
+    }
+
+    /**
+     * Returns the horizontal offset of the field of a prepared glyph from the pen
+     * position, in reference size pixels.
+     *
+     * @param glyphId the glyph id
+     * @return the left offset
+     */
+    public synchronized int getLeft(int glyphId)
+    {
+        return entries[glyphId * ENTRY_SIZE + LEFT];
+    }
+
+    /**
+     * Returns the vertical offset of the field of a prepared glyph from the
+     * baseline, in reference size pixels (negative above the baseline).
+     *
+     * @param glyphId the glyph id
+     * @return the top offset
+     */
+    public synchronized int getTop(int glyphId)
+    {
+        return entries[glyphId * ENTRY_SIZE + TOP];
+    }
+
+    /**
+     * Returns the atlas samples.  The array is replaced as the atlas grows.
+     *
+     * @return the samples, {@link #getAtlasWidth()} per row
+     */
+    public synchronized byte[] getAtlasData()
+    {
+        return atlas;
+    }
+
+    /**
+     * Returns the width of the atlas in pixels.
+     *
+     * @return the width
+     */
+    public int getAtlasWidth()
+    {
+        return atlasWidth;
+    }
+
+    /**
+     * Returns the number of atlas rows currently in use.
+     *
+     * @return the height
+     */
+    public synchronized int getAtlasHeight()
+    {
+        return shelfY + shelfHeight;
+    }
+
+    /**
+     * Renders a prepared glyph into an ARGB buffer by resampling its field to the
+     * given size and thresholding it at the outline, with one output pixel of
+     * antialiasing.
+     *
+     * @param glyphId the glyph id
+     * @param width the width of the output in pixels
+     * @param height the height of the output in pixels
+     * @param color the RGB color of the glyph
+     * @param out the array to write into, or null to allocate one
+     * @return the ARGB pixels
+     */
+    public synchronized int[] render(int glyphId, int width, int height, int color, int[] out)
+    {
+        if (out == null || out.length < width * height)
+        {
+            out = new int[width * height];
+        }
+        int e = glyphId * ENTRY_SIZE;
+        int fx = entries[e + X];
+        int fy = entries[e + Y];
+        int fw = entries[e + WIDTH];
+        int fh = entries[e + HEIGHT];
+        float sx = (float)fw / width;
+        float sy = (float)fh / height;
+        // one output pixel expressed in field value units
+        float range = Math.max(sx, sy) * SignedDistanceField.EDGE_VALUE / spread;
+        int rgb = color & 0xffffff;
+        for (int row = 0; row < height; row++)
+        {
+            float v = (row + 0.5f) * sy - 0.5f;
+            int y0 = (int)Math.floor(v);
+            float ty = v - y0;
+            int r0 = clamp(y0, fh);
+            int r1 = clamp(y0 + 1, fh);
+            for (int col = 0; col < width; col++)
+            {
+                float u = (col + 0.5f) * sx - 0.5f;
+                int x0 = (int)Math.floor(u);
+                float tx = u - x0;
+                int c0 = clamp(x0, fw);
+                int c1 = clamp(x0 + 1, fw);
+                float a = sample(fx + c0, fy + r0);
+                float b = sample(fx + c1, fy + r0);
+                float c = sample(fx + c0, fy + r1);
+                float d = sample(fx + c1, fy + r1);
+                float val = (a + (b - a) * tx) * (1 - ty) + (c + (d - c) * tx) * ty;
+                float alpha = (val - SignedDistanceField.EDGE_VALUE) / range + 0.5f;
+                int ia;
+                if (alpha <= 0)
+                {
+                    ia = 0;
+                }
+                else if (alpha >= 1)
+                {
+                    ia = 255;
+                }
+                else
+                {
+                    ia = (int)(alpha * 255);
+                }
+                out[row * width + col] = (ia << 24) | rgb;
+            }
+        }
+        return out;
+    }
+
+    private static int clamp(int i, int size)
+    {
+        return i < 0 ? 0 : (i >= size ? size - 1 : i);
+    }
+
+    private float sample(int x, int y)
+    {
+        return atlas[y * atlasWidth + x] & 0xff;
+    }
+
+    private void generate(int glyphId)
+    {
+        int e = glyphId * ENTRY_SIZE;
+        GlyphData data = font.getGlyph().getGlyphData(glyphId);
+        if (data == null || data.getDescription().getPointCount() == 0)
+        {
+            entries[e + X] = 0;
+            return;
+        }
+        float scale = (float)referenceSize / font.getHeader().getUnitsPerEm();
+        BoundingBox bbox = data.getBoundingBox();
+        int left = (int)Math.floor(bbox.getLowerLeftX() * scale) - spread;
+        int right = (int)Math.ceil(bbox.getUpperRightX() * scale) + spread;
+        int top = (int)Math.floor(-bbox.getUpperRightY() * scale) - spread;
+        int bottom = (int)Math.ceil(-bbox.getLowerLeftY() * scale) + spread;
+        int w = right - left;
+        int h = bottom - top;
+        if (w > atlasWidth)
+        {
+            entries[e + X] = 0;
+            return;
+        }
+        if (shelfX + w > atlasWidth)
+        {
+            shelfY += shelfHeight;
+            shelfX = 0;
+            shelfHeight = 0;
+        }
+        ensureHeight(shelfY + h);
+        SignedDistanceField.generate(font.getGlyphPath(glyphId), scale, -left, -top, w, h, spread,
+                atlas, shelfY * atlasWidth + shelfX, atlasWidth);
+        entries[e + X] = shelfX;
+        entries[e + Y] = shelfY;
+        entries[e + WIDTH] = w;
+        entries[e + HEIGHT] = h;
+        entries[e + LEFT] = left;
+        entries[e + TOP] = top;
+        shelfX += w;
+        if (h > shelfHeight)
+        {
+            shelfHeight = h;
+        }
+    }
+
+    private void ensureHeight(int height)
+    {
+        if (height <= atlasHeight)
+        {
+            return;
+        }
+        int newHeight = Math.max(atlasHeight * 2, Math.max(height, referenceSize * 2));
+        byte[] grown = new byte[atlasWidth * newHeight];
+        if (atlas != null)
+        {
+            System.arraycopy(atlas, 0, grown, 0, atlas.length);
+        }
+        atlas = grown;
+        atlasHeight = newHeight;
+    }
+}
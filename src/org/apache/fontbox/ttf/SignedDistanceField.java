@@ -0,0 +1,143 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.fontbox.ttf;
+
+import com.codename1.ui.geom.GeneralPath;
+
+/**
+ * Computes signed distance fields from glyph outlines.
+ *
+ * Each sample of a distance field holds the distance from the sample to the
+ * nearest edge of the outline, positive inside the outline and negative outside,
+ * mapped to an unsigned byte so that 128 lies exactly on the edge and 0 and 255
+ * are {@code spread} pixels outside and inside respectively.  Because the field
+ * varies smoothly it can be resampled at any scale and thresholded at 128 to
+ * recover a sharp outline.
+ */
+public final class SignedDistanceField
+{
+
+    /**
+     * The value of a distance field sample that lies on the outline.
+     */
+    public static final int EDGE_VALUE = 128;
+
+    private SignedDistanceField()
+    {
+    }
+
+    /**
+     * Computes the distance field of an outline.
+     *
+     * @param path the outline in font units, with the y axis pointing up
+     * @param scale the number of pixels per font unit
+     * @param originX the x coordinate (in pixels) of the font unit origin in the field
+     * @param originY the y coordinate (in pixels) of the font unit origin (the
+     * baseline) in the field, measured downwards from the top
+     * @param width the width of the field in pixels
+     * @param height the height of the field in pixels
+     * @param spread the distance in pixels covered by the range of the field on
+     * each side of the outline
+     * @param out the array to write the field into, or null to allocate one
+     * @param offset the offset of the first sample in {@code out}
+     * @param stride the number of samples per row in {@code out}
+     * @return the array that the field was written into
+     */
+    public static byte[] generate(GeneralPath path, float scale, float originX, float originY,
+            int width, int height, float spread, byte[] out, int offset, int stride)
+    {
+        if (out == null)
+        {
+            out = new byte[width * height];
+            offset = 0;
+            stride = width;
+        }
+        float[] edges = PathFlattener.edges(path, scale, originX, originY, 0.2f);
+        int edgeCount = edges.length / 4;
+        for (int row = 0; row < height; row++)
+        {
+            float py = row + 0.5f;
+            int base = offset + row * stride;
+            for (int col = 0; col < width; col++)
+            {
+                float px = col + 0.5f;
+                float min = Float.MAX_VALUE;
+                int winding = 0;
+                for (int e = 0, i = 0; e < edgeCount; e++, i += 4)
+                {
+                    float x0 = edges[i];
+                    float y0 = edges[i + 1];
+                    float x1 = edges[i + 2];
+                    float y1 = edges[i + 3];
+                    float d = distanceSq(px, py, x0, y0, x1, y1);
+                    if (d < min)
+                    {
+                        min = d;
+                    }
+                    // non-zero winding of a ray cast towards +x
+                    if ((y0 <= py) != (y1 <= py))
+                    {
+                        float t = (py - y0) / (y1 - y0);
+                        if (x0 + t * (x1 - x0) > px)
+                        {
+                            winding += y1 > y0 ? 1 : -1;
+                        }
+                    }
+                }
+                float dist = (float)Math.sqrt(min);
+                if (winding == 0)
+                {
+                    dist = -dist;
+                }
+                int v = (int)(EDGE_VALUE + dist * EDGE_VALUE / spread);
+                if (v < 0)
+                {
+                    v = 0;
+                }
+                else if (v > 255)
+                {
+                    v = 255;
+                }
+                out[base + col] = (byte)v;
+            }
+        }
+        return out;
+    }
+
+    private static float distanceSq(float px, float py, float x0, float y0, float x1, float y1)
+    {
+        float dx = x1 - x0;
+        float dy = y1 - y0;
+        float len = dx * dx + dy * dy;
+        float t = 0;
+        if (len > 0)
+        {
+            t = ((px - x0) * dx + (py - y0) * dy) / len;
+            if (t < 0)
+            {
+                t = 0;
+            }
+            else if (t > 1)
+            {
+                t = 1;
+            }
+        }
+        float ex = x0 + t * dx - px;
+        float ey = y0 + t * dy - py;
+        return ex * ex + ey * ey;
+    }
+}
@@ -35,14 +35,19 @@ public abstract class TTFDataStream
     static boolean isJavascript = false;
     static boolean isWindows = false;
     static {
-        if ( !Display.getInstance().isSimulator() && "ios".equals(Display.getInstance().getPlatformName())){
-            isIOS = true;
-        }
-        if ( "HTML5".equals(Display.getInstance().getPlatformName())) {
-            isJavascript = true;
-        }
-        if ( !Display.getInstance().isSimulator() && "win".equals(Display.getInstance().getPlatformName())) {
-            isWindows = true;
+        try {
+            if ( !Display.getInstance().isSimulator() && "ios".equals(Display.getInstance().getPlatformName())){
+                isIOS = true;
+            }
+            if ( "HTML5".equals(Display.getInstance().getPlatformName())) {
+                isJavascript = true;
+            }
+            if ( !Display.getInstance().isSimulator() && "win".equals(Display.getInstance().getPlatformName())) {
+                isWindows = true;
+            }
+        } catch (RuntimeException ex) {
+            // Display isn't initialized, e.g. when fonts are parsed by JavaSE 
+            // tools or unit tests.  Use the standard charset handling.
         }
     }
 
@@ -296,4 +301,25 @@ public abstract class TTFDataStream
      */
     public abstract InputStream getOriginalData() throws IOException;
 
+    /**
+     * Get the number of bytes of font data that this stream holds in memory.
+     * 
+     * @return The size in bytes, or 0 if the data isn't held in memory.
+     */
+    public long getMemorySize()
+    {
+        return 0;
+    }
+
+    /**
+     * Get the font data, if this stream holds it in memory, so that it can be
+     * read at any offset without copying.
+     * 
+     * @return The font data, or null if it isn't held in memory.
+     */
+    public byte[] getData()
+    {
+        return null;
+    }
+
 }
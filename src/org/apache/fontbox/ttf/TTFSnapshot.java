@@ -0,0 +1,504 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.fontbox.ttf;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * A compact binary snapshot of the parsed state of a true type font.
+ *
+ * A snapshot holds the table directory and the decoded contents of the tables
+ * that are expensive to parse: the character maps, as runs of consecutive
+ * character codes and glyph ids that are searched without building a map, the
+ * glyph locations, the horizontal metrics and the kerning pairs.  Loading a font from its data and a snapshot reads
+ * only the fixed size head, hhea and maxp tables from the font data.  Glyphs
+ * are read from the font data on first use, and all other tables the first
+ * time they are accessed.
+ *
+ * A snapshot is only valid for the font data it was written for, which is
+ * identified by its {@link #hash(byte[]) } and checked when it is read.
+ */
+public class TTFSnapshot
+{
+
+    /**
+     * The first bytes of a snapshot.
+     */
+    public static final int MAGIC = 0x43314653;
+
+    /**
+     * The version of the snapshot format.  Snapshots of other versions are
+     * rejected.
+     */
+    public static final int VERSION = 1;
+
+    private TTFSnapshot()
+    {
+    }
+
+    /**
+     * Computes the hash of font data that identifies the font a snapshot was
+     * written for.  This is the 32 bit FNV-1a hash of the length of the data,
+     * its table directory, and the bytes of the cmap, loca and hmtx tables,
+     * whose decoded contents the snapshot holds.  The tables are hashed since
+     * many font tools leave the checksums in the directory stale or zero.
+     *
+     * @param data the font data
+     * @return the hash
+     */
+    public static int hash(byte[] data)
+    {
+        int h = 0x811c9dc5;
+        for (int shift = 24; shift >= 0; shift -= 8)
+        {
+            h ^= (data.length >>> shift) & 0xff;
+            h *= 0x01000193;
+        }
+        int numTables = data.length < 6 ? 0 : ((data[4] & 0xff) << 8) | (data[5] & 0xff);
+        int end = Math.min(data.length, 12 + 16 * numTables);
+        h = hash(h, data, 0, end);
+        for (int entry = 12; entry + 16 <= end; entry += 16)
+        {
+            int tag = readInt(data, entry);
+            if (tag == 0x636d6170 || tag == 0x6c6f6361 || tag == 0x686d7478)
+            {
+                // cmap, loca and hmtx
+                long offset = readInt(data, entry + 8) & 0xffffffffL;
+                long length = readInt(data, entry + 12) & 0xffffffffL;
+                if (offset < data.length)
+                {
+                    h = hash(h, data, (int)offset, (int)Math.min(data.length, offset + length));
+                }
+            }
+        }
+        return h;
+    }
+
+    private static int hash(int h, byte[] data, int start, int end)
+    {
+        for (int i = start; i < end; i++)
+        {
+            h ^= data[i] & 0xff;
+            h *= 0x01000193;
+        }
+        return h;
+    }
+
+    private static int readInt(byte[] data, int pos)
+    {
+        return ((data[pos] & 0xff) << 24) | ((data[pos + 1] & 0xff) << 16)
+                | ((data[pos + 2] & 0xff) << 8) | (data[pos + 3] & 0xff);
+    }
+
+    /**
+     * Writes a snapshot of a parsed font.
+     *
+     * @param font the font, as parsed from the font data
+     * @param contentHash the {@link #hash(byte[]) } of the font data
+     * @param os the stream to write to
+     * @throws IOException if the snapshot can't be written
+     */
+    public static void write(TrueTypeFont font, int contentHash, OutputStream os) throws IOException
+    {
+        DataOutputStream out = new DataOutputStream(os);
+        out.writeInt(MAGIC);
+        out.writeShort(VERSION);
+        out.writeInt(contentHash);
+        out.writeInt(Float.floatToIntBits(font.getVersion()));
+
+        TTFTable[] tables = (TTFTable[])font.getTables().toArray(new TTFTable[0]);
+        out.writeShort(tables.length);
+        for (int i = 0; i < tables.length; i++)
+        {
+            // tags are always 4 ASCII characters
+            String tag = tables[i].getTag();
+            for (int k = 0; k < 4; k++)
+            {
+                out.writeByte(tag.charAt(k));
+            }
+            out.writeInt((int)tables[i].getCheckSum());
+            out.writeInt((int)tables[i].getOffset());
+            out.writeInt((int)tables[i].getLength());
+        }
+
+        HorizontalMetricsTable hmtx = font.getHorizontalMetrics();
+        int[] advances = hmtx.getAdvanceWidth();
+        short[] lsb = hmtx.getLeftSideBearing();
+        short[] nonHorizontalLsb = hmtx.getNonHorizontalLeftSideBearing();
+        out.writeInt(advances.length);
+        for (int i = 0; i < advances.length; i++)
+        {
+            out.writeShort(advances[i]);
+            out.writeShort(lsb[i]);
+        }
+        out.writeInt(nonHorizontalLsb.length);
+        for (int i = 0; i < nonHorizontalLsb.length; i++)
+        {
+            out.writeShort(nonHorizontalLsb[i]);
+        }
+
+        long[] offsets = font.getIndexToLocation().getOffsets();
+        out.writeInt(offsets.length);
+        for (int i = 0; i < offsets.length; i++)
+        {
+            out.writeInt((int)offsets[i]);
+        }
+
+        CMAPTable cmap = font.getCMAP();
+        CMAPEncodingEntry[] cmaps = cmap == null ? new CMAPEncodingEntry[0] : cmap.getCmaps();
+        out.writeShort(cmaps.length);
+        for (int i = 0; i < cmaps.length; i++)
+        {
+            writeCmap(cmaps[i], out);
+        }
+
+        KerningTable kern = font.getKerning();
+        int[] pairs = kern == null ? new int[0] : kern.getPairs();
+        short[] values = kern == null ? new short[0] : kern.getValues();
+        out.writeInt(pairs.length);
+        for (int i = 0; i < pairs.length; i++)
+        {
+            out.writeInt(pairs[i]);
+            out.writeShort(values[i]);
+        }
+        out.flush();
+    }
+
+    /**
+     * Writes a character map as runs of consecutive character codes that map
+     * to consecutive glyph ids, followed by the reverse mapping.
+     */
+    private static void writeCmap(CMAPEncodingEntry cmap, DataOutputStream out) throws IOException
+    {
+        int[][] runs = cmap.getRuns();
+        out.writeShort(cmap.getPlatformId());
+        out.writeShort(cmap.getPlatformEncodingId());
+        out.writeInt(runs[0].length);
+        for (int i = 0; i < runs[0].length; i++)
+        {
+            out.writeInt(runs[0][i]);
+            out.writeShort(runs[1][i]);
+            out.writeInt(runs[2][i]);
+        }
+        int[] reverse = cmap.getGlyphIdToCharacterCode();
+        if (reverse == null)
+        {
+            out.writeInt(-1);
+            return;
+        }
+        // runs of equal or increasing character codes, mostly of unmapped glyphs
+        out.writeInt(reverse.length);
+        int i = 0;
+        while (i < reverse.length)
+        {
+            int step = i + 1 < reverse.length && reverse[i + 1] == reverse[i] + 1 ? 1 : 0;
+            int j = i + 1;
+            while (j < reverse.length && reverse[j] == reverse[j - 1] + step)
+            {
+                j++;
+            }
+            out.writeInt(reverse[i]);
+            out.writeByte(step);
+            out.writeInt(j - i);
+            i = j;
+        }
+    }
+
+    /**
+     * Loads a font from its data and a snapshot of it.
+     *
+     * @param fontData the font data, which the font keeps and reads glyphs and
+     * other tables from
+     * @param contentHash the {@link #hash(byte[]) } of the font data
+     * @param is the snapshot
+     * @return the font
+     * @throws IOException if the snapshot is malformed, of another version, or
+     * was written for other font data
+     */
+    public static TrueTypeFont read(byte[] fontData, int contentHash, InputStream is) throws IOException
+    {
+        // decoded from memory, since streams read a byte per call
+        Input in = new Input(readFully(is));
+        if (in.readInt() != MAGIC)
+        {
+            throw new IOException("Not a font snapshot");
+        }
+        int version = in.readUnsignedShort();
+        if (version != VERSION)
+        {
+            throw new IOException("Unsupported font snapshot version " + version);
+        }
+        if (in.readInt() != contentHash)
+        {
+            throw new IOException("Font snapshot was written for other font data");
+        }
+        MemoryTTFDataStream raf = new MemoryTTFDataStream(fontData);
+        TrueTypeFont font = new TrueTypeFont(raf);
+        font.setVersion(Float.intBitsToFloat(in.readInt()));
+
+        int numTables = in.readUnsignedShort();
+        for (int i = 0; i < numTables; i++)
+        {
+            TTFTable table = AbstractTTFParser.createTable(in.readTag());
+            table.setCheckSum(in.readInt() & 0xffffffffL);
+            table.setOffset(in.readInt() & 0xffffffffL);
+            table.setLength(in.readInt() & 0xffffffffL);
+            if (table.getOffset() + table.getLength() > fontData.length)
+            {
+                throw new IOException("Font snapshot doesn't match the font data");
+            }
+            if (isRestored(table))
+            {
+                font.addTable(table);
+            }
+            else
+            {
+                font.addPendingTable(table);
+            }
+        }
+        HeaderTable head = font.getHeader();
+        HorizontalHeaderTable hh = font.getHorizontalHeader();
+        MaximumProfileTable maxp = font.getMaximumProfile();
+        HorizontalMetricsTable hmtx = font.getHorizontalMetrics();
+        IndexToLocationTable loc = font.getIndexToLocation();
+        GlyphTable glyf = font.getGlyph();
+        if (head == null || hh == null || maxp == null || hmtx == null || loc == null || glyf == null)
+        {
+            throw new IOException("Font snapshot is missing mandatory tables");
+        }
+        raf.seek(head.getOffset());
+        head.initData(font, raf);
+        raf.seek(hh.getOffset());
+        hh.initData(font, raf);
+        raf.seek(maxp.getOffset());
+        maxp.initData(font, raf);
+
+        int numHMetrics = in.readCount(4);
+        int[] advances = new int[numHMetrics];
+        short[] lsb = new short[numHMetrics];
+        for (int i = 0; i < numHMetrics; i++)
+        {
+            advances[i] = in.readUnsignedShort();
+            lsb[i] = in.readSignedShort();
+        }
+        short[] nonHorizontalLsb = new short[in.readCount(2)];
+        for (int i = 0; i < nonHorizontalLsb.length; i++)
+        {
+            nonHorizontalLsb[i] = in.readSignedShort();
+        }
+        if (numHMetrics != hh.getNumberOfHMetrics()
+                || nonHorizontalLsb.length != maxp.getNumGlyphs() - numHMetrics)
+        {
+            throw new IOException("Font snapshot doesn't match the font data");
+        }
+        hmtx.setAdvanceWidth(advances);
+        hmtx.setLeftSideBearing(lsb);
+        hmtx.setNonHorizontalLeftSideBearing(nonHorizontalLsb);
+
+        long[] offsets = new long[in.readCount(4)];
+        if (offsets.length != maxp.getNumGlyphs() + 1)
+        {
+            throw new IOException("Font snapshot doesn't match the font data");
+        }
+        for (int i = 0; i < offsets.length; i++)
+        {
+            offsets[i] = in.readInt() & 0xffffffffL;
+        }
+        loc.setOffsets(offsets);
+        glyf.initData(font, raf);
+
+        int numCmaps = in.readUnsignedShort();
+        CMAPEncodingEntry[] cmaps = new CMAPEncodingEntry[numCmaps];
+        for (int i = 0; i < numCmaps; i++)
+        {
+            cmaps[i] = readCmap(in);
+        }
+        CMAPTable cmap = font.getCMAP();
+        if (cmap != null)
+        {
+            cmap.setCmaps(cmaps);
+        }
+
+        int numPairs = in.readCount(6);
+        int[] pairs = new int[numPairs];
+        short[] values = new short[numPairs];
+        for (int i = 0; i < numPairs; i++)
+        {
+            pairs[i] = in.readInt();
+            values[i] = in.readSignedShort();
+        }
+        KerningTable kern = font.getKerning();
+        if (kern != null)
+        {
+            kern.setPairs(pairs, values);
+        }
+        return font;
+    }
+
+    private static CMAPEncodingEntry readCmap(Input in) throws IOException
+    {
+        CMAPEncodingEntry cmap = new CMAPEncodingEntry();
+        cmap.setPlatformId(in.readUnsignedShort());
+        cmap.setPlatformEncodingId(in.readUnsignedShort());
+        int runs = in.readCount(10);
+        int[] codes = new int[runs];
+        int[] glyphIds = new int[runs];
+        int[] lengths = new int[runs];
+        for (int r = 0; r < runs; r++)
+        {
+            codes[r] = in.readInt();
+            glyphIds[r] = in.readUnsignedShort();
+            lengths[r] = in.readInt();
+        }
+        cmap.setRuns(codes, glyphIds, lengths);
+        int reverseLength = in.readInt();
+        if (reverseLength >= 0)
+        {
+            if (reverseLength > 0xffff)
+            {
+                throw new IOException("Malformed character map in font snapshot");
+            }
+            int[] reverse = new int[reverseLength];
+            int i = 0;
+            while (i < reverseLength)
+            {
+                int code = in.readInt();
+                int step = in.readUnsignedByte();
+                int length = in.readInt();
+                if (i + length > reverseLength)
+                {
+                    throw new IOException("Malformed character map in font snapshot");
+                }
+                for (int j = 0; j < length; j++)
+                {
+                    reverse[i++] = code;
+                    code += step;
+                }
+            }
+            cmap.setGlyphIdToCharacterCode(reverse);
+        }
+        return cmap;
+    }
+
+    /**
+     * Checks whether a table's contents are restored from the snapshot rather
+     * than read from the font data on first access.
+     */
+    private static boolean isRestored(TTFTable table)
+    {
+        return table instanceof HeaderTable
+                || table instanceof HorizontalHeaderTable
+                || table instanceof MaximumProfileTable
+                || table instanceof HorizontalMetricsTable
+                || table instanceof IndexToLocationTable
+                || table instanceof GlyphTable
+                || table instanceof CMAPTable
+                || table instanceof KerningTable;
+    }
+
+    private static byte[] readFully(InputStream is) throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[8192];
+        int len;
+        while ((len = is.read(buf)) != -1)
+        {
+            out.write(buf, 0, len);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Big-endian reads from the bytes of a snapshot.
+     */
+    private static class Input
+    {
+        private final byte[] data;
+        private int pos;
+
+        Input(byte[] data)
+        {
+            this.data = data;
+        }
+
+        private void require(int n) throws IOException
+        {
+            if (pos + n > data.length)
+            {
+                throw new EOFException("Truncated font snapshot");
+            }
+        }
+
+        int readUnsignedByte() throws IOException
+        {
+            require(1);
+            return data[pos++] & 0xff;
+        }
+
+        int readUnsignedShort() throws IOException
+        {
+            require(2);
+            int v = ((data[pos] & 0xff) << 8) | (data[pos + 1] & 0xff);
+            pos += 2;
+            return v;
+        }
+
+        short readSignedShort() throws IOException
+        {
+            return (short)readUnsignedShort();
+        }
+
+        int readInt() throws IOException
+        {
+            require(4);
+            int v = ((data[pos] & 0xff) << 24) | ((data[pos + 1] & 0xff) << 16)
+                    | ((data[pos + 2] & 0xff) << 8) | (data[pos + 3] & 0xff);
+            pos += 4;
+            return v;
+        }
+
+        /**
+         * Reads the number of entries of an array and checks that the entries
+         * are all there.
+         */
+        int readCount(int entrySize) throws IOException
+        {
+            int count = readInt();
+            if (count < 0 || (long)count * entrySize > data.length - pos)
+            {
+                throw new EOFException("Truncated font snapshot");
+            }
+            return count;
+        }
+
+        String readTag() throws IOException
+        {
+            require(4);
+            char[] tag = new char[4];
+            for (int i = 0; i < 4; i++)
+            {
+                tag[i] = (char)(data[pos++] & 0xff);
+            }
+            return new String(tag);
+        }
+    }
+}
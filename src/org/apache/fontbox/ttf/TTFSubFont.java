@@ -20,7 +20,6 @@ import java.io.ByteArrayOutputStream;
 import java.io.DataOutputStream;
 import java.io.EOFException;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.ArrayList;
 
@@ -29,11 +28,8 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.Set;
 import java.util.SortedMap;
-import java.util.SortedSet;
 import java.util.TreeMap;
-import java.util.TreeSet;
 
 import org.apache.fontbox.encoding.Encoding;
 import org.apache.fontbox.encoding.MacRomanEncoding;
@@ -60,9 +56,15 @@ public class TTFSubFont
     
     // A map of unicode char codes to glyph IDs of the original font.
     private final SortedMap<Integer,Integer> characters;
-    // A sorted version of this set will comprise the generated glyph IDs
-    // for the written truetype font.
-    private final SortedSet<Integer> glyphIds;
+    // The glyphs of the original font that are in the subfont, by glyph ID.
+    private final boolean[] usedGlyphs;
+    // Compound glyphs whose references have been added to usedGlyphs.
+    private final boolean[] resolvedGlyphs;
+    // The glyph IDs of the original font in ascending order, which are the
+    // glyphs of the written truetype font, and the new glyph ID of each 
+    // original glyph ID (or -1).  Built by buildGlyphMap().
+    private int[] glyphIds;
+    private int[] newGlyphIds;
     
     /**
      * Constructs a subfont based on the given font using the given suffix.
@@ -76,7 +78,9 @@ public class TTFSubFont
         baseTTF = baseFont;
         nameSuffix = suffix;
         characters = new TreeMap<Integer, Integer>();
-        glyphIds = new TreeSet<Integer>();
+        int numGlyphs = baseFont.getMaximumProfile().getNumGlyphs();
+        usedGlyphs = new boolean[numGlyphs];
+        resolvedGlyphs = new boolean[numGlyphs];
         
         CMAPEncodingEntry[] cmaps = this.baseTTF.getCMAP().getCmaps();
         CMAPEncodingEntry unicodeCmap = null;
@@ -104,10 +108,41 @@ public class TTFSubFont
     public void addCharCode(int charCode) 
     {
         Integer gid = Integer.valueOf(baseCmap.getGlyphId(charCode));
-        if (charCode == 0 || gid.intValue() != 0) 
+        if ((charCode == 0 || gid.intValue() != 0) && gid.intValue() < usedGlyphs.length) 
         {
             characters.put(new Integer(charCode),gid);
-            glyphIds.add(gid);
+            usedGlyphs[gid.intValue()] = true;
+        }
+    }
+
+    /**
+     * Builds the sorted glyph IDs and the map from original to new glyph IDs,
+     * once all glyphs have been added.
+     */
+    private void buildGlyphMap() 
+    {
+        int count = 0;
+        for (int i = 0; i < usedGlyphs.length; i++) 
+        {
+            if (usedGlyphs[i]) 
+            {
+                count++;
+            }
+        }
+        glyphIds = new int[count];
+        newGlyphIds = new int[usedGlyphs.length];
+        int n = 0;
+        for (int i = 0; i < usedGlyphs.length; i++) 
+        {
+            if (usedGlyphs[i]) 
+            {
+                newGlyphIds[i] = n;
+                glyphIds[n++] = i;
+            }
+            else 
+            {
+                newGlyphIds[i] = -1;
+            }
         }
     }
 
@@ -159,6 +194,51 @@ public class TTFSubFont
                 (((long)bytes[3])&0xffL);
     }
 
+    private static int readUint16(byte[] bytes, int off) 
+    {
+        return ((bytes[off] & 0xff) << 8) | (bytes[off+1] & 0xff);
+    }
+
+    /**
+     * Gets the offset of the component record that follows the one at the 
+     * given offset of a compound glyph.
+     * 
+     * @param bytes The font data.
+     * @param off The offset of the component record.
+     * @return The offset of the next component record.
+     */
+    private static int nextComponent(byte[] bytes, int off) 
+    {
+        int flags = readUint16(bytes,off);
+        // flags and glyphIndex
+        off += 2 * 2;
+        // ARG_1_AND_2_ARE_WORDS
+        if ((flags & (1 << 0)) != 0) 
+        {
+            off += 2 * 2;
+        }
+        else 
+        {
+            off += 2;
+        }
+        // WE_HAVE_A_TWO_BY_TWO
+        if ((flags & (1 << 7)) != 0) 
+        {
+            off += 2 * 4;
+        }
+        // WE_HAVE_AN_X_AND_Y_SCALE
+        else if ((flags & (1 << 6)) != 0) 
+        {
+            off += 2 * 2;
+        }
+        // WE_HAVE_A_SCALE
+        else if ((flags & (1 << 3)) != 0) 
+        {
+            off += 2;
+        }
+        return off;
+    }
+
     /**
      * @param dos The data output stream.
      * @param nTables The number of table.
@@ -317,7 +397,12 @@ public class TTFSubFont
         writeSint16(dos,h.getReserved4());
         writeSint16(dos,h.getReserved5());
         writeSint16(dos,h.getMetricDataFormat());
-        writeUint16(dos,glyphIds.subSet(new Integer(0),new Integer(h.getNumberOfHMetrics())).size());
+        int numberOfHMetrics = 0;
+        while (numberOfHMetrics < glyphIds.length && glyphIds[numberOfHMetrics] < h.getNumberOfHMetrics()) 
+        {
+            numberOfHMetrics++;
+        }
+        writeUint16(dos,numberOfHMetrics);
                 
         dos.flush();
         LOG.debug("Finished table [hhea].");
@@ -457,7 +542,7 @@ public class TTFSubFont
         MaximumProfileTable p = this.baseTTF.getMaximumProfile();
 
         writeFixed(dos,1.0);
-        writeUint16(dos,glyphIds.size());
+        writeUint16(dos,glyphIds.length);
         writeUint16(dos,p.getMaxPoints());
         writeUint16(dos,p.getMaxContours());
         writeUint16(dos,p.getMaxCompositePoints());
@@ -564,236 +649,171 @@ public class TTFSubFont
         return bos.toByteArray();
     }
 
-    private boolean addCompoundReferences() throws IOException 
+    /**
+     * Adds the glyphs that the compound glyphs of the subfont refer to, and 
+     * the glyphs that those refer to, reading the component records in place.
+     * 
+     * @param data The font data.
+     */
+    private void addCompoundReferences(byte[] data) 
     {
-        GlyphTable g = this.baseTTF.getGlyph();
+        int glyfOffset = (int)this.baseTTF.getGlyph().getOffset();
         long[] offsets = this.baseTTF.getIndexToLocation().getOffsets();
-        InputStream is = this.baseTTF.getOriginalData();
-        Set<Integer> glyphIdsToAdd = null;
-        try 
+        // each glyph is pushed at most once, when it is first found
+        int[] stack = new int[usedGlyphs.length];
+        int top = 0;
+        for (int glyphId = 0; glyphId < usedGlyphs.length; glyphId++) 
         {
-            is.skip(g.getOffset());
-            long lastOff = 0L;
-            for (Integer glyphId : this.glyphIds) 
+            if (usedGlyphs[glyphId] && !resolvedGlyphs[glyphId]) 
             {
-                long offset = offsets[glyphId.intValue()];
-                long len = offsets[glyphId.intValue()+1] - offset;
-                is.skip(offset-lastOff);
-                byte[] buf= new byte[(int)len];
-                is.read(buf);
-                // rewrite glyphIds for compound glyphs
-                if (buf.length >= 2 && buf[0] == -1 && buf[1] == -1) 
-                {
-                    int off = 2*5;
-                    int flags = 0;
-                    do 
-                    {
-                        flags = ((((int)buf[off]) & 0xff) << 8) | (buf[off+1] & 0xff); 
-                        off +=2;
-                        int ogid = ((((int)buf[off]) & 0xff) << 8) | (buf[off+1] & 0xff);
-                        if (!this.glyphIds.contains(ogid)) 
-                        {
-                            LOG.debug("Adding referenced glyph "+ogid+" of compound glyph "+glyphId);
-                            if (glyphIdsToAdd == null) 
-                            {
-                                glyphIdsToAdd = new TreeSet<Integer>();
-                            }
-                            glyphIdsToAdd.add(new Integer(ogid));
-                        }
-                        off += 2;
-                        // ARG_1_AND_2_ARE_WORDS
-                        if ((flags & (1 << 0)) != 0) 
-                        {
-                            off += 2 * 2;
-                        }
-                        else 
-                        {
-                            off += 2;
-                        }
-                        // WE_HAVE_A_TWO_BY_TWO
-                        if ((flags & (1 << 7)) != 0) 
-                        {
-                            off += 2 * 4;
-                        }
-                        // WE_HAVE_AN_X_AND_Y_SCALE
-                        else if ((flags & (1 << 6)) != 0) 
-                        {
-                            off += 2 * 2;
-                        }
-                        // WE_HAVE_A_SCALE
-                        else if ((flags & (1 << 3)) != 0) 
-                        {
-                            off += 2;
-                        }
-                        
-                        // MORE_COMPONENTS
-                    } 
-                    while ((flags & (1 << 5)) != 0);
-                    
-                }
-                lastOff = offsets[glyphId.intValue()+1];
+                stack[top++] = glyphId;
             }
         }
-        finally 
-        {
-            is.close();
-        }
-        if (glyphIdsToAdd != null) 
+        while (top > 0) 
         {
-            this.glyphIds.addAll(glyphIdsToAdd);
+            int glyphId = stack[--top];
+            resolvedGlyphs[glyphId] = true;
+            int start = glyfOffset + (int)offsets[glyphId];
+            int end = glyfOffset + (int)offsets[glyphId+1];
+            if (end - start >= 2 && data[start] == -1 && data[start+1] == -1) 
+            {
+                int off = start + 2*5;
+                int flags;
+                do 
+                {
+                    flags = readUint16(data,off);
+                    int ogid = readUint16(data,off+2);
+                    if (ogid < usedGlyphs.length && !usedGlyphs[ogid]) 
+                    {
+                        LOG.debug("Adding referenced glyph "+ogid+" of compound glyph "+glyphId);
+                        usedGlyphs[ogid] = true;
+                        stack[top++] = ogid;
+                    }
+                    off = nextComponent(data,off);
+                    // MORE_COMPONENTS
+                } 
+                while ((flags & (1 << 5)) != 0 && off < end);
+            }
         }
-        return glyphIdsToAdd == null;
     }
     
-    private byte[] buildGlyfTable(long[] newOffsets) throws IOException 
+    private byte[] buildGlyfTable(byte[] data, long[] newOffsets) throws IOException 
     {
-        ByteArrayOutputStream bos = new ByteArrayOutputStream();
         LOG.debug("Building table [glyf]...");
-        GlyphTable g = this.baseTTF.getGlyph();
+        int glyfOffset = (int)this.baseTTF.getGlyph().getOffset();
         long[] offsets = this.baseTTF.getIndexToLocation().getOffsets();
-        InputStream is = this.baseTTF.getOriginalData();
-        try 
+        int size = 0;
+        for (int i = 0; i < this.glyphIds.length; i++) 
+        {
+            int glyphId = this.glyphIds[i];
+            size += (int)(offsets[glyphId+1] - offsets[glyphId]) + 3;
+        }
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(size);
+        long newOff = 0L;
+        int ioff = 0;
+        for (int i = 0; i < this.glyphIds.length; i++) 
         {
-            is.skip(g.getOffset());
-            long lastOff = 0L;
-            long newOff = 0L;
-            int ioff = 0;
-            for (Integer glyphId : this.glyphIds) 
+            int glyphId = this.glyphIds[i];
+            int start = glyfOffset + (int)offsets[glyphId];
+            int len = (int)(offsets[glyphId+1] - offsets[glyphId]);
+            if (start + len > data.length) 
             {
-                long offset = offsets[glyphId.intValue()];
-                long len = offsets[glyphId.intValue()+1] - offset;
-                newOffsets[ioff++] = newOff;
-                is.skip(offset-lastOff);
-                byte[] buf= new byte[(int)len];
-                is.read(buf);
-                // rewrite glyphIds for compound glyphs
-                if (buf.length >= 2 && buf[0] == -1 && buf[1] == -1) 
-                {
-                    LOG.debug("Compound glyph "+glyphId);
-                    int off = 2*5;
-                    int flags = 0;
-                    do 
-                    {
-                        // clear the WE_HAVE_INSTRUCTIONS bit. (bit 8 is lsb of the first byte)
-                        buf[off] &= 0xfe;
-                        flags = ((((int)buf[off]) & 0xff) << 8) | ((int)buf[off+1] & 0xff);                         
-                        off +=2;
-                        int ogid = ((((int)buf[off]) & 0xff) << 8) | ((int)buf[off+1] & 0xff);
-                        if (!this.glyphIds.contains(ogid)) 
-                        {
-                            this.glyphIds.add(new Integer(ogid));
-                        }
-                        int ngid = this.getNewGlyphId(new Integer(ogid));
-                        if (LOG.isDebugEnabled()) 
-                        {
-                            LOG.debug("mapped glyph  %d to %d in compound reference (flags=%04x)");
-                        }
-                        buf[off]   = (byte)(ngid >>> 8);
-                        buf[off+1] = (byte)ngid;
-                        off += 2;
-                        // ARG_1_AND_2_ARE_WORDS
-                        if ((flags & (1 << 0)) != 0) 
-                        {
-                            off += 2 * 2;
-                        }
-                        else 
-                        {
-                            off += 2;
-                        }
-                        // WE_HAVE_A_TWO_BY_TWO
-                        if ((flags & (1 << 7)) != 0) 
-                        {
-                            off += 2 * 4;
-                        }
-                        // WE_HAVE_AN_X_AND_Y_SCALE
-                        else if ((flags & (1 << 6)) != 0) 
-                        {
-                            off += 2 * 2;
-                        }
-                        // WE_HAVE_A_SCALE
-                        else if ((flags & (1 << 3)) != 0) 
-                        {
-                            off += 2;
-                        }
-                        // MORE_COMPONENTS
-                    } 
-                    while ((flags & (1 << 5)) != 0);
-                    // write the compound glyph
-                    bos.write(buf,0,off);
-                    newOff += off;
-                }
-                else if (buf.length > 0)
+                throw new EOFException("Unexpected EOF exception parsing glyph "+glyphId+" of glyf table.");
+            }
+            newOffsets[ioff++] = newOff;
+            // rewrite glyphIds for compound glyphs
+            if (len >= 2 && data[start] == -1 && data[start+1] == -1) 
+            {
+                LOG.debug("Compound glyph "+glyphId);
+                // write numberOfContours, xMin, yMin, xMax, yMax
+                bos.write(data,start,2*5);
+                int off = start + 2*5;
+                int flags;
+                do 
                 {
-                    /*
-                     * bail out instructions for simple glyphs, an excerpt from the specs is given below:
-                     *                         
-                     * int16    numberOfContours    If the number of contours is positive or zero, it is a single glyph;
-                     * If the number of contours is -1, the glyph is compound
-                     *  FWord    xMin    Minimum x for coordinate data
-                     *  FWord    yMin    Minimum y for coordinate data
-                     *  FWord    xMax    Maximum x for coordinate data
-                     *  FWord    yMax    Maximum y for coordinate data
-                     *  (here follow the data for the simple or compound glyph)
-                     *
-                     * Table 15: Simple glyph definition
-                     *  Type    Name    Description
-                     *  uint16  endPtsOfContours[n] Array of last points of each contour; n is the number of contours;
-                     *          array entries are point indices
-                     *  uint16  instructionLength Total number of bytes needed for instructions
-                     *  uint8   instructions[instructionLength] Array of instructions for this glyph
-                     *  uint8   flags[variable] Array of flags
-                     *  uint8 or int16  xCoordinates[] Array of x-coordinates; the first is relative to (0,0),
-                     *                                 others are relative to previous point
-                     *  uint8 or int16  yCoordinates[] Array of y-coordinates; the first is relative to (0,0), 
-                     *                                 others are relative to previous point
-                     */
-                                        
-                    int    numberOfContours = (((int)buf[0]& 0xff) << 8) | ((int)buf[1] & 0xff); 
-                    
-                    // offset of instructionLength
-                    int off = 2*5 + numberOfContours * 2;
-                    
-                    // write numberOfContours, xMin, yMin, xMax, yMax, endPtsOfContours[n]
-                    bos.write(buf,0,off);
-                    newOff += off;
-                    
-                    int instructionLength = ((((int)buf[off]) & 0xff) << 8) | ((int)buf[off+1] & 0xff);
-                        
-                    // zarro instructions.
-                    bos.write(0);
-                    bos.write(0);
-                    newOff += 2;
-                    
-                    off += 2 + instructionLength;
-                    
-                    // flags and coordinates
-                    bos.write(buf,off,buf.length - off);
-                    newOff += buf.length - off;
-                }
+                    flags = readUint16(data,off);
+                    int next = nextComponent(data,off);
+                    // all references were added by addCompoundReferences()
+                    int ngid = this.getNewGlyphId(readUint16(data,off+2));
+                    // clear the WE_HAVE_INSTRUCTIONS bit.
+                    int newFlags = flags & ~(1 << 8);
+                    bos.write(newFlags >>> 8);
+                    bos.write(newFlags);
+                    bos.write(ngid >>> 8);
+                    bos.write(ngid);
+                    // arguments and transformation
+                    bos.write(data,off+4,next-off-4);
+                    off = next;
+                    // MORE_COMPONENTS
+                } 
+                while ((flags & (1 << 5)) != 0);
+                // the instructions of the compound glyph are left out
+                newOff += off - start;
+            }
+            else if (len > 0)
+            {
+                /*
+                 * bail out instructions for simple glyphs, an excerpt from the specs is given below:
+                 *                         
+                 * int16    numberOfContours    If the number of contours is positive or zero, it is a single glyph;
+                 * If the number of contours is -1, the glyph is compound
+                 *  FWord    xMin    Minimum x for coordinate data
+                 *  FWord    yMin    Minimum y for coordinate data
+                 *  FWord    xMax    Maximum x for coordinate data
+                 *  FWord    yMax    Maximum y for coordinate data
+                 *  (here follow the data for the simple or compound glyph)
+                 *
+                 * Table 15: Simple glyph definition
+                 *  Type    Name    Description
+                 *  uint16  endPtsOfContours[n] Array of last points of each contour; n is the number of contours;
+                 *          array entries are point indices
+                 *  uint16  instructionLength Total number of bytes needed for instructions
+                 *  uint8   instructions[instructionLength] Array of instructions for this glyph
+                 *  uint8   flags[variable] Array of flags
+                 *  uint8 or int16  xCoordinates[] Array of x-coordinates; the first is relative to (0,0),
+                 *                                 others are relative to previous point
+                 *  uint8 or int16  yCoordinates[] Array of y-coordinates; the first is relative to (0,0), 
+                 *                                 others are relative to previous point
+                 */
+                                    
+                int numberOfContours = readUint16(data,start); 
                 
+                // length of numberOfContours, xMin, yMin, xMax, yMax, endPtsOfContours[n]
+                int off = 2*5 + numberOfContours * 2;
                 
-                if ((newOff % 4L) != 0L) 
-                {
-                    int np = (int)(4-newOff%4L);
-                    bos.write(PAD_BUF,0,np);
-                    newOff += np;
-                }
+                bos.write(data,start,off);
+                newOff += off;
+                
+                int instructionLength = readUint16(data,start+off);
+                    
+                // zarro instructions.
+                bos.write(0);
+                bos.write(0);
+                newOff += 2;
                 
-                lastOff = offsets[glyphId.intValue()+1];
+                off += 2 + instructionLength;
+                
+                // flags and coordinates
+                bos.write(data,start+off,len-off);
+                newOff += len-off;
+            }
+            
+            
+            if ((newOff % 4L) != 0L) 
+            {
+                int np = (int)(4-newOff%4L);
+                bos.write(PAD_BUF,0,np);
+                newOff += np;
             }
-            newOffsets[ioff++] = newOff;
-        }
-        finally 
-        {
-            is.close();
         }
+        newOffsets[ioff++] = newOff;
         LOG.debug("Finished table [glyf].");
         return bos.toByteArray();
     }
 
-    private int getNewGlyphId(Integer oldGid) 
+    private int getNewGlyphId(int oldGid) 
     {
-        return this.glyphIds.headSet(oldGid).size();
+        return this.newGlyphIds[oldGid];
     }
     
     private byte[] buildCmapTable() throws IOException 
@@ -820,7 +840,7 @@ public class TTFSubFont
         it.next();
         Entry<Integer, Integer> lastChar = it.next();
         Entry<Integer, Integer> prevChar = lastChar;
-        int lastGid = this.getNewGlyphId(lastChar.getValue());
+        int lastGid = this.getNewGlyphId(lastChar.getValue().intValue());
 
         int[] startCode = new int[this.characters.size()];
         int[] endCode = new int[this.characters.size()];
@@ -829,7 +849,7 @@ public class TTFSubFont
         while(it.hasNext()) 
         {
             Entry<Integer, Integer> curChar = it.next();
-            int curGid = this.getNewGlyphId(curChar.getValue());
+            int curGid = this.getNewGlyphId(curChar.getValue().intValue());
             
             if (curChar.getKey().intValue() != prevChar.getKey().intValue()+1 ||
                     curGid - lastGid != curChar.getKey().intValue() - lastChar.getKey().intValue()) 
@@ -952,7 +972,7 @@ public class TTFSubFont
         writeUint32(dos,p.getMaxMemType42());
         writeUint32(dos,p.getMimMemType1());
         writeUint32(dos,p.getMaxMemType1());
-        writeUint16(dos,baseTTF.getHorizontalHeader().getNumberOfHMetrics());
+        writeUint16(dos,this.glyphIds.length);
             
         List<String> additionalNames = new ArrayList<String>();
         Map<String,Integer> additionalNamesIndices = new HashMap<String,Integer>();
@@ -961,9 +981,9 @@ public class TTFSubFont
         {
             Encoding enc = MacRomanEncoding.INSTANCE;
             int[] gidToUC = this.baseCmap.getGlyphIdToCharacterCode();
-            for (Integer glyphId : this.glyphIds) 
+            for (int i = 0; i < this.glyphIds.length; i++) 
             {
-                int uc = gidToUC[glyphId.intValue()];
+                int uc = gidToUC[this.glyphIds[i]];
                 String name = null;
                 if (uc < 0x8000) 
                 {
@@ -1000,9 +1020,9 @@ public class TTFSubFont
         }
         else 
         { 
-            for (Integer glyphId : this.glyphIds) 
+            for (int i = 0; i < this.glyphIds.length; i++) 
             {
-                String name = glyphNames[glyphId.intValue()];
+                String name = glyphNames[this.glyphIds[i]];
                 Integer macId = Encoding.MAC_GLYPH_NAMES_INDICES.get(name);
                 if (macId == null) 
                 {
@@ -1034,55 +1054,36 @@ public class TTFSubFont
         return bos.toByteArray();
     }
 
-    private byte[] buildHmtxTable() throws IOException 
+    private byte[] buildHmtxTable(byte[] data) throws IOException 
     {
-        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(this.glyphIds.length * 4);
         LOG.debug("Building table [hmtx]...");
         HorizontalHeaderTable h = this.baseTTF.getHorizontalHeader();
         HorizontalMetricsTable hm = this.baseTTF.getHorizontalMetrics();
-        byte [] buf = new byte[4];
-        InputStream is = this.baseTTF.getOriginalData();
-        try 
+        int hmtxOffset = (int)hm.getOffset();
+        for (int i = 0; i < this.glyphIds.length; i++) 
         {
-            is.skip(hm.getOffset());
-            long lastOff = 0;
-            for (Integer glyphId : this.glyphIds) 
+            int glyphId = this.glyphIds[i];
+            // offset in original file.
+            int off;
+            if (glyphId < h.getNumberOfHMetrics()) 
             {
-                // offset in original file.
-                long off;
-                if (glyphId.intValue() < h.getNumberOfHMetrics()) 
-                {
-                    off = glyphId.intValue() * 4;
-                }
-                else 
-                {
-                    off = h.getNumberOfHMetrics() * 4 + (glyphId.intValue() - h.getNumberOfHMetrics()) * 2;
-                }
-                // skip over from last original offset.
-                if (off != lastOff) 
-                {
-                    long nskip = off-lastOff;
-                    if (nskip != is.skip(nskip)) 
-                    {
-                        throw new EOFException("Unexpected EOF exception parsing glyphId of hmtx table.");
-                    }
-                }
-                // read left side bearings only, if we are beyond numOfHMetrics.
-                int n = glyphId.intValue() < h.getNumberOfHMetrics() ? 4 : 2;
-                if (n != is.read(buf,0,n)) 
-                {
-                    throw new EOFException("Unexpected EOF exception parsing glyphId of hmtx table.");
-                }
-                bos.write(buf,0,n);
-                lastOff = off + n;
+                off = glyphId * 4;
             }
-            LOG.debug("Finished table [hmtx].");
-            return bos.toByteArray();
-        }
-        finally 
-        {
-            is.close();
+            else 
+            {
+                off = h.getNumberOfHMetrics() * 4 + (glyphId - h.getNumberOfHMetrics()) * 2;
+            }
+            // read left side bearings only, if we are beyond numOfHMetrics.
+            int n = glyphId < h.getNumberOfHMetrics() ? 4 : 2;
+            if (hmtxOffset + off + n > data.length) 
+            {
+                throw new EOFException("Unexpected EOF exception parsing glyphId of hmtx table.");
+            }
+            bos.write(data,hmtxOffset+off,n);
         }
+        LOG.debug("Finished table [hmtx].");
+        return bos.toByteArray();
     }
 
     /**
@@ -1093,11 +1094,10 @@ public class TTFSubFont
      */
     public void writeToStream(OutputStream os) throws IOException 
     {
-        LOG.debug("glyphIds=[" + glyphIds + "]");
-        LOG.debug("numGlyphs=[" + glyphIds.size() + "]");
-        while (!addCompoundReferences()) 
-        {
-        }
+        byte[] data = this.baseTTF.getFontData();
+        addCompoundReferences(data);
+        buildGlyphMap();
+        LOG.debug("numGlyphs=[" + glyphIds.length + "]");
         DataOutputStream dos = new DataOutputStream(os);
         try 
         {
@@ -1115,16 +1115,16 @@ public class TTFSubFont
              */
             String[] tableNames = {"OS/2","cmap","glyf","head","hhea","hmtx","loca","maxp","name","post"};
             byte [][] tables = new byte[tableNames.length][];
-            long[] newOffsets = new long[this.glyphIds.size()+1];
+            long[] newOffsets = new long[this.glyphIds.length+1];
             tables[3] = this.buildHeadTable();
             tables[4] = this.buildHheaTable();
             tables[7] = this.buildMaxpTable();
             tables[8] = this.buildNameTable();
             tables[0] = this.buildOS2Table();
-            tables[2] = this.buildGlyfTable(newOffsets);
+            tables[2] = this.buildGlyfTable(data,newOffsets);
             tables[6] = this.buildLocaTable(newOffsets);
             tables[1] = this.buildCmapTable();
-            tables[5] = this.buildHmtxTable();
+            tables[5] = this.buildHmtxTable(data);
             tables[9] = this.buildPostTable();
             long checksum = writeFileHeader(dos,tableNames.length);
             long offset = 12L + 16L * tableNames.length;
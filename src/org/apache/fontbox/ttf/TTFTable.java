@@ -30,6 +30,13 @@ public class TTFTable
     private long checkSum;
     private long offset;
     private long length;
+    
+    /**
+     * Whether the data of the table is still to be read, for tables that are 
+     * read on first access.  Volatile so that readers can check it without a 
+     * lock.
+     */
+    private volatile boolean pending;
       
     /**
      * @return Returns the checkSum.
@@ -88,6 +95,21 @@ public class TTFTable
         this.tag = tagValue;
     }
     
+    /**
+     * @return True if the data of the table hasn't been read yet.
+     */
+    boolean isPending() 
+    {
+        return pending;
+    }
+    /**
+     * @param pendingValue True if the data of the table is still to be read.
+     */
+    void setPending(boolean pendingValue) 
+    {
+        this.pending = pendingValue;
+    }
+    
     /**
      * This will read the required data from the stream.
      * 
@@ -19,19 +19,25 @@ package org.apache.fontbox.ttf;
 
 
 
+import com.codename1.ui.Display;
 import com.codename1.ui.TTFFont;
 import com.codename1.ui.TTFFont.Glyph;
 import com.codename1.ui.Graphics;
 import com.codename1.ui.Image;
 import com.codename1.ui.Stroke;
 import com.codename1.ui.Transform;
+import com.codename1.io.Log;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.lang.ref.WeakReference;
 import java.util.Iterator;
+import java.util.List;
 
 
 import com.codename1.ui.geom.GeneralPath;
@@ -44,8 +50,55 @@ import com.codename1.ui.geom.GeneralPath;
  */
 public class TrueTypeFont 
 {
-    Map<String,com.codename1.ui.TTFFont> fontCache = new HashMap<String,com.codename1.ui.TTFFont>();
-    GeneralPath[] glyphPaths;
+    /**
+     * Glyph paths, indexed by glyph id, held through a soft reference if 
+     * {@link #setSoftCaching(boolean) soft caching} is on.  The caches of paths
+     * and masks can be used from any thread: paths are read and published 
+     * under the lock of their stripe in {@link #locks}, and masks and images, 
+     * which are immutable, are published without locks.
+     */
+    private volatile Object glyphPaths;
+    private final LockStripes locks = new LockStripes(16);
+    
+    /**
+     * Width (in pixels) of the size buckets that share a flattened path.
+     */
+    private static final int FLATTEN_BUCKET_WIDTH = 4;
+    
+    /**
+     * Flattened glyph paths, indexed by size bucket and then by glyph id.
+     */
+    volatile GeneralPath[][] flattenedPaths;
+    private boolean curveFlattening = false;
+    private float flatnessTolerance = 0.2f;
+    private int maxFlattenedSize = 48;
+    
+    /**
+     * Simplified glyph paths, indexed by size bucket and then by glyph id.
+     */
+    volatile GeneralPath[][] simplifiedPaths;
+    private boolean outlineSimplification = false;
+    private float simplificationTolerance = 0.25f;
+    private int maxSimplifiedSize = 16;
+    
+    /**
+     * The number of horizontal subpixel positions that glyph bitmaps are 
+     * rendered at.
+     */
+    private int subpixelPhases = 4;
+    
+    /**
+     * The maximum number of subpixel phases.
+     */
+    public static final int MAX_SUBPIXEL_PHASES = 4;
+    
+    private volatile SDFGlyphAtlas distanceFieldAtlas;
+    
+    /**
+     * Thresholded distance field images, keyed by glyph, image size and color.
+     */
+    private volatile Map<DistanceFieldKey,Image> distanceFieldImages;
+    private static final int MAX_DISTANCE_FIELD_IMAGES = 256;
     
     
     private float version; 
@@ -54,6 +107,31 @@ public class TrueTypeFont
     
     private TTFDataStream data;
     
+    /**
+     * The glyph collections of the sizes returned by getFont(), whose caches 
+     * are released with the font's.  Also serves as the cache of getFont(), 
+     * which is searched linearly since fonts are used in few sizes.  Held 
+     * weakly, so that the caches of a size are dropped once no font of that
+     * size is referenced, and so that {@link #isInUse() } can tell whether 
+     * any is.
+     */
+    private final List<WeakReference> collections = new ArrayList<WeakReference>();
+    
+    /**
+     * Counts glyph lookups of all fonts, so that fonts can be ordered by when
+     * they were last used.  Updates from other threads may be lost, which only
+     * makes the order approximate.
+     */
+    private static long useClock;
+    private long lastUsed;
+    
+    /**
+     * Estimated sizes of cached outlines, since paths can't be measured cheaply.
+     */
+    private static final int PATH_BYTES = 512;
+    private static final int FLATTENED_PATH_BYTES = 1024;
+    private static final int STROKED_PATH_BYTES = 2048;
+    
     /**
      * Constructor.  Clients should use the TTFParser to create a new TrueTypeFont object.
      * 
@@ -64,24 +142,503 @@ public class TrueTypeFont
         data = fontData;
     }
     
-    private void initPaths(){
-        if ( glyphPaths == null ){
-            int numGlyphs = this.getGlyph().getGlyphs().length;
-            glyphPaths = new GeneralPath[numGlyphs];
+    private GeneralPath[] initPaths(){
+        GeneralPath[] paths = (GeneralPath[])hardRef(glyphPaths);
+        if ( paths == null ){
+            synchronized ( locks ){
+                paths = (GeneralPath[])hardRef(glyphPaths);
+                if ( paths == null ){
+                    int numGlyphs = this.getGlyph().getNumGlyphs();
+                    paths = new GeneralPath[numGlyphs];
+                    glyphPaths = softRef(paths);
+                }
+            }
+        }
+        return paths;
+    }
+    
+    /**
+     * Sets whether the glyph paths and glyph images of all fonts are held 
+     * through soft references, so that the platform can reclaim them when 
+     * memory runs low.  They are recreated when the glyphs are drawn again.  
+     * On by default.  Turn it off on platforms whose soft references are 
+     * cleared at every garbage collection, since the caches would then be 
+     * rebuilt constantly.  Applies to caches that are created afterwards.
+     * @param soft True to hold the caches through soft references.
+     * @see com.codename1.ui.Display#createSoftWeakRef(java.lang.Object) 
+     */
+    public static void setSoftCaching(boolean soft){
+        softCaching = soft;
+    }
+    
+    /**
+     * Checks whether glyph paths and images are held through soft references.
+     * @return True if they are.
+     * @see #setSoftCaching(boolean) 
+     */
+    public static boolean isSoftCaching(){
+        return softCaching;
+    }
+    
+    private static volatile boolean softCaching = true;
+    
+    /**
+     * Wraps a cache in a soft reference if soft caching is on and the platform
+     * is running.
+     */
+    static Object softRef(Object cache){
+        if ( !softCaching || !Display.isInitialized() ){
+            return cache;
+        }
+        SoftCache ref = new SoftCache();
+        ref.ref = Display.getInstance().createSoftWeakRef(cache);
+        return ref;
+    }
+    
+    /**
+     * Unwraps a cache that was wrapped by {@link #softRef(java.lang.Object) }.
+     * @return The cache, or null if it was reclaimed or never created.
+     */
+    static Object hardRef(Object ref){
+        if ( ref instanceof SoftCache ){
+            return Display.getInstance().extractHardRef(((SoftCache)ref).ref);
         }
+        return ref;
+    }
+    
+    /**
+     * Marks caches that are held through a soft reference.
+     */
+    private static class SoftCache {
+        Object ref;
+    }
+    
+    /**
+     * Gets the paths of a size bucket, creating them if necessary.
+     */
+    private GeneralPath[] initBucket(GeneralPath[][] buckets, int bucket){
+        GeneralPath[] paths = buckets[bucket];
+        if ( paths == null ){
+            synchronized ( locks ){
+                paths = buckets[bucket];
+                if ( paths == null ){
+                    paths = new GeneralPath[this.getGlyph().getNumGlyphs()];
+                    buckets[bucket] = paths;
+                }
+            }
+        }
+        return paths;
+    }
+    
+    /**
+     * Gets a cached path, or null if it hasn't been computed yet.
+     */
+    GeneralPath getCachedPath(GeneralPath[] paths, int glyphId){
+        synchronized ( locks.get(glyphId) ){
+            return paths[glyphId];
+        }
+    }
+    
+    /**
+     * Caches a computed path, unless another thread has cached it first.
+     * @return The cached path.
+     */
+    GeneralPath putCachedPath(GeneralPath[] paths, int glyphId, GeneralPath path){
+        synchronized ( locks.get(glyphId) ){
+            if ( paths[glyphId] == null ){
+                paths[glyphId] = path;
+            }
+            return paths[glyphId];
+        }
+    }
+    
+    
+    GeneralPath getGlyphPath(int glyphId){
+        GeneralPath[] paths = initPaths();
+        GeneralPath path = getCachedPath(paths, glyphId);
+        FontBoxMetrics metrics = FontBoxMetrics.getListener();
+        if ( metrics != null ){
+            metrics.record(path == null ? FontBoxMetrics.OUTLINE_CACHE_MISS : FontBoxMetrics.OUTLINE_CACHE_HIT, 0);
+        }
+        if ( path == null ){
+            GlyphData data = this.getGlyph().getGlyphData(glyphId);
+            path = new GeneralPath();
+            if ( data != null ){
+                Glyph2D.appendPath(data.getDescription(), path);
+            }
+            path = putCachedPath(paths, glyphId, path);
+        }
+        return path;
         
     }
     
+    /**
+     * Returns the path that should be used to render the given glyph at the given
+     * pixel size.  If curve flattening is enabled and the size is small enough
+     * this is a polyline approximation of the glyph that is cached per size bucket,
+     * otherwise it is the full resolution path.
+     * @param glyphId The glyph id.
+     * @param size The size in pixels.
+     * @return The glyph path in font units.
+     */
+    GeneralPath getGlyphPath(int glyphId, float size){
+        if ( outlineSimplification && size <= maxSimplifiedSize ){
+            return getSimplifiedGlyphPath(glyphId, size);
+        }
+        if ( !curveFlattening || size > maxFlattenedSize ){
+            return getGlyphPath(glyphId);
+        }
+        int bucket = (int)Math.ceil(size / FLATTEN_BUCKET_WIDTH);
+        if ( bucket < 1 ){
+            bucket = 1;
+        }
+        GeneralPath[][] buckets = flattenedPaths;
+        if ( buckets == null ){
+            synchronized ( locks ){
+                buckets = flattenedPaths;
+                if ( buckets == null ){
+                    buckets = new GeneralPath[maxFlattenedSize / FLATTEN_BUCKET_WIDTH + 2][];
+                    flattenedPaths = buckets;
+                }
+            }
+        }
+        GeneralPath[] bucketPaths = initBucket(buckets, bucket);
+        GeneralPath path = getCachedPath(bucketPaths, glyphId);
+        if ( path == null ){
+            // Use the largest size in the bucket so the tolerance holds for all of it.
+            float upem = getHeader().getUnitsPerEm();
+            float tolerance = flatnessTolerance * upem / (bucket * FLATTEN_BUCKET_WIDTH);
+            path = putCachedPath(bucketPaths, glyphId, PathFlattener.flatten(getGlyphPath(glyphId), tolerance));
+        }
+        return path;
+    }
     
-    private GeneralPath getGlyphPath(int glyphId){
-        initPaths();
-        if ( glyphPaths[glyphId] == null ){
-            GlyphData data = this.getGlyph().getGlyphs()[glyphId];
-            Glyph2D g2d = new Glyph2D(data.getDescription(),(short)100, 200);
-            glyphPaths[glyphId] = g2d.getPath();
+    /**
+     * Returns the simplified outline of a glyph for the size bucket of the given
+     * size, computing and caching it if necessary.
+     */
+    private GeneralPath getSimplifiedGlyphPath(int glyphId, float size){
+        int bucket = (int)Math.ceil(size / FLATTEN_BUCKET_WIDTH);
+        if ( bucket < 1 ){
+            bucket = 1;
+        }
+        GeneralPath[][] buckets = simplifiedPaths;
+        if ( buckets == null ){
+            synchronized ( locks ){
+                buckets = simplifiedPaths;
+                if ( buckets == null ){
+                    buckets = new GeneralPath[maxSimplifiedSize / FLATTEN_BUCKET_WIDTH + 2][];
+                    simplifiedPaths = buckets;
+                }
+            }
+        }
+        GeneralPath[] bucketPaths = initBucket(buckets, bucket);
+        GeneralPath path = getCachedPath(bucketPaths, glyphId);
+        if ( path == null ){
+            // Use the largest size in the bucket so the tolerance holds for all of it.
+            float upem = getHeader().getUnitsPerEm();
+            float tolerance = simplificationTolerance * upem / (bucket * FLATTEN_BUCKET_WIDTH);
+            path = putCachedPath(bucketPaths, glyphId, PathSimplifier.simplify(getGlyphPath(glyphId), tolerance));
         }
-        return glyphPaths[glyphId];
+        return path;
+    }
+    
+    /**
+     * Returns the atlas of signed distance fields for this font's glyphs, 
+     * creating it if necessary.
+     * @return The distance field atlas.
+     */
+    public SDFGlyphAtlas getDistanceFieldAtlas(){
+        SDFGlyphAtlas atlas = distanceFieldAtlas;
+        if ( atlas == null ){
+            synchronized ( locks ){
+                atlas = distanceFieldAtlas;
+                if ( atlas == null ){
+                    atlas = new SDFGlyphAtlas(this);
+                    distanceFieldAtlas = atlas;
+                }
+            }
+        }
+        return atlas;
+    }
+    
+    /**
+     * Gets an image of a glyph rendered from its distance field at the given 
+     * size in the given color.  Images are kept in a small LRU cache.
+     */
+    private Image getDistanceFieldImage(int glyphId, int width, int height, int color){
+        Map<DistanceFieldKey,Image> images = distanceFieldImages;
+        if ( images == null ){
+            synchronized ( locks ){
+                images = distanceFieldImages;
+                if ( images == null ){
+                    images = new LinkedHashMap<DistanceFieldKey,Image>(16, 0.75f, true){
+                        @Override
+                        protected boolean removeEldestEntry(Map.Entry<DistanceFieldKey,Image> eldest) {
+                            return size() > MAX_DISTANCE_FIELD_IMAGES;
+                        }
+                    };
+                    distanceFieldImages = images;
+                }
+            }
+        }
+        DistanceFieldKey key = new DistanceFieldKey(glyphId, width, height, color);
+        Image img;
+        // lookups reorder the map
+        synchronized ( images ){
+            img = images.get(key);
+        }
+        if ( img == null ){
+            int[] argb = getDistanceFieldAtlas().render(glyphId, width, height, color, null);
+            img = Image.createImage(argb, width, height);
+            synchronized ( images ){
+                images.put(key, img);
+            }
+        }
+        return img;
+    }
+    
+    /**
+     * The number of colors that images of a glyph are kept in.
+     */
+    private static final int BITMAP_COLORS = 4;
+    
+    /**
+     * An image of a glyph mask and the color it was rendered in.  The image and
+     * color are final, so that it can be published to other threads without a 
+     * lock.  The use time is only a hint for picking the image to replace.
+     */
+    private static class GlyphImage {
+        final Image image;
+        final int color;
+        long lastUsed;
+        
+        GlyphImage(Image image, int color, long lastUsed){
+            this.image = image;
+            this.color = color;
+            this.lastUsed = lastUsed;
+        }
+    }
+    
+    /**
+     * The parameters of a stroke, used as a cache key since strokes are mutable.
+     */
+    private static class StrokeKey {
+        final float lineWidth;
+        final int capStyle;
+        final int joinStyle;
+        final float miterLimit;
+        
+        StrokeKey(Stroke stroke){
+            lineWidth = stroke.getLineWidth();
+            capStyle = stroke.getCapStyle();
+            joinStyle = stroke.getJoinStyle();
+            miterLimit = stroke.getMiterLimit();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if ( !(o instanceof StrokeKey) ){
+                return false;
+            }
+            StrokeKey k = (StrokeKey)o;
+            return k.lineWidth == lineWidth && k.capStyle == capStyle && k.joinStyle == joinStyle && k.miterLimit == miterLimit;
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = 7;
+            hash = 41 * hash + Float.floatToIntBits(lineWidth);
+            hash = 41 * hash + capStyle;
+            hash = 41 * hash + joinStyle;
+            hash = 41 * hash + Float.floatToIntBits(miterLimit);
+            return hash;
+        }
+    }
+    
+    private static class DistanceFieldKey {
+        final int glyphId;
+        final int width;
+        final int height;
+        final int color;
         
+        DistanceFieldKey(int glyphId, int width, int height, int color){
+            this.glyphId = glyphId;
+            this.width = width;
+            this.height = height;
+            this.color = color;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if ( !(o instanceof DistanceFieldKey) ){
+                return false;
+            }
+            DistanceFieldKey k = (DistanceFieldKey)o;
+            return k.glyphId == glyphId && k.width == width && k.height == height && k.color == color;
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = 7;
+            hash = 41 * hash + glyphId;
+            hash = 41 * hash + width;
+            hash = 41 * hash + height;
+            hash = 41 * hash + color;
+            return hash;
+        }
+    }
+    
+    /**
+     * Enables or disables flattening of glyph curves into polylines for small
+     * sizes.  Some platforms tessellate quadratic curves far more finely than is
+     * necessary for small text, so filling a flattened outline is cheaper there.
+     * @param flatten True to flatten curves for sizes up to {@link #getMaxFlattenedSize() }
+     */
+    public void setCurveFlattening(boolean flatten){
+        curveFlattening = flatten;
+    }
+    
+    /**
+     * Checks whether curve flattening is enabled.
+     * @return True if glyph curves are flattened for small sizes.
+     */
+    public boolean isCurveFlattening(){
+        return curveFlattening;
+    }
+    
+    /**
+     * Sets the maximum distance (in pixels) between a flattened outline and the
+     * true curve.
+     * @param tolerance The tolerance in pixels.
+     */
+    public void setFlatnessTolerance(float tolerance){
+        if ( tolerance != flatnessTolerance ){
+            flatnessTolerance = tolerance;
+            flattenedPaths = null;
+        }
+    }
+    
+    /**
+     * Gets the maximum distance (in pixels) between a flattened outline and the
+     * true curve.
+     * @return The tolerance in pixels.
+     */
+    public float getFlatnessTolerance(){
+        return flatnessTolerance;
+    }
+    
+    /**
+     * Sets the largest pixel size that is rendered using flattened outlines.  Larger
+     * sizes always use the full resolution curves.
+     * @param size The size in pixels.
+     */
+    public void setMaxFlattenedSize(int size){
+        if ( size != maxFlattenedSize ){
+            maxFlattenedSize = size;
+            flattenedPaths = null;
+        }
+    }
+    
+    /**
+     * Gets the largest pixel size that is rendered using flattened outlines.
+     * @return The size in pixels.
+     */
+    public int getMaxFlattenedSize(){
+        return maxFlattenedSize;
+    }
+    
+    /**
+     * Enables or disables outline simplification for small sizes.  When enabled,
+     * glyphs rendered at or below {@link #getMaxSimplifiedSize() } are drawn from
+     * flattened outlines from which all vertices that don't move the outline by
+     * more than {@link #getSimplificationTolerance() } pixels have been removed.  
+     * Simplification takes precedence over curve flattening for those sizes.
+     * @param simplify True to simplify outlines for small sizes.
+     */
+    public void setOutlineSimplification(boolean simplify){
+        outlineSimplification = simplify;
+    }
+    
+    /**
+     * Checks whether outline simplification is enabled.
+     * @return True if glyph outlines are simplified for small sizes.
+     */
+    public boolean isOutlineSimplification(){
+        return outlineSimplification;
+    }
+    
+    /**
+     * Sets the maximum distance (in pixels) that simplification may move an 
+     * outline.
+     * @param tolerance The tolerance in pixels.
+     */
+    public void setSimplificationTolerance(float tolerance){
+        if ( tolerance != simplificationTolerance ){
+            simplificationTolerance = tolerance;
+            simplifiedPaths = null;
+        }
+    }
+    
+    /**
+     * Gets the maximum distance (in pixels) that simplification may move an
+     * outline.
+     * @return The tolerance in pixels.
+     */
+    public float getSimplificationTolerance(){
+        return simplificationTolerance;
+    }
+    
+    /**
+     * Sets the largest pixel size that is rendered using simplified outlines.
+     * @param size The size in pixels.
+     */
+    public void setMaxSimplifiedSize(int size){
+        if ( size != maxSimplifiedSize ){
+            maxSimplifiedSize = size;
+            simplifiedPaths = null;
+        }
+    }
+    
+    /**
+     * Gets the largest pixel size that is rendered using simplified outlines.
+     * @return The size in pixels.
+     */
+    public int getMaxSimplifiedSize(){
+        return maxSimplifiedSize;
+    }
+    
+    /**
+     * Sets the number of horizontal subpixel positions that glyph bitmaps are 
+     * cached at.  Blitted glyphs are placed at their exact fractional pen 
+     * position, rounded to the nearest phase, so spacing matches vector 
+     * rendering at the cost of one bitmap per glyph and phase.  1 snaps glyphs
+     * to whole pixels.
+     * @param phases The number of phases, from 1 to {@link #MAX_SUBPIXEL_PHASES}.
+     */
+    public void setSubpixelPhases(int phases){
+        subpixelPhases = Math.max(1, Math.min(phases, MAX_SUBPIXEL_PHASES));
+    }
+    
+    /**
+     * Gets the number of horizontal subpixel positions that glyph bitmaps are
+     * cached at.
+     * @return The number of phases.
+     */
+    public int getSubpixelPhases(){
+        return subpixelPhases;
+    }
+    
+    /**
+     * Gets the advance width of a glyph in font units.  Glyphs beyond the end 
+     * of the horizontal metrics share the last advance width.
+     */
+    int getAdvanceWidth(int glyphId){
+        int[] advances = getHorizontalMetrics().getAdvanceWidth();
+        if ( advances.length == 0 ){
+            return 0;
+        }
+        return advances[Math.min(glyphId, advances.length - 1)];
     }
     
     
@@ -121,6 +678,58 @@ public class TrueTypeFont
         tables.put( table.getTag(), table );
     }
     
+    /**
+     * Add a table definition whose data is read from the font data the first
+     * time the table is accessed.
+     * 
+     * @param table The table to add.
+     */
+    void addPendingTable( TTFTable table )
+    {
+        table.setPending( true );
+        addTable( table );
+    }
+    
+    private TTFTable getTable( String tag )
+    {
+        TTFTable table = tables.get( tag );
+        // tables that have been read are returned without locking
+        if ( table != null && table.isPending() )
+        {
+            initPendingTable( table );
+        }
+        return table;
+    }
+    
+    private void initPendingTable( TTFTable table )
+    {
+        // the stream is shared with the lazily read glyphs
+        synchronized ( data )
+        {
+            if ( !table.isPending() )
+            {
+                return;
+            }
+            FontBoxMetrics metrics = FontBoxMetrics.getListener();
+            long start = metrics == null ? 0 : System.currentTimeMillis();
+            try
+            {
+                data.seek( table.getOffset() );
+                table.initData( this, data );
+            }
+            catch ( IOException ex )
+            {
+                Log.e( ex );
+            }
+            if ( metrics != null )
+            {
+                metrics.tableParsed( table.getTag(), System.currentTimeMillis() - start );
+            }
+            // only publish the table once it is readable by other threads
+            table.setPending( false );
+        }
+    }
+    
     /**
      * Get all of the tables.
      * 
@@ -128,6 +737,15 @@ public class TrueTypeFont
      */
     public Collection<TTFTable> getTables()
     {
+        Iterator<TTFTable> it = tables.values().iterator();
+        while ( it.hasNext() )
+        {
+            TTFTable table = it.next();
+            if ( table.isPending() )
+            {
+                initPendingTable( table );
+            }
+        }
         return tables.values();
     }
     
@@ -138,7 +756,7 @@ public class TrueTypeFont
      */
     public NamingTable getNaming()
     {
-        return (NamingTable)tables.get( NamingTable.TAG );
+        return (NamingTable)getTable( NamingTable.TAG );
     }
     
     /**
@@ -148,7 +766,17 @@ public class TrueTypeFont
      */
     public PostScriptTable getPostScript()
     {
-        return (PostScriptTable)tables.get( PostScriptTable.TAG );
+        return (PostScriptTable)getTable( PostScriptTable.TAG );
+    }
+    
+    /**
+     * Get the kerning table for this TTF.
+     * 
+     * @return The kerning table, or null if the font has none.
+     */
+    public KerningTable getKerning()
+    {
+        return (KerningTable)getTable( KerningTable.TAG );
     }
     
     /**
@@ -158,7 +786,7 @@ public class TrueTypeFont
      */
     public OS2WindowsMetricsTable getOS2Windows()
     {
-        return (OS2WindowsMetricsTable)tables.get( OS2WindowsMetricsTable.TAG );
+        return (OS2WindowsMetricsTable)getTable( OS2WindowsMetricsTable.TAG );
     }
     
     /**
@@ -168,7 +796,7 @@ public class TrueTypeFont
      */
     public MaximumProfileTable getMaximumProfile()
     {
-        return (MaximumProfileTable)tables.get( MaximumProfileTable.TAG );
+        return (MaximumProfileTable)getTable( MaximumProfileTable.TAG );
     }
     
     /**
@@ -178,7 +806,7 @@ public class TrueTypeFont
      */
     public HeaderTable getHeader()
     {
-        return (HeaderTable)tables.get( HeaderTable.TAG );
+        return (HeaderTable)getTable( HeaderTable.TAG );
     }
     
     /**
@@ -188,7 +816,7 @@ public class TrueTypeFont
      */
     public HorizontalHeaderTable getHorizontalHeader()
     {
-        return (HorizontalHeaderTable)tables.get( HorizontalHeaderTable.TAG );
+        return (HorizontalHeaderTable)getTable( HorizontalHeaderTable.TAG );
     }
     
     /**
@@ -198,7 +826,7 @@ public class TrueTypeFont
      */
     public HorizontalMetricsTable getHorizontalMetrics()
     {
-        return (HorizontalMetricsTable)tables.get( HorizontalMetricsTable.TAG );
+        return (HorizontalMetricsTable)getTable( HorizontalMetricsTable.TAG );
     }
     
     /**
@@ -208,7 +836,7 @@ public class TrueTypeFont
      */
     public IndexToLocationTable getIndexToLocation()
     {
-        return (IndexToLocationTable)tables.get( IndexToLocationTable.TAG );
+        return (IndexToLocationTable)getTable( IndexToLocationTable.TAG );
     }
     
     /**
@@ -218,7 +846,7 @@ public class TrueTypeFont
      */
     public GlyphTable getGlyph()
     {
-        return (GlyphTable)tables.get( GlyphTable.TAG );
+        return (GlyphTable)getTable( GlyphTable.TAG );
     }
     
     /**
@@ -228,15 +856,31 @@ public class TrueTypeFont
      */
     public CMAPTable getCMAP()
     {
-        return (CMAPTable)tables.get( CMAPTable.TAG );
+        return (CMAPTable)getTable( CMAPTable.TAG );
     }
     
     public com.codename1.ui.TTFFont getFont(String asName, float size){
-        String key = asName+size;
-        if ( fontCache.containsKey(key)){
-            return fontCache.get(key);
-        } else {
-            com.codename1.ui.TTFFont f = new com.codename1.ui.TTFFont(asName, new PiscesFontCollection(size));
+        lastUsed = ++useClock;
+        synchronized ( collections ){
+            PiscesFontCollection collection = null;
+            Iterator<WeakReference> it = collections.iterator();
+            while ( it.hasNext() ){
+                PiscesFontCollection c = (PiscesFontCollection)it.next().get();
+                if ( c == null ){
+                    it.remove();
+                } else if ( c.size == size ){
+                    if ( asName.equals(c.fontName) ){
+                        return c.font;
+                    }
+                    collection = c;
+                    break;
+                }
+            }
+            if ( collection == null ){
+                collection = new PiscesFontCollection(size);
+                collections.add(new WeakReference(collection));
+            }
+            com.codename1.ui.TTFFont f = new com.codename1.ui.TTFFont(asName, collection);
             
             HeaderTable h = this.getHeader();
             float upem = h.getUnitsPerEm();
@@ -248,11 +892,244 @@ public class TrueTypeFont
             descender = descender * scale;
             f.setAscent((int)ascender);
             f.setDescent((int)descender);
-            fontCache.put(key, f);
+            collection.font = f;
+            collection.fontName = asName;
             return f;
         }
     }
     
+    /**
+     * Gets the glyph collections that are still referenced, and forgets the 
+     * ones that have been collected.
+     */
+    private List<PiscesFontCollection> getCollections(){
+        List<PiscesFontCollection> live = new ArrayList<PiscesFontCollection>();
+        synchronized ( collections ){
+            Iterator<WeakReference> it = collections.iterator();
+            while ( it.hasNext() ){
+                PiscesFontCollection c = (PiscesFontCollection)it.next().get();
+                if ( c == null ){
+                    it.remove();
+                } else {
+                    live.add(c);
+                }
+            }
+        }
+        return live;
+    }
+    
+    /**
+     * Checks whether a font returned by {@link #getFont(java.lang.String, float) },
+     * or derived from one, may still be referenced, e.g. by a style.  A font
+     * that is no longer referenced counts as in use until the garbage 
+     * collector has reclaimed it.
+     * @return True if the glyphs of the font may still be drawn.
+     */
+    public boolean isInUse(){
+        return !getCollections().isEmpty();
+    }
+    
+    /**
+     * Looks up the glyph of a character in the font's character maps.
+     * @param c The character.
+     * @return The glyph id, or 0 (the missing glyph) if the font has no glyph
+     * for the character.
+     */
+    public int getGlyphId(char c){
+        FontBoxMetrics metrics = FontBoxMetrics.getListener();
+        if ( metrics != null ){
+            metrics.record(FontBoxMetrics.CMAP_LOOKUP, 0);
+        }
+        int glyphId = -1;
+        CMAPEncodingEntry[] maps = getCMAP().getCmaps();
+        for ( int i=0; i<maps.length; i++){
+            glyphId = maps[i].getGlyphId((int)c);
+            if ( glyphId >= 0 ){
+               break;
+            }
+        }
+        
+        if (glyphId == -1 ){
+            glyphId = 0;
+        }
+        return glyphId;
+    }
+    
+    /**
+     * Checks whether the font has a glyph for a character.
+     * @param c The character.
+     * @return True if the character maps to a glyph other than the missing glyph.
+     */
+    public boolean hasGlyph(char c){
+        return getGlyphId(c) > 0;
+    }
+
+    /**
+     * Decodes the glyphs of the given characters and builds the outlines that
+     * are drawn at the given size, along with the metrics and kerning tables,
+     * so that the first paint of text with them doesn't pay for it.  Can be
+     * called from any thread.  Characters that the font has no glyph for are
+     * skipped.
+     * @param chars The characters, in any order and with repeats.
+     * @param size The size in pixels.
+     */
+    public void warmUp(String chars, float size){
+        getHorizontalMetrics();
+        getKerning();
+        GlyphTable glyphs = getGlyph();
+        for ( int i=0, n=chars.length(); i<n; i++ ){
+            int glyphId = getGlyphId(chars.charAt(i));
+            if ( glyphId > 0 ){
+                glyphs.getGlyphData(glyphId);
+                getGlyphPath(glyphId, size);
+            }
+        }
+    }
+
+    /**
+     * Returns when the font was last used, as a value of a counter that is
+     * incremented by every glyph lookup of any font.  Fonts with smaller values
+     * were used less recently.
+     * @return The use counter at the last use of this font.
+     */
+    public long getLastUsed(){
+        return lastUsed;
+    }
+    
+    /**
+     * Records a use of the font, for callers that keep glyphs they looked up
+     * and so don't look them up again.
+     */
+    public void touch(){
+        lastUsed = ++useClock;
+    }
+    
+    /**
+     * Estimates the memory used by the font: the font data, the glyphs that 
+     * have been read, and the cached paths, masks and images of all sizes.
+     * @return The estimated size in bytes.
+     * @see #getMemoryReport() 
+     */
+    public long getMemoryUsage(){
+        return getMemoryReport().getTotalBytes();
+    }
+    
+    /**
+     * Estimates the memory used by the font, broken down by component.  
+     * Tables that haven't been read yet aren't counted.
+     * @return The report.
+     */
+    public MemoryReport getMemoryReport(){
+        MemoryReport report = new MemoryReport();
+        TTFDataStream d = data;
+        report.add(MemoryReport.FONT_DATA, d == null ? 0 : d.getMemorySize(), 1);
+        GlyphTable glyf = (GlyphTable)getLoadedTable(GlyphTable.TAG);
+        if ( glyf != null ){
+            glyf.addMemoryUsage(report);
+        }
+        CMAPTable cmap = (CMAPTable)getLoadedTable(CMAPTable.TAG);
+        if ( cmap != null && cmap.getCmaps() != null ){
+            CMAPEncodingEntry[] maps = cmap.getCmaps();
+            for ( int i=0; i<maps.length; i++ ){
+                maps[i].addMemoryUsage(report);
+            }
+        }
+        HorizontalMetricsTable hmtx = (HorizontalMetricsTable)getLoadedTable(HorizontalMetricsTable.TAG);
+        if ( hmtx != null ){
+            long bytes = 0;
+            if ( hmtx.getAdvanceWidth() != null ){
+                bytes += 16 + hmtx.getAdvanceWidth().length * 4;
+            }
+            if ( hmtx.getLeftSideBearing() != null ){
+                bytes += 16 + hmtx.getLeftSideBearing().length * 2;
+            }
+            if ( hmtx.getNonHorizontalLeftSideBearing() != null ){
+                bytes += 16 + hmtx.getNonHorizontalLeftSideBearing().length * 2;
+            }
+            report.add(MemoryReport.METRICS, bytes, 1);
+        }
+        addPaths(report, MemoryReport.OUTLINES, (GeneralPath[])hardRef(glyphPaths), PATH_BYTES);
+        GeneralPath[][] flattened = flattenedPaths;
+        for ( int i=0; flattened != null && i<flattened.length; i++ ){
+            addPaths(report, MemoryReport.FLATTENED_OUTLINES, flattened[i], FLATTENED_PATH_BYTES);
+        }
+        GeneralPath[][] simplified = simplifiedPaths;
+        for ( int i=0; simplified != null && i<simplified.length; i++ ){
+            addPaths(report, MemoryReport.FLATTENED_OUTLINES, simplified[i], FLATTENED_PATH_BYTES);
+        }
+        SDFGlyphAtlas atlas = distanceFieldAtlas;
+        if ( atlas != null ){
+            // the samples and six ints of placement per glyph
+            byte[] samples = atlas.getAtlasData();
+            report.add(MemoryReport.DISTANCE_FIELDS, (samples == null ? 0 : samples.length) + (glyf == null ? 0 : glyf.getNumGlyphs() * 24), 1);
+        }
+        Map<DistanceFieldKey,Image> images = distanceFieldImages;
+        if ( images != null ){
+            synchronized ( images ){
+                for ( Image img : images.values() ){
+                    report.add(MemoryReport.DISTANCE_FIELDS, 64 + img.getWidth() * img.getHeight() * 4, 1);
+                }
+            }
+        }
+        for ( PiscesFontCollection c : getCollections() ){
+            c.addMemoryUsage(report);
+        }
+        return report;
+    }
+    
+    private static void addPaths(MemoryReport report, int component, GeneralPath[] paths, int pathBytes){
+        if ( paths == null ){
+            return;
+        }
+        int count = 0;
+        for ( int i=0; i<paths.length; i++ ){
+            if ( paths[i] != null ){
+                count++;
+            }
+        }
+        report.add(component, paths.length * 4 + (long)count * pathBytes, count);
+    }
+    
+    /**
+     * Releases the glyphs that have been read and the cached paths, masks and 
+     * images of all sizes.  They are recreated when the glyphs are drawn again,
+     * so fonts that are in use stay usable.  Must be called on the EDT.
+     */
+    public void releaseCaches(){
+        glyphPaths = null;
+        flattenedPaths = null;
+        simplifiedPaths = null;
+        distanceFieldAtlas = null;
+        distanceFieldImages = null;
+        for ( PiscesFontCollection c : getCollections() ){
+            c.releaseCaches();
+        }
+        GlyphTable glyf = (GlyphTable)getLoadedTable(GlyphTable.TAG);
+        if ( glyf != null ){
+            glyf.releaseGlyphs();
+        }
+    }
+    
+    /**
+     * Releases the caches of the font when the application is running low on
+     * memory.  Must be called on the EDT.
+     * @see #releaseCaches() 
+     */
+    public void onLowMemory(){
+        releaseCaches();
+    }
+    
+    /**
+     * Gets a table if it has been read, without reading it.
+     */
+    private TTFTable getLoadedTable(String tag){
+        TTFTable table = tables.get(tag);
+        if ( table == null || table.isPending() ){
+            return null;
+        }
+        return table;
+    }
+    
     /**
      * This permit to get the data of the True Type TTFFont
  program representing the stream used to build this 
@@ -267,51 +1144,339 @@ public class TrueTypeFont
        return data.getOriginalData(); 
     }
     
-    class PiscesFontCollection implements Glyph.Collection {
+    /**
+     * Gets the bytes of the font program, without copying them if the font is
+     * held in memory.  The returned array must not be modified.
+     * 
+     * @return The font data.
+     * @throws IOException If there is an error reading the font data.
+     */
+    byte[] getFontData() throws IOException 
+    {
+        byte[] bytes = data.getData();
+        if (bytes == null) 
+        {
+            bytes = new MemoryTTFDataStream(data.getOriginalData()).getData();
+        }
+        return bytes;
+    }
+    
+    class PiscesFontCollection implements TTFFont.PrerasterizingCollection {
         
         final float size;
         
-        Image[] bitmaps;
+        /**
+         * The font most recently returned by getFont() for this size, and its
+         * name.
+         */
+        com.codename1.ui.TTFFont font;
+        String fontName;
+        
+        /**
+         * Anti-aliased masks of the glyphs at this collection's size, indexed by 
+         * subpixel phase and then by glyph id.
+         */
+        volatile GlyphBitmap[][] masks;
         
+        /**
+         * Images of the glyph masks in the last {@link #BITMAP_COLORS} colors 
+         * they were rendered in, indexed by subpixel phase and then by glyph 
+         * id, held through a soft reference like the glyph paths.
+         */
+        volatile Object bitmaps;
         
+        /**
+         * Fillable stroke outlines in font units, keyed by stroke parameters and 
+         * indexed by glyph id.
+         */
+        volatile Map<StrokeKey,GeneralPath[]> strokedPaths;
         
         public PiscesFontCollection(float size){
             this.size = size;
         }
+        
+        /**
+         * Releases the masks, images and stroke outlines of this size.
+         */
+        void releaseCaches(){
+            masks = null;
+            bitmaps = null;
+            strokedPaths = null;
+        }
+        
+        /**
+         * Adds the masks, images and stroke outlines of this size to a memory
+         * report.
+         */
+        void addMemoryUsage(MemoryReport report){
+            // the collection and the font returned by getFont()
+            report.add(MemoryReport.SIZES, 128, 1);
+            GlyphBitmap[][] m = masks;
+            if ( m != null ){
+                for ( int phase=0; phase<m.length; phase++ ){
+                    GlyphBitmap[] phaseMasks = m[phase];
+                    if ( phaseMasks == null ){
+                        continue;
+                    }
+                    report.add(MemoryReport.MASKS, phaseMasks.length * 4, 0);
+                    for ( int i=0; i<phaseMasks.length; i++ ){
+                        if ( phaseMasks[i] != null ){
+                            report.add(MemoryReport.MASKS, 32 + phaseMasks[i].getWidth() * phaseMasks[i].getHeight(), 1);
+                        }
+                    }
+                }
+            }
+            GlyphImage[][][] b = (GlyphImage[][][])hardRef(bitmaps);
+            if ( b != null ){
+                for ( int phase=0; phase<b.length; phase++ ){
+                    GlyphImage[][] images = b[phase];
+                    if ( images == null ){
+                        continue;
+                    }
+                    report.add(MemoryReport.IMAGES, images.length * 4, 0);
+                    for ( int i=0; i<images.length; i++ ){
+                        GlyphImage[] colors = images[i];
+                        if ( colors == null ){
+                            continue;
+                        }
+                        report.add(MemoryReport.IMAGES, 16 + colors.length * 4, 0);
+                        for ( int c=0; c<colors.length; c++ ){
+                            GlyphImage img = colors[c];
+                            if ( img != null ){
+                                report.add(MemoryReport.IMAGES, 64 + img.image.getWidth() * img.image.getHeight() * 4, 1);
+                            }
+                        }
+                    }
+                }
+            }
+            Map<StrokeKey,GeneralPath[]> stroked = strokedPaths;
+            if ( stroked != null ){
+                synchronized ( stroked ){
+                    for ( GeneralPath[] paths : stroked.values() ){
+                        addPaths(report, MemoryReport.STROKE_OUTLINES, paths, STROKED_PATH_BYTES);
+                    }
+                }
+            }
+        }
+        
+        /**
+         * Gets the fillable outline of the stroke of a glyph at this collection's
+         * size, computing and caching it if necessary.
+         */
+        GeneralPath getStrokedGlyphPath(int glyphId, Stroke stroke){
+            Map<StrokeKey,GeneralPath[]> stroked = strokedPaths;
+            if ( stroked == null ){
+                synchronized ( this ){
+                    stroked = strokedPaths;
+                    if ( stroked == null ){
+                        stroked = new HashMap<StrokeKey,GeneralPath[]>();
+                        strokedPaths = stroked;
+                    }
+                }
+            }
+            StrokeKey key = new StrokeKey(stroke);
+            GeneralPath[] paths;
+            synchronized ( stroked ){
+                paths = stroked.get(key);
+                if ( paths == null ){
+                    paths = new GeneralPath[TrueTypeFont.this.getGlyph().getNumGlyphs()];
+                    stroked.put(key, paths);
+                }
+            }
+            GeneralPath path = getCachedPath(paths, glyphId);
+            if ( path == null ){
+                float unitsPerPixel = getHeader().getUnitsPerEm() / size;
+                path = putCachedPath(paths, glyphId, OutlineStroker.stroke(getGlyphPath(glyphId, size), 
+                        stroke.getLineWidth() * unitsPerPixel, 
+                        stroke.getJoinStyle(), 
+                        stroke.getMiterLimit(), 
+                        0.2f * unitsPerPixel));
+            }
+            return path;
+        }
 
         
-        Image[] bitmaps(){
-            if ( bitmaps == null ){
-                bitmaps = new Image[TrueTypeFont.this.getGlyph().getGlyphs().length];
+        /**
+         * Gets the anti-aliased mask of a glyph at this collection's size and 
+         * the given subpixel phase, rasterizing it if necessary.
+         */
+        GlyphBitmap getMask(int glyphId, int phase){
+            GlyphBitmap[] phaseMasks = getMasks(phase);
+            // masks are immutable, so they can be published without a lock
+            GlyphBitmap mask = phaseMasks[glyphId];
+            FontBoxMetrics metrics = FontBoxMetrics.getListener();
+            if ( metrics != null ){
+                metrics.record(mask == null ? FontBoxMetrics.MASK_CACHE_MISS : FontBoxMetrics.MASK_CACHE_HIT, 0);
             }
-            return bitmaps;
+            if ( mask == null ){
+                mask = GlyphRasterizer.rasterize(TrueTypeFont.this, glyphId, size, 
+                        (float)phase / subpixelPhases);
+                phaseMasks[glyphId] = mask;
+            }
+            return mask;
         }
         
+        /**
+         * Gets the glyph masks of a subpixel phase, indexed by glyph id.
+         */
+        private GlyphBitmap[] getMasks(int phase){
+            int phases = subpixelPhases;
+            GlyphBitmap[][] m = masks;
+            if ( m == null || m.length != phases || m[phase] == null ){
+                synchronized ( this ){
+                    m = masks;
+                    if ( m == null || m.length != phases ){
+                        m = new GlyphBitmap[phases][];
+                        bitmaps = null;
+                        masks = m;
+                    }
+                    if ( m[phase] == null ){
+                        m[phase] = new GlyphBitmap[TrueTypeFont.this.getGlyph().getNumGlyphs()];
+                    }
+                }
+            }
+            return m[phase];
+        }
         
+        public void prerasterize(String chars) {
+            final int phases = subpixelPhases;
+            GlyphTable glyphs = TrueTypeFont.this.getGlyph();
+            boolean[] seen = new boolean[glyphs.getNumGlyphs()];
+            int[] ids = new int[chars.length()];
+            int count = 0;
+            for ( int i=0; i<chars.length(); i++ ){
+                int glyphId = getGlyphId(chars.charAt(i));
+                if ( seen[glyphId] ){
+                    continue;
+                }
+                seen[glyphId] = true;
+                GlyphBitmap[][] m = masks;
+                for ( int phase=0; phase<phases; phase++ ){
+                    if ( m == null || m.length != phases || m[phase] == null || m[phase][glyphId] == null ){
+                        ids[count++] = glyphId;
+                        break;
+                    }
+                }
+            }
+            if ( count == 0 ){
+                return;
+            }
+            final int[] glyphIds = new int[count];
+            System.arraycopy(ids, 0, glyphIds, 0, count);
+            final GlyphData[] data = new GlyphData[count];
+            for ( int i=0; i<count; i++ ){
+                data[i] = glyphs.getGlyphData(glyphIds[i]);
+            }
+            final float scale = size / getHeader().getUnitsPerEm();
+            GlyphRasterizerPool.getDefault().submit(new Runnable() {
+                public void run() {
+                    final GlyphBitmap[][] results = new GlyphBitmap[glyphIds.length][phases];
+                    for ( int i=0; i<glyphIds.length; i++ ){
+                        GlyphData d = data[i];
+                        if ( d == null || d.getDescription().getPointCount() == 0 ){
+                            for ( int phase=0; phase<phases; phase++ ){
+                                results[i][phase] = new GlyphBitmap(0, 0, 0, 0, new byte[0]);
+                            }
+                            continue;
+                        }
+                        // a private outline, so the font's path caches aren't touched off the EDT
+                        GeneralPath outline = new GeneralPath();
+                        Glyph2D.appendPath(d.getDescription(), outline);
+                        for ( int phase=0; phase<phases; phase++ ){
+                            results[i][phase] = GlyphRasterizer.rasterize(d, outline, scale, (float)phase / phases);
+                        }
+                    }
+                    Display.getInstance().callSerially(new Runnable() {
+                        public void run() {
+                            publishMasks(glyphIds, results, phases);
+                        }
+                    });
+                }
+            });
+        }
         
-        public TTFFont.Kind getKind() {
-            return TTFFont.Kind.Draw;
+        /**
+         * Adds pre-rasterized masks to the cache.
+         */
+        private void publishMasks(int[] glyphIds, GlyphBitmap[][] results, int phases){
+            if ( phases != subpixelPhases ){
+                // rendered for a phase count that is no longer in use
+                return;
+            }
+            for ( int phase=0; phase<phases; phase++ ){
+                GlyphBitmap[] phaseMasks = getMasks(phase);
+                for ( int i=0; i<glyphIds.length; i++ ){
+                    if ( phaseMasks[glyphIds[i]] == null ){
+                        phaseMasks[glyphIds[i]] = results[i][phase];
+                    }
+                }
+            }
         }
-
-        private int getGlyphId(char c ){
-            int glyphId = -1;
-            CMAPEncodingEntry[] maps = getCMAP().getCmaps();
-            for ( int i=0; i<maps.length; i++){
-                glyphId = maps[i].getGlyphId((int)c);
-                if ( glyphId >= 0 ){
-                   break;
+        
+        /**
+         * Gets an image of a glyph at the given subpixel phase in the given 
+         * color, rendering it from the glyph's mask if necessary.  Images are
+         * kept in the {@link #BITMAP_COLORS} most recently used colors of each
+         * glyph, so that text in a few colors doesn't render the images again
+         * on every paint.
+         * @return The image, or null for glyphs without an outline.
+         */
+        Image getBitmap(int glyphId, int phase, int color){
+            GlyphBitmap mask = getMask(glyphId, phase);
+            if ( mask.isEmpty() ){
+                return null;
+            }
+            GlyphImage[][][] b = (GlyphImage[][][])hardRef(bitmaps);
+            if ( b == null || b.length <= phase || b[phase] == null ){
+                synchronized ( this ){
+                    b = (GlyphImage[][][])hardRef(bitmaps);
+                    if ( b == null || b.length <= phase ){
+                        b = new GlyphImage[subpixelPhases][][];
+                        bitmaps = softRef(b);
+                    }
+                    if ( b[phase] == null ){
+                        b[phase] = new GlyphImage[TrueTypeFont.this.getGlyph().getNumGlyphs()][];
+                    }
                 }
             }
-            
-            if (glyphId == -1 ){
-                glyphId = 0;
+            color = color & 0xffffff;
+            long now = ++useClock;
+            GlyphImage[] colors = b[phase][glyphId];
+            if ( colors == null ){
+                colors = new GlyphImage[BITMAP_COLORS];
+                b[phase][glyphId] = colors;
+            }
+            // a race may render an image twice or drop one, which is harmless
+            int victim = 0;
+            for ( int i=0; i<colors.length; i++ ){
+                GlyphImage img = colors[i];
+                if ( img == null ){
+                    victim = i;
+                    break;
+                }
+                if ( img.color == color ){
+                    img.lastUsed = now;
+                    return img.image;
+                }
+                if ( img.lastUsed < colors[victim].lastUsed ){
+                    victim = i;
+                }
             }
-            return glyphId;
+            GlyphImage img = new GlyphImage(Image.createImage(mask.toARGB(color, null), mask.getWidth(), mask.getHeight()), color, now);
+            colors[victim] = img;
+            return img.image;
         }
         
+        
+        
+        public TTFFont.Kind getKind() {
+            return TTFFont.Kind.Draw;
+        }
+
         public Glyph getGlyph(char c) {
+            lastUsed = ++useClock;
             int glyphId = getGlyphId(c);
-            return new GlyphImpl(TrueTypeFont.this.getGlyph().getGlyphs()[glyphId], c, size, glyphId);
+            return new GlyphImpl(TrueTypeFont.this.getGlyph().getGlyphData(glyphId), c, size, glyphId);
         }
 
         public int getMaxWidth() {
@@ -338,7 +1503,7 @@ public class TrueTypeFont
         
         
         
-        class GlyphImpl implements Glyph {
+        class GlyphImpl implements TTFFont.DistanceFieldGlyph, TTFFont.StrokeOutlineGlyph, TTFFont.SubpixelGlyph {
 
             final float size;
             final GlyphData data;
@@ -357,20 +1522,9 @@ public class TrueTypeFont
                 return id;
             }
 
-            private Image getBitmap(){
-                if ( bitmaps()[glyphId] == null ){
-                    Image img = Image.createImage(getWidth(), getHeight());
-                    Graphics g = img.getGraphics();
-                    g.setColor(0x0);
-                    draw(g, 0, 0, 0f);
-                    bitmaps()[glyphId] = img;
-                }
-                return bitmaps()[glyphId];
-            }
-
             public int getWidth() {
                 HeaderTable h = TrueTypeFont.this.getHeader();
-                float advance = TrueTypeFont.this.getHorizontalMetrics().getAdvanceWidth()[glyphId];
+                float advance = TrueTypeFont.this.getAdvanceWidth(glyphId);
 
                 float upem = h.getUnitsPerEm();
 
@@ -383,11 +1537,35 @@ public class TrueTypeFont
                 return (int)getMaxHeight();
             }
 
+            public int getFixedAdvance() {
+                float upem = TrueTypeFont.this.getHeader().getUnitsPerEm();
+                return Math.round(size * TrueTypeFont.this.getAdvanceWidth(glyphId) * 64 / upem);
+            }
+            
             public Glyph blit(Graphics g, int x, int y, float opacity) {
+                return blitFixed(g, x << 6, y, opacity);
+            }
+            
+            public Glyph blitFixed(Graphics g, int fixedX, int y, float opacity) {
+                if ( data == null ){
+                    return this;
+                }
+                // round the pen position to the nearest phase
+                int phases = subpixelPhases;
+                int steps = (fixedX * phases + 32) >> 6;
+                int x = steps >= 0 ? steps / phases : -((phases - 1 - steps) / phases);
+                int phase = steps - x * phases;
+                Image img = getBitmap(glyphId, phase, g.getColor());
+                if ( img == null ){
+                    return this;
+                }
+                GlyphBitmap mask = getMask(glyphId, phase);
+                HeaderTable h = TrueTypeFont.this.getHeader();
+                float upem = h.getUnitsPerEm();
+                int baseline = y + Math.round(TrueTypeFont.this.getHorizontalHeader().getAscender() * size / upem);
                 int alpha = g.getAlpha();
-                int newAlpha = (int)(opacity * 255);
-                g.setAlpha(newAlpha);
-                g.drawImage(getBitmap(), x, y);
+                g.setAlpha((int)(alpha * opacity));
+                g.drawImage(img, x + mask.getLeft(), baseline + mask.getTop());
                 g.setAlpha(alpha);
                 return this;
             }
@@ -412,7 +1590,7 @@ public class TrueTypeFont
                 Transform transform = Transform.makeTranslation(x, y+ascender);
                 transform.scale(scale, -scale);
 
-                GeneralPath p = getGlyphPath(glyphId);
+                GeneralPath p = getGlyphPath(glyphId, size);
                 
                 GeneralPath p2 = new GeneralPath(p);
                 //p.produce(p2);
@@ -430,7 +1608,7 @@ public class TrueTypeFont
                 ascender = ascender * scale;
                 Transform transform = Transform.makeTranslation(x, y + ascender);
                 transform.scale(scale, -scale);
-                GeneralPath p = getGlyphPath(glyphId);
+                GeneralPath p = getGlyphPath(glyphId, size);
                 if (p == null) {
                     return this;
                 }
@@ -448,6 +1626,41 @@ public class TrueTypeFont
             public Glyph fill(Graphics g, int x, int y, float op) {
                 return draw(g, x, y, op);
             }
+            
+            public Glyph drawStrokeOutline(GeneralPath sink, int x, int y, Stroke stroke) {
+                if ( data == null ){
+                    return this;
+                }
+                HeaderTable h = TrueTypeFont.this.getHeader();
+                float upem = h.getUnitsPerEm();
+                float ascender = TrueTypeFont.this.getHorizontalHeader().getAscender();
+                float scale = size / upem;
+                ascender = ascender * scale;
+                Transform transform = Transform.makeTranslation(x, y + ascender);
+                transform.scale(scale, -scale);
+                sink.append(getStrokedGlyphPath(glyphId, stroke).getPathIterator(transform), false);
+                return this;
+            }
+            
+            public Glyph drawDistanceField(Graphics g, int x, int y, float hscale, float vscale, float deviceScale, int color) {
+                SDFGlyphAtlas atlas = getDistanceFieldAtlas();
+                if ( !atlas.prepare(glyphId) ){
+                    return this;
+                }
+                HeaderTable h = TrueTypeFont.this.getHeader();
+                float upem = h.getUnitsPerEm();
+                float ascender = TrueTypeFont.this.getHorizontalHeader().getAscender() * size / upem;
+                float k = size / atlas.getReferenceSize();
+                float w = atlas.getWidth(glyphId) * k * hscale;
+                float hi = atlas.getHeight(glyphId) * k * vscale;
+                int iw = Math.max(1, (int)Math.ceil(w * deviceScale));
+                int ih = Math.max(1, (int)Math.ceil(hi * deviceScale));
+                Image img = getDistanceFieldImage(glyphId, iw, ih, color);
+                int dx = x + Math.round(atlas.getLeft(glyphId) * k * hscale);
+                int dy = y + Math.round((ascender + atlas.getTop(glyphId) * k) * vscale);
+                g.drawImage(img, dx, dy, Math.round(w), Math.round(hi));
+                return this;
+            }
         }
         
     }
@@ -0,0 +1,322 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package com.codename1.fontbox.tools;
+
+import com.codename1.ui.PrecompiledGlyphCollection;
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.TreeSet;
+import javax.imageio.ImageIO;
+import org.apache.fontbox.ttf.CMAPEncodingEntry;
+import org.apache.fontbox.ttf.GlyphBitmap;
+import org.apache.fontbox.ttf.GlyphRasterizer;
+import org.apache.fontbox.ttf.HeaderTable;
+import org.apache.fontbox.ttf.KerningTable;
+import org.apache.fontbox.ttf.TTFParser;
+import org.apache.fontbox.ttf.TrueTypeFont;
+
+/**
+ * Precompiles a font at one size and character set into the artifacts that are
+ * loaded at runtime by {@link PrecompiledGlyphCollection}: an atlas PNG with the
+ * anti-aliased glyphs in white, and a <code>.cn1glyphs</code> metrics file with
+ * the glyph metrics, atlas locations and kerning pairs.
+ *
+ * This is a JavaSE tool that runs at build time.  It needs the library classes
+ * and a Codename One jar that includes <code>com.codename1.ui.geom.GeneralPath</code>
+ * on the classpath, and is normally run through the <code>precompile-glyphs</code>
+ * Ant target.
+ *
+ * <code><pre>
+ * java com.codename1.fontbox.tools.GlyphAtlasCompiler font.ttf size charset outputDir [name]
+ * </pre></code>
+ *
+ * <code>charset</code> is either a UTF-8 text file with the characters to include,
+ * or the characters themselves.  The artifacts are written to
+ * <code>outputDir/name.cn1glyphs</code> and <code>outputDir/name.png</code>,
+ * where <code>name</code> defaults to the font file name followed by the size.
+ * @author shannah
+ */
+public class GlyphAtlasCompiler {
+
+    private static final int PADDING = 1;
+
+    private final TrueTypeFont font;
+    private final float size;
+    private final char[] chars;
+
+    private GlyphBitmap[] bitmaps;
+    private int[] advances;
+    private int[] glyphIds;
+    private int[] atlasX;
+    private int[] atlasY;
+    private int atlasWidth;
+    private int atlasHeight;
+
+    /**
+     * Creates a compiler for a font.
+     * @param font The font.
+     * @param size The size in pixels.
+     * @param charset The characters to include.
+     */
+    public GlyphAtlasCompiler(TrueTypeFont font, float size, String charset) {
+        this.font = font;
+        this.size = size;
+        TreeSet<Character> set = new TreeSet<Character>();
+        set.add(' ');
+        for (int i = 0; i < charset.length(); i++) {
+            char c = charset.charAt(i);
+            if (c != '\n' && c != '\r') {
+                set.add(c);
+            }
+        }
+        chars = new char[set.size()];
+        int i = 0;
+        for (Character c : set) {
+            chars[i++] = c;
+        }
+    }
+
+    /**
+     * Rasterizes the glyphs and packs them into the atlas.
+     */
+    public void compile() {
+        HeaderTable head = font.getHeader();
+        float upem = head.getUnitsPerEm();
+        int[] hmtx = font.getHorizontalMetrics().getAdvanceWidth();
+        int n = chars.length;
+        bitmaps = new GlyphBitmap[n];
+        advances = new int[n];
+        glyphIds = new int[n];
+        for (int i = 0; i < n; i++) {
+            int glyphId = getGlyphId(chars[i]);
+            glyphIds[i] = glyphId;
+            bitmaps[i] = GlyphRasterizer.rasterize(font, glyphId, size);
+            int advance = hmtx.length == 0 ? 0 : hmtx[Math.min(glyphId, hmtx.length - 1)];
+            advances[i] = Math.round(size * advance * 64 / upem);
+        }
+        pack();
+    }
+
+    private int getGlyphId(char c) {
+        CMAPEncodingEntry[] maps = font.getCMAP().getCmaps();
+        for (int i = 0; i < maps.length; i++) {
+            int glyphId = maps[i].getGlyphId(c);
+            if (glyphId >= 0) {
+                return glyphId;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Packs the glyphs into shelves, tallest first.
+     */
+    private void pack() {
+        int n = chars.length;
+        Integer[] order = new Integer[n];
+        long area = 0;
+        int widest = 0;
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+            area += (long)(bitmaps[i].getWidth() + PADDING) * (bitmaps[i].getHeight() + PADDING);
+            widest = Math.max(widest, bitmaps[i].getWidth() + PADDING);
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return bitmaps[b].getHeight() - bitmaps[a].getHeight();
+            }
+        });
+        atlasWidth = 64;
+        while (atlasWidth < widest || (long)atlasWidth * atlasWidth < area * 5 / 4) {
+            atlasWidth *= 2;
+        }
+        atlasX = new int[n];
+        atlasY = new int[n];
+        int x = 0;
+        int y = 0;
+        int shelfHeight = 0;
+        for (int k = 0; k < n; k++) {
+            int i = order[k];
+            GlyphBitmap b = bitmaps[i];
+            if (b.isEmpty()) {
+                continue;
+            }
+            if (x + b.getWidth() > atlasWidth) {
+                x = 0;
+                y += shelfHeight + PADDING;
+                shelfHeight = 0;
+            }
+            atlasX[i] = x;
+            atlasY[i] = y;
+            x += b.getWidth() + PADDING;
+            shelfHeight = Math.max(shelfHeight, b.getHeight());
+        }
+        atlasHeight = Math.max(1, y + shelfHeight);
+    }
+
+    /**
+     * Renders the atlas with the glyphs in white and their coverage in the
+     * alpha channel.
+     * @return The atlas image.
+     */
+    public BufferedImage createAtlas() {
+        BufferedImage img = new BufferedImage(atlasWidth, atlasHeight, BufferedImage.TYPE_INT_ARGB);
+        for (int i = 0; i < chars.length; i++) {
+            GlyphBitmap b = bitmaps[i];
+            if (b.isEmpty()) {
+                continue;
+            }
+            int[] argb = b.toARGB(0xffffff, null);
+            img.setRGB(atlasX[i], atlasY[i], b.getWidth(), b.getHeight(), argb, 0, b.getWidth());
+        }
+        return img;
+    }
+
+    /**
+     * Writes the metrics file.
+     * @param atlasName The resource name of the atlas image.
+     * @return The contents of the metrics file.
+     * @throws IOException
+     */
+    public byte[] createMetrics(String atlasName) throws IOException {
+        float upem = font.getHeader().getUnitsPerEm();
+        float scale = size / upem;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(PrecompiledGlyphCollection.MAGIC);
+        out.writeShort(PrecompiledGlyphCollection.VERSION);
+        out.writeUTF(atlasName);
+        out.writeFloat(size);
+        HeaderTable h = font.getHeader();
+        // same metrics as TrueTypeFont.getFont() and its glyph collection, which
+        // truncates the ascent but draws glyphs below the rounded baseline
+        float ascender = font.getHorizontalHeader().getAscender() * scale;
+        int ascent = (int)ascender;
+        int baselineShift = Math.round(ascender) - ascent;
+        out.writeShort(ascent);
+        out.writeShort((int)(font.getHorizontalHeader().getDescender() * scale));
+        out.writeShort((int)(size * (h.getXMax() - h.getXMin()) / upem));
+        out.writeShort((int)(size * (h.getYMax() - h.getYMin()) / upem));
+
+        out.writeInt(chars.length);
+        for (int i = 0; i < chars.length; i++) {
+            GlyphBitmap b = bitmaps[i];
+            out.writeChar(chars[i]);
+            out.writeInt(advances[i]);
+            out.writeShort(atlasX[i]);
+            out.writeShort(atlasY[i]);
+            out.writeShort(b.getWidth());
+            out.writeShort(b.getHeight());
+            out.writeShort(b.getLeft());
+            out.writeShort(b.getTop() + baselineShift);
+        }
+
+        List<int[]> kerning = new ArrayList<int[]>();
+        KerningTable kern = font.getKerning();
+        if (kern != null && kern.getPairCount() > 0) {
+            for (int a = 0; a < chars.length; a++) {
+                for (int b = 0; b < chars.length; b++) {
+                    int k = kern.getKerning(glyphIds[a], glyphIds[b]);
+                    if (k != 0) {
+                        kerning.add(new int[]{(chars[a] << 16) | chars[b], Math.round(k * scale * 64)});
+                    }
+                }
+            }
+        }
+        // sorted as signed ints, matching the runtime binary search
+        Collections.sort(kerning, new Comparator<int[]>() {
+            public int compare(int[] a, int[] b) {
+                return a[0] < b[0] ? -1 : (a[0] > b[0] ? 1 : 0);
+            }
+        });
+        out.writeInt(kerning.size());
+        for (int[] pair : kerning) {
+            out.writeChar(pair[0] >>> 16);
+            out.writeChar(pair[0] & 0xffff);
+            out.writeInt(pair[1]);
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @return The number of characters in the collection.
+     */
+    public int getCharCount() {
+        return chars.length;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 4) {
+            System.err.println("Usage: GlyphAtlasCompiler font.ttf size charset outputDir [name]");
+            System.exit(1);
+        }
+        File fontFile = new File(args[0]);
+        float size = Float.parseFloat(args[1]);
+        String charset = args[2];
+        File charsetFile = new File(charset);
+        if (charsetFile.isFile()) {
+            charset = new String(readFully(new FileInputStream(charsetFile)), "UTF-8");
+        }
+        File outDir = new File(args[3]);
+        String name = args.length > 4 ? args[4] : baseName(fontFile.getName()) + "-" + args[1];
+
+        TrueTypeFont font;
+        InputStream in = new FileInputStream(fontFile);
+        try {
+            font = new TTFParser().parseTTF(in);
+        } finally {
+            in.close();
+        }
+        GlyphAtlasCompiler compiler = new GlyphAtlasCompiler(font, size, charset);
+        compiler.compile();
+
+        outDir.mkdirs();
+        String atlasName = name + ".png";
+        ImageIO.write(compiler.createAtlas(), "png", new File(outDir, atlasName));
+        DataOutputStream metrics = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(new File(outDir, name + ".cn1glyphs"))));
+        try {
+            metrics.write(compiler.createMetrics(atlasName));
+        } finally {
+            metrics.close();
+        }
+        System.out.println("Wrote " + compiler.getCharCount() + " glyphs to "
+                + new File(outDir, name + ".cn1glyphs") + " and " + new File(outDir, atlasName));
+    }
+
+    private static String baseName(String fileName) {
+        int dot = fileName.lastIndexOf('.');
+        return dot < 0 ? fileName : fileName.substring(0, dot);
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buf = new byte[8192];
+            int len;
+            while ((len = in.read(buf)) > 0) {
+                out.write(buf, 0, len);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+}